@@ -0,0 +1,112 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+/**
+ * Test slides for the benchmarks, built without the JavaFX toolkit.
+ * <p>
+ * Synthetic slides are a pale, noisy background with randomly placed purple (white cell)
+ * and pink (red cell) discs, at roughly the density of a real smear. Bundled slides are
+ * the images shipped in the resources, decoded with ImageIO and tiled out to the
+ * requested size so every size has realistic content.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+final class BenchmarkImages {
+
+    /** Bundled slide used for the "bundled" source */
+    static final String BUNDLED_SLIDE = "images/humanblood-whrights-smear.jpg";
+
+    private BenchmarkImages() {
+    }
+
+    /**
+     * Creates a slide of about the given number of megapixels, in a 4:3 aspect ratio.
+     *
+     * @param source     "synthetic" or "bundled"
+     * @param megapixels The size in millions of pixels
+     * @return The slide pixels
+     */
+    static RasterBuffer create(String source, int megapixels) {
+        int width = (int) Math.sqrt(megapixels * 1_000_000.0 * 4 / 3);
+        int height = megapixels * 1_000_000 / width;
+        return switch (source) {
+            case "synthetic" -> synthetic(width, height, 42);
+            case "bundled" -> tiled(loadBundled(BUNDLED_SLIDE), width, height);
+            default -> throw new IllegalArgumentException("Unknown image source: " + source);
+        };
+    }
+
+    /**
+     * Creates a synthetic slide of pale background with purple and pink cells.
+     */
+    static RasterBuffer synthetic(int width, int height, long seed) {
+        Random random = new Random(seed);
+        RasterBuffer raster = new RasterBuffer(width, height);
+        int[] pixels = raster.getPixels();
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = RasterBuffer.rgb(215 + random.nextInt(30), 205 + random.nextInt(30), 215 + random.nextInt(30));
+        }
+
+        // About one cell per 2500 pixels, one in ten of them a white cell
+        int cells = width * height / 2500;
+        for (int c = 0; c < cells; c++) {
+            int cx = random.nextInt(width);
+            int cy = random.nextInt(height);
+            boolean white = random.nextInt(10) == 0;
+            int radius = white ? 12 + random.nextInt(10) : 6 + random.nextInt(8);
+            int color = white
+                    ? RasterBuffer.rgb(90 + random.nextInt(30), 30 + random.nextInt(30), 140 + random.nextInt(40))
+                    : RasterBuffer.rgb(200 + random.nextInt(40), 80 + random.nextInt(40), 110 + random.nextInt(40));
+            for (int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius); y++) {
+                for (int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius); x++) {
+                    int dx = x - cx;
+                    int dy = y - cy;
+                    if (dx * dx + dy * dy < radius * radius) {
+                        pixels[y * width + x] = color;
+                    }
+                }
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * Decodes an image from the application resources.
+     */
+    static RasterBuffer loadBundled(String name) {
+        try (InputStream in = BenchmarkImages.class.getResourceAsStream(name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Missing resource: " + name);
+            }
+            BufferedImage image = ImageIO.read(in);
+            return RasterBuffer.fromBufferedImage(image);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Repeats a slide horizontally and vertically to fill the given size.
+     */
+    static RasterBuffer tiled(RasterBuffer tile, int width, int height) {
+        RasterBuffer raster = new RasterBuffer(width, height);
+        int[] pixels = raster.getPixels();
+        int[] tilePixels = tile.getPixels();
+        for (int y = 0; y < height; y++) {
+            int tileRow = tile.index(0, y % tile.getHeight());
+            for (int x = 0; x < width; x += tile.getWidth()) {
+                int length = Math.min(tile.getWidth(), width - x);
+                System.arraycopy(tilePixels, tileRow, pixels, y * width + x, length);
+            }
+        }
+        return raster;
+    }
+}
@@ -0,0 +1,88 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The stages of UnionFindBloodCellProcessor on their own: pixel classification,
+ * cell detection (single pass or one pass per cell type) and marking the cells.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class DetectionBenchmark {
+
+    @Param({"1", "10", "40"})
+    public int megapixels;
+
+    @Param({"synthetic", "bundled"})
+    public String source;
+
+    @Param({"true", "false"})
+    public boolean singlePass;
+
+    private UnionFindBloodCellProcessor processor;
+    private ProcessingParameters params;
+    private RasterBuffer raster;
+    private RasterBuffer marked;
+    private CellDetectionResult cells;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        raster = BenchmarkImages.create(source, megapixels);
+        processor = new UnionFindBloodCellProcessor();
+        processor.setSinglePassLabeling(singlePass);
+        processor.setComponentTrees(false);
+        params = ProcessingParameters.UnionFindBloodCellProcessor();
+        cells = processor.detect(raster, params);
+        marked = raster.copy();
+    }
+
+    /**
+     * The processor keeps its last labellings, so without this every call after the first
+     * would only time the reuse of the kept one.
+     */
+    @Setup(Level.Invocation)
+    public void clearLabellings() {
+        processor.clearLabellings();
+    }
+
+    @Benchmark
+    public byte[] classifyPixels() {
+        return processor.classifyPixels(raster);
+    }
+
+    @Benchmark
+    public CellDetectionResult detectCells() {
+        return processor.detect(raster);
+    }
+
+    /**
+     * Outlining the cells in the raster. Numbering them needs a JavaFX Canvas,
+     * so it isn't covered here.
+     */
+    @Benchmark
+    public RasterBuffer markCells() {
+        processor.drawCells(marked, cells);
+        return marked;
+    }
+}
@@ -0,0 +1,85 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connected component labelling engines on the class map of a slide.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class LabelerBenchmark {
+
+    @Param({"pixel", "block", "parallel", "runlength"})
+    public String engine;
+
+    @Param({"FOUR", "EIGHT"})
+    public Connectivity connectivity;
+
+    @Param({"1", "10", "40"})
+    public int megapixels;
+
+    @Param({"synthetic", "bundled"})
+    public String source;
+
+    private ComponentLabeler labeler;
+    private byte[] classes;
+    private int[] labels;
+    private final ComponentStats stats = new ComponentStats();
+    private int width;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RasterBuffer raster = BenchmarkImages.create(source, megapixels);
+        width = raster.getWidth();
+        height = raster.getHeight();
+        UnionFindBloodCellProcessor processor = new UnionFindBloodCellProcessor();
+        processor.detect(raster, ProcessingParameters.UnionFindBloodCellProcessor());
+        classes = processor.classifyPixels(raster);
+        labels = new int[width * height];
+        labeler = switch (engine) {
+            case "pixel" -> new PixelComponentLabeler(connectivity);
+            case "block" -> new BlockComponentLabeler(connectivity);
+            case "parallel" -> new ParallelComponentLabeler(connectivity);
+            case "runlength" -> new RunLengthComponentLabeler(connectivity);
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        };
+    }
+
+    @Benchmark
+    public int label() {
+        return labeler.label(classes, width, height, labels);
+    }
+
+    /**
+     * Labelling plus area and bounding box, as the detection uses it.
+     * The run-length engine skips the label image here.
+     */
+    @Benchmark
+    public ComponentStats labelStats() {
+        int[] output = labeler instanceof RunLengthComponentLabeler ? null : labels;
+        labeler.labelStats(classes, width, height, output, stats, null);
+        return stats;
+    }
+}
@@ -0,0 +1,73 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar against Vector API pixel kernels, over a whole raster one row at a time.
+ * The forked JVM adds the jdk.incubator.vector module; impl=vector fails in setup without it.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "--add-modules=jdk.incubator.vector"})
+public class PixelKernelBenchmark {
+
+    @Param({"scalar", "vector"})
+    public String impl;
+
+    @Param({"1", "10", "40"})
+    public int megapixels;
+
+    @Param({"synthetic", "bundled"})
+    public String source;
+
+    private PixelKernels kernels;
+    private RasterBuffer raster;
+    private int[] out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        raster = BenchmarkImages.create(source, megapixels);
+        out = new int[raster.getWidth() * raster.getHeight()];
+        kernels = impl.equals("vector") ? PixelKernels.vector() : PixelKernels.scalar();
+    }
+
+    @Benchmark
+    public int[] threshold() {
+        int width = raster.getWidth();
+        for (int y = 0; y < raster.getHeight(); y++) {
+            kernels.threshold(raster.getPixels(), raster.index(0, y), out, y * width, width,
+                    1.0, 0.35, 0xFFFFFFFF, 0xFF000000);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public int[] tricolour() {
+        int width = raster.getWidth();
+        for (int y = 0; y < raster.getHeight(); y++) {
+            kernels.tricolour(raster.getPixels(), raster.index(0, y), out, y * width, width,
+                    0.0, 0xFF4B0082, 0xFFDB7093, 0xFFFFFFFF);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,91 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end cost of each ImageProcessor on a raster, without the JavaFX toolkit.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g", "--add-modules=jdk.incubator.vector"})
+public class ProcessorBenchmark {
+
+    @Param({"original", "bw", "bloodcell", "tricolour", "union", "union2"})
+    public String processor;
+
+    @Param({"1", "10", "40"})
+    public int megapixels;
+
+    @Param({"synthetic", "bundled"})
+    public String source;
+
+    private ImageProcessor imageProcessor;
+    private ProcessingParameters params;
+    private RasterBuffer raster;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        raster = BenchmarkImages.create(source, megapixels);
+        switch (processor) {
+            case "original" -> {
+                imageProcessor = new OriginalImageProcessor();
+                params = new ProcessingParameters();
+            }
+            case "bloodcell" -> {
+                imageProcessor = new BloodCellProcessor();
+                params = ProcessingParameters.getDefaultBloodCellDetection();
+            }
+            case "bw" -> {
+                imageProcessor = ImageProcessorFactory.createProcessor(processor);
+                params = ProcessingParameters.getDefaultBlackAndWhite();
+            }
+            case "union" -> {
+                imageProcessor = ImageProcessorFactory.createProcessor(processor);
+                params = ProcessingParameters.UnionFindBloodCellProcessor();
+            }
+            default -> {
+                imageProcessor = ImageProcessorFactory.createProcessor(processor);
+                params = ProcessingParameters.getDefaultTricolourBlood();
+            }
+        }
+        if (imageProcessor instanceof UnionFindBloodCellProcessor union) {
+            union.setComponentTrees(false);
+        }
+    }
+
+    /**
+     * The union find processor keeps its last labellings, so without this every call after
+     * the first would only time the reuse of the kept one.
+     */
+    @Setup(Level.Invocation)
+    public void clearLabellings() {
+        if (imageProcessor instanceof UnionFindBloodCellProcessor union) {
+            union.clearLabellings();
+        }
+    }
+
+    @Benchmark
+    public RasterBuffer processRaster() {
+        return imageProcessor.processRaster(raster, params);
+    }
+}
@@ -0,0 +1,144 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Union and find patterns on the disjoint set structures, sized like a 1, 10 and 40
+ * megapixel image (one element per pixel).
+ * <ul>
+ *     <li>chain: each element joined to the one before, the worst case for tree depth</li>
+ *     <li>grid: 4-connected unions over a square image, the labelling access pattern</li>
+ *     <li>random: unions between random pairs</li>
+ * </ul>
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class UnionFindBenchmark {
+
+    @Param({"1", "10", "40"})
+    public int megapixels;
+
+    @Param({"chain", "grid", "random"})
+    public String pattern;
+
+    private int n;
+    private int side;
+    private UnionFind unionFind;
+    private ConcurrentUnionFind concurrentUnionFind;
+    private UnionFind merged;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        n = megapixels * 1_000_000;
+        side = (int) Math.sqrt(n);
+        unionFind = new UnionFind(n);
+        concurrentUnionFind = new ConcurrentUnionFind(n);
+
+        // A structure with every union already done, for the find benchmark
+        merged = new UnionFind(n);
+        unionAll(merged);
+    }
+
+    @Benchmark
+    public int union() {
+        unionFind.reset(n);
+        unionAll(unionFind);
+        return unionFind.countSets();
+    }
+
+    @Benchmark
+    public int concurrentUnion() {
+        concurrentUnionFind.reset(n);
+        switch (pattern) {
+            case "chain" -> {
+                for (int i = 1; i < n; i++) {
+                    concurrentUnionFind.union(i - 1, i);
+                }
+            }
+            case "grid" -> {
+                for (int p = 0; p < side * side; p++) {
+                    if (p % side > 0) concurrentUnionFind.union(p, p - 1);
+                    if (p >= side) concurrentUnionFind.union(p, p - side);
+                }
+            }
+            default -> {
+                int seed = 12345;
+                for (int i = 0; i < n / 2; i++) {
+                    seed = nextRandom(seed);
+                    int a = Math.floorMod(seed, n);
+                    seed = nextRandom(seed);
+                    concurrentUnionFind.union(a, Math.floorMod(seed, n));
+                }
+            }
+        }
+        return concurrentUnionFind.countSets();
+    }
+
+    @Benchmark
+    public long find() {
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += merged.find(i);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int flattenAll() {
+        return merged.flattenAll();
+    }
+
+    private void unionAll(UnionFind uf) {
+        switch (pattern) {
+            case "chain" -> {
+                for (int i = 1; i < n; i++) {
+                    uf.union(i - 1, i);
+                }
+            }
+            case "grid" -> {
+                for (int p = 0; p < side * side; p++) {
+                    if (p % side > 0) uf.union(p, p - 1);
+                    if (p >= side) uf.union(p, p - side);
+                }
+            }
+            default -> {
+                int seed = 12345;
+                for (int i = 0; i < n / 2; i++) {
+                    seed = nextRandom(seed);
+                    int a = Math.floorMod(seed, n);
+                    seed = nextRandom(seed);
+                    uf.union(a, Math.floorMod(seed, n));
+                }
+            }
+        }
+    }
+
+    /** xorshift, so random pairs don't need a 40 million entry table */
+    private static int nextRandom(int seed) {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+}
@@ -0,0 +1,141 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws detected cells straight into a {@link RasterBuffer}: an outline with corner
+ * highlights and a number per cell, white cells in dark red and red cells in dark blue.
+ * <p>
+ * This is the headless counterpart of {@link CellOverlay}, with the same geometry: 2 pixel
+ * borders, 6 pixel corner squares, and numbers from a {@link GlyphAtlas} of Arial 18 placed
+ * slightly inside the top left corner. Everything is written into the pixel array directly
+ * (borders as row fills, digits blended from the atlas), so it needs no JavaFX toolkit, no
+ * Canvas and no snapshot, and its cost is proportional to the number of cells and their
+ * perimeters, not to the image area. It is used for saving, batch output and processRaster.
+ * <p>
+ * A renderer only holds its immutable atlas, so one instance can be shared between threads
+ * as long as they draw into different rasters.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class AnnotationRenderer {
+
+    static final Color WHITE_CELL_COLOR = Color.DARKRED;
+    static final Color RED_CELL_COLOR = Color.DARKBLUE;
+    static final int THICKNESS = 2;
+    static final int CORNER_SIZE = 6;
+    static final String FONT_FAMILY = "Arial";
+    static final int FONT_SIZE = 18;
+    /** Position of a cell number relative to the top left of the cell: left and baseline */
+    static final int LABEL_X = 10;
+    static final int LABEL_Y = 25;
+
+    private final GlyphAtlas atlas;
+
+    public AnnotationRenderer() {
+        this(GlyphAtlas.of(FONT_FAMILY, FONT_SIZE));
+    }
+
+    /**
+     * @param atlas The digits to number the cells with
+     */
+    public AnnotationRenderer(GlyphAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    /**
+     * Outlines and numbers both cell types. All outlines are drawn before the numbers,
+     * so no outline covers a number.
+     *
+     * @param raster The raster to draw on
+     * @param cells  The detected cells
+     */
+    public void drawCells(RasterBuffer raster, CellDetectionResult cells) {
+        int white = RasterBuffer.argb(WHITE_CELL_COLOR);
+        int red = RasterBuffer.argb(RED_CELL_COLOR);
+        drawOutlines(raster, cells.getWhiteCells(), white);
+        drawOutlines(raster, cells.getRedCells(), red);
+        drawNumbers(raster, cells.getWhiteCells(), white);
+        drawNumbers(raster, cells.getRedCells(), red);
+    }
+
+    /**
+     * Outlines each cell.
+     *
+     * @param raster The raster to draw on
+     * @param cells  The bounding boxes of the cells
+     * @param argb   The outline colour
+     */
+    public void drawOutlines(RasterBuffer raster, List<Rectangle> cells, int argb) {
+        for (Rectangle cell : cells) {
+            drawOutline(raster, cell, argb);
+        }
+    }
+
+    /**
+     * Outlines one cell: borders along the four sides (the bottom and right ones just
+     * outside the box) and a square on each corner.
+     *
+     * @param raster The raster to draw on
+     * @param cell   The bounding box of the cell
+     * @param argb   The outline colour
+     */
+    public void drawOutline(RasterBuffer raster, Rectangle cell, int argb) {
+        int x = (int) cell.getX();
+        int y = (int) cell.getY();
+        int width = (int) cell.getWidth();
+        int height = (int) cell.getHeight();
+
+        // Borders: top, bottom, left, right
+        fillRect(raster, x, y, width, THICKNESS, argb);
+        fillRect(raster, x, y + height - THICKNESS + 1, width, THICKNESS, argb);
+        fillRect(raster, x, y, THICKNESS, height, argb);
+        fillRect(raster, x + width - THICKNESS + 1, y, THICKNESS, height, argb);
+
+        // Corner highlights
+        int far = CORNER_SIZE - 1;
+        fillRect(raster, x, y, CORNER_SIZE, CORNER_SIZE, argb);
+        fillRect(raster, x + width - far, y, CORNER_SIZE, CORNER_SIZE, argb);
+        fillRect(raster, x, y + height - far, CORNER_SIZE, CORNER_SIZE, argb);
+        fillRect(raster, x + width - far, y + height - far, CORNER_SIZE, CORNER_SIZE, argb);
+    }
+
+    /**
+     * Numbers the cells from 1 in list order.
+     *
+     * @param raster The raster to draw on
+     * @param cells  The bounding boxes of the cells
+     * @param argb   The text colour
+     */
+    public void drawNumbers(RasterBuffer raster, List<Rectangle> cells, int argb) {
+        for (int i = 0; i < cells.size(); i++) {
+            Rectangle cell = cells.get(i);
+            atlas.drawNumber(raster, i + 1,
+                    (int) cell.getX() + LABEL_X, (int) cell.getY() + LABEL_Y, argb);
+        }
+    }
+
+    /**
+     * Fills a rectangle, clipped to the raster, one row at a time.
+     */
+    static void fillRect(RasterBuffer raster, int x, int y, int width, int height, int argb) {
+        int fromX = Math.max(x, 0);
+        int fromY = Math.max(y, 0);
+        int toX = Math.min(x + width, raster.getWidth());
+        int toY = Math.min(y + height, raster.getHeight());
+        if (fromX >= toX) {
+            return;
+        }
+        int[] pixels = raster.getPixels();
+        for (int row = fromY; row < toY; row++) {
+            int start = raster.index(fromX, row);
+            Arrays.fill(pixels, start, start + toX - fromX, argb);
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package com.michaelmckibbin.imageanalysis;
 
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
 
 /**
  * Processes images to convert them to black and white using configurable thresholds
@@ -23,6 +19,13 @@ public class BlackAndWhiteProcessor implements ImageProcessor {
      */
     private static final double DEFAULT_THRESHOLD = 0.35; // previous value 0.5.
 
+    /** Packed ARGB values for the two output colours */
+    private static final int WHITE = 0xFFFFFFFF;
+    private static final int BLACK = 0xFF000000;
+
+    /** Threshold kernel, vectorised when the Vector API is available */
+    private PixelKernels kernels = PixelKernels.getDefault();
+
     /**
      * Processes an image to convert it to black and white using specified parameters.
      * The conversion takes into account:
@@ -42,12 +45,24 @@ public class BlackAndWhiteProcessor implements ImageProcessor {
         System.out.println("\n*   Processing image with BlackAndWhiteProcessor    *");
         System.out.println("\n*****************************************************");
         System.out.println("\n");
-        int width = (int) originalImage.getWidth();
-        int height = (int) originalImage.getHeight();
+        return processRaster(RasterBuffer.fromImage(originalImage), params).toImage();
+    }
+
+    /**
+     * Converts a raster to black and white. See {@link #processImage(Image, ProcessingParameters)}.
+     *
+     * @param source The source pixels
+     * @param params Processing parameters including brightness and RGB channel weights
+     * @return A new raster containing the black and white version
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
+        int width = source.getWidth();
+        int height = source.getHeight();
 
-        WritableImage processedImage = new WritableImage(width, height);
-        PixelReader pixelReader = originalImage.getPixelReader();
-        PixelWriter pixelWriter = processedImage.getPixelWriter();
+        RasterBuffer processed = new RasterBuffer(width, height);
+        int[] in = source.getPixels();
+        int[] out = processed.getPixels();
 
         // Adjust threshold based on brightness parameter (inverted effect)
         // Higher brightness values results in a lower threshold, making more pixels turn white
@@ -62,31 +77,37 @@ public class BlackAndWhiteProcessor implements ImageProcessor {
         // Values < 1.0 will reduce that color's contribution to the final brightness
         double rgbAdjustment = (params.getRed() + params.getGreen() + params.getBlue()) / 3.0;
 
+        // Calculate luminance using weighted RGB values based on human perception
+        // The coefficients (0.299, 0.587, 0.114) are derived from human visual perception:
+        // - Green (0.587) has the highest weight because human eyes are most sensitive to green light
+        // - Red (0.299) has the second highest weight due to moderate sensitivity
+        // - Blue (0.114) has the lowest weight as human eyes are least sensitive to blue
+        // These weights ensure the grayscale conversion matches human perception of brightness
+        // An alternate set of values that could be applied are: R:0.2126, G:0.7152, B:0.0722.
+        // The luminance is then scaled by the RGB adjustment and compared with the threshold,
+        // one row at a time (see PixelKernels)
         for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = pixelReader.getColor(x, y);
-
-                // Calculate luminance using weighted RGB values based on human perception
-                // The coefficients (0.299, 0.587, 0.114) are derived from human visual perception:
-                // - Green (0.587) has the highest weight because human eyes are most sensitive to green light
-                // - Red (0.299) has the second highest weight due to moderate sensitivity
-                // - Blue (0.114) has the lowest weight as human eyes are least sensitive to blue
-                // These weights ensure the grayscale conversion matches human perception of brightness
-                // An alternate set of values that could be applied are: R:0.2126, G:0.7152, B:0.0722.
-                double luminance = (0.299 * color.getRed() +
-                                   0.587 * color.getGreen() +
-                                   0.114 * color.getBlue());
-
-
-                // Apply RGB adjustment
-                luminance *= rgbAdjustment;
-
-                // Convert to black or white based on threshold
-                Color newColor = (luminance > threshold) ? Color.WHITE : Color.BLACK;
-                pixelWriter.setColor(x, y, newColor);
+            if ((y & 255) == 0) {
+                ImageProcessor.checkCancelled();
             }
+            kernels.threshold(in, source.index(0, y), out, y * width, width,
+                    rgbAdjustment, threshold, WHITE, BLACK);
         }
-        return processedImage;
+        return processed;
+    }
+
+    /**
+     * Selects the threshold kernel, e.g. {@link PixelKernels#scalar()} to compare against
+     * the vectorised default.
+     *
+     * @param kernels The kernels to use
+     */
+    public void setKernels(PixelKernels kernels) {
+        this.kernels = kernels;
+    }
+
+    public PixelKernels getKernels() {
+        return kernels;
     }
 
     /**
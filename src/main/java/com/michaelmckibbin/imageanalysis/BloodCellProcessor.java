@@ -1,24 +1,23 @@
 package com.michaelmckibbin.imageanalysis;
 
 import javafx.fxml.FXML;
-import javafx.geometry.Point2D;
 import javafx.scene.control.Slider;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Queue;
 import javafx.scene.shape.Rectangle;
 
 public class BloodCellProcessor implements ImageProcessor {
     private double whiteCellThreshold;  // For purple/darker objects
     private double redCellThreshold;    // For dark pink objects
     private int minCellSize;           // Will be set from slider
-    private int maxCellSize = 5000;     // Maximum size to prevent false positives
+    private static final int MAX_CELL_SIZE = 5000;  // Maximum size to prevent false positives
+    private int maxCellSize = MAX_CELL_SIZE;
+    private ColourClassLut colourLut;   // Cell type flags of every colour for the thresholds
+    private long[] visited = new long[0]; // Flood fill visited bits, row-major, reused between runs
+    private int[] stack = new int[256];   // Flood fill span seeds, (x, y) pairs, grown as needed
     //private static final int DEFAULT_MIN_CELL_SIZE = 500;  // Default minimum size
 
     private enum CellType {
@@ -42,6 +41,19 @@ public class BloodCellProcessor implements ImageProcessor {
         System.out.println("\n*****************************************************");
         System.out.println("\n");
 
+        return processRaster(RasterBuffer.fromImage(originalImage), params).toImage();
+    }
+
+    /**
+     * Detects and marks blood cells in a raster.
+     * See {@link #processImage(Image, ProcessingParameters)}.
+     *
+     * @param source The source pixels (not modified)
+     * @param params The parameters to use for processing
+     * @return A copy of the source with detected cells marked
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
         // Debug all incoming parameter values
         System.out.println("\nIncoming Parameter Values:");
         System.out.println("White Cell Threshold: " + params.getWhiteCellThreshold());
@@ -50,6 +62,10 @@ public class BloodCellProcessor implements ImageProcessor {
 
         // Convert slider value (0-100) to cell size range (1-1000)
         minCellSize = 1 + (int)(params.getMinCellSize() / 100.0 * 999);
+
+        // Sizes are for the original image; shrink them for a downscaled preview
+        minCellSize = params.scaleArea(minCellSize);
+        maxCellSize = params.scaleArea(MAX_CELL_SIZE);
         System.out.println("Calculated minCellSize: " + minCellSize + " pixels");
 
         // Debug output
@@ -60,10 +76,17 @@ public class BloodCellProcessor implements ImageProcessor {
         whiteCellThreshold = params.getWhiteCellThreshold() / 100.0;
         redCellThreshold = params.getRedCellThreshold() / 100.0;
 
-        WritableImage processedImage = copyOriginalImage(originalImage);
+        // Tabulate both colour tests for these thresholds (cached between runs)
+        double white = whiteCellThreshold;
+        double red = redCellThreshold;
+        colourLut = ColourClassLut.of(List.of("bloodcell", white, red),
+                (r, g, b) -> classifyColour(r, g, b, white, red));
+        colourLut.prepareFor((long) source.getWidth() * source.getHeight());
+
+        RasterBuffer processedImage = source.copy();
 
-        List<Rectangle> whiteCells = detectCells(originalImage, CellType.WHITE_CELL);
-        List<Rectangle> redCells = detectCells(originalImage, CellType.RED_CELL);
+        List<Rectangle> whiteCells = detectCells(source, CellType.WHITE_CELL);
+        List<Rectangle> redCells = detectCells(source, CellType.RED_CELL);
 
         System.out.println("\nDetection Results:");
         System.out.println("White (Purple) cells detected: " + whiteCells.size());
@@ -102,25 +125,42 @@ public class BloodCellProcessor implements ImageProcessor {
     }
 
 
-    private boolean isCellOfType(Color pixelColor, CellType type) {
-        double red = pixelColor.getRed();
-        double green = pixelColor.getGreen();
-        double blue = pixelColor.getBlue();
-
+    private boolean isCellOfType(int argb, CellType type) {
+        byte flags = colourLut.get(argb);
         if (type == CellType.WHITE_CELL) {
-            // Look for purple colors (high red and blue, lower green)
-            return (red + blue) / 2 > green + whiteCellThreshold
-                   && blue > green
-                   && red > green;
+            return (flags & CellClass.WHITE_CELL) != 0;
         } else {
-            // Look for dark pink colors (high red, medium-low blue and green)
-            return red > (blue + green) / 2 + redCellThreshold
-                   && red > 0.3  // Ensure some minimum redness
-                   && green < 0.7 // Not too bright
-                   && blue < 0.7; // Not too bright
+            return (flags & CellClass.RED_CELL) != 0;
         }
     }
 
+    /**
+     * The colour tests, evaluated for every colour when the lookup table is built.
+     * Here a colour can pass both tests, so the table holds flags:
+     * CellClass.WHITE_CELL and CellClass.RED_CELL or'ed together.
+     */
+    private static byte classifyColour(int r, int g, int b, double whiteCellThreshold, double redCellThreshold) {
+        double red = r / 255.0;
+        double green = g / 255.0;
+        double blue = b / 255.0;
+        byte flags = CellClass.BACKGROUND;
+
+        // Look for purple colors (high red and blue, lower green)
+        if ((red + blue) / 2 > green + whiteCellThreshold
+                && blue > green
+                && red > green) {
+            flags |= CellClass.WHITE_CELL;
+        }
+        // Look for dark pink colors (high red, medium-low blue and green)
+        if (red > (blue + green) / 2 + redCellThreshold
+                && red > 0.3  // Ensure some minimum redness
+                && green < 0.7 // Not too bright
+                && blue < 0.7) { // Not too bright
+            flags |= CellClass.RED_CELL;
+        }
+        return flags;
+    }
+
 
     /**
      * Detects cells of a specific type in the image.
@@ -131,24 +171,27 @@ public class BloodCellProcessor implements ImageProcessor {
      * @param type The type of cell to detect
      * @return A List of Rectangles representing the detected cell locations
      */
-    private List<Rectangle> detectCells(Image image, CellType type) {
+    private List<Rectangle> detectCells(RasterBuffer image, CellType type) {
         List<Rectangle> cells = new ArrayList<>();
-        int width = (int) image.getWidth();
-        int height = (int) image.getHeight();
-        boolean[][] visited = new boolean[width][height];
-        PixelReader reader = image.getPixelReader();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // One bit per pixel, row-major
+        int words = (int) (((long) width * height + 63) >>> 6);
+        if (visited.length < words) {
+            visited = new long[words];
+        } else {
+            Arrays.fill(visited, 0, words, 0L);
+        }
 
         for (int y = 0; y < height; y++) {
+            ImageProcessor.checkCancelled();
             for (int x = 0; x < width; x++) {
-                if (!visited[x][y]) {
-                    Color color = reader.getColor(x, y);
-                    if (isCellOfType(color, type)) {
-                        Rectangle cellBounds = floodFill(x, y, image, visited, type);
-                        if (cellBounds != null) {
-                            cells.add(cellBounds);
-                        }
+                if (!isVisited(y * width + x) && isCellOfType(image.get(x, y), type)) {
+                    Rectangle cellBounds = floodFill(x, y, image, type);
+                    if (cellBounds != null) {
+                        cells.add(cellBounds);
                     }
-                    visited[x][y] = true;
                 }
             }
         }
@@ -158,9 +201,12 @@ public class BloodCellProcessor implements ImageProcessor {
 
     /**
      * Performs a flood fill operation starting from a given point to identify a complete cell.
-     * Uses iterative Queue to track visited & connected pixels
-     * Draws a rectangle around the detected cell
-     * Uses heap memory to store visited pixel information to avoid stack overflow risks
+     * Scanline fill: each step takes a seed off a primitive stack, extends it left and right
+     * to a whole horizontal span of the cell, marks the span visited, and pushes one seed for
+     * every run of unvisited cell pixels directly above and below the span. Nothing is
+     * allocated per pixel, and the stack holds spans rather than pixels, so very large
+     * cells don't need a lot of memory.
+     * 4-connected, like the original queue based fill.
      *
      * @author Michael McKibbin (20092733)
      *
@@ -168,46 +214,52 @@ public class BloodCellProcessor implements ImageProcessor {
      * @param startX The starting X coordinate
      * @param startY The starting Y coordinate
      * @param image The image being analyzed
-     * @param visited Array tracking visited pixels
      * @param type The type of cell being detected - WHITE_CELL or RED_CELL
      * @return Rectangle representing the bounding box of the detected cell
      */
-    private Rectangle floodFill(int startX, int startY, Image image, boolean[][] visited, CellType type) {
-        Queue<Point2D> queue = new LinkedList<>();
-        queue.add(new Point2D(startX, startY));
-
+    private Rectangle floodFill(int startX, int startY, RasterBuffer image, CellType type) {
+        int width = image.getWidth();
+        int height = image.getHeight();
         int minX = startX, maxX = startX, minY = startY, maxY = startY;
-        int pixelCount = 0;
-        PixelReader reader = image.getPixelReader();
-
-        while (!queue.isEmpty()) {
-            Point2D p = queue.poll();
-            int x = (int) p.getX();
-            int y = (int) p.getY();
-
-            if (x < 0 || x >= image.getWidth() || y < 0 || y >= image.getHeight()
-                || visited[x][y]) {
-                continue;
+        long pixelCount = 0;
+
+        int top = 0;
+        top = push(top, startX, startY);
+        while (top > 0) {
+            top -= 2;
+            int x = stack[top];
+            int y = stack[top + 1];
+            int row = y * width;
+            if (isVisited(row + x)) {
+                continue; // reached from another span first
             }
 
-            Color color = reader.getColor(x, y);
-            if (!isCellOfType(color, type)) {
-                continue;
+            // Extend the seed to the whole span
+            int left = x;
+            while (left > 0 && !isVisited(row + left - 1) && isCellOfType(image.get(left - 1, y), type)) {
+                left--;
             }
+            int right = x;
+            while (right < width - 1 && !isVisited(row + right + 1) && isCellOfType(image.get(right + 1, y), type)) {
+                right++;
+            }
+            for (int i = left; i <= right; i++) {
+                markVisited(row + i);
+            }
+            pixelCount += right - left + 1;
 
-            visited[x][y] = true;
-            pixelCount++;
-
-            minX = Math.min(minX, x);
-            maxX = Math.max(maxX, x);
+            minX = Math.min(minX, left);
+            maxX = Math.max(maxX, right);
             minY = Math.min(minY, y);
             maxY = Math.max(maxY, y);
 
-            // Add adjacent pixels to queue
-            queue.add(new Point2D(x + 1, y));
-            queue.add(new Point2D(x - 1, y));
-            queue.add(new Point2D(x, y + 1));
-            queue.add(new Point2D(x, y - 1));
+            // Seed every run of cell pixels touching the span on the rows above and below
+            if (y > 0) {
+                top = pushRuns(top, left, right, y - 1, image, type);
+            }
+            if (y < height - 1) {
+                top = pushRuns(top, left, right, y + 1, image, type);
+            }
         }
 
         if (pixelCount >= minCellSize && pixelCount <= maxCellSize) {
@@ -216,6 +268,41 @@ public class BloodCellProcessor implements ImageProcessor {
         return null;
     }
 
+    /**
+     * Pushes the first pixel of each run of unvisited cell pixels in [left, right] on row y.
+     *
+     * @return The new stack top
+     */
+    private int pushRuns(int top, int left, int right, int y, RasterBuffer image, CellType type) {
+        int row = y * image.getWidth();
+        boolean inRun = false;
+        for (int x = left; x <= right; x++) {
+            boolean cell = !isVisited(row + x) && isCellOfType(image.get(x, y), type);
+            if (cell && !inRun) {
+                top = push(top, x, y);
+            }
+            inRun = cell;
+        }
+        return top;
+    }
+
+    private int push(int top, int x, int y) {
+        if (top + 2 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[top] = x;
+        stack[top + 1] = y;
+        return top + 2;
+    }
+
+    private boolean isVisited(int p) {
+        return (visited[p >>> 6] & (1L << p)) != 0;
+    }
+
+    private void markVisited(int p) {
+        visited[p >>> 6] |= 1L << p;
+    }
+
     /**
      * Marks detected cells on the image with a specified color.
      * This method draws rectangles around detected cells using the provided color.
@@ -224,107 +311,71 @@ public class BloodCellProcessor implements ImageProcessor {
      * @param cells List of rectangles representing detected cell locations
      * @param color The color to use for marking the cells
      */
-    private void markCells(WritableImage image, List<Rectangle> cells, Color color) {
+    private void markCells(RasterBuffer image, List<Rectangle> cells, Color color) {
+        int argb = RasterBuffer.argb(color);
         for (Rectangle cell : cells) {
-            drawRectangle(image, cell, color);
+            drawRectangle(image, cell, argb);
         }
     }
 
     // Helper methods for drawing...
-    private void drawRectangle(WritableImage image, Rectangle rect, Color color) {
-    PixelWriter writer = image.getPixelWriter();
+    private void drawRectangle(RasterBuffer image, Rectangle rect, int color) {
     int x = (int) rect.getX();
     int y = (int) rect.getY();
     int width = (int) rect.getWidth();
     int height = (int) rect.getHeight();
     int thickness = 4;
 
-    // Cast image dimensions to int
-    int imageWidth = (int) image.getWidth();
-    int imageHeight = (int) image.getHeight();
-
     // Draw borders
-    drawHorizontalLines(writer, x, y, width, height, color, thickness, imageWidth, imageHeight);
-    drawVerticalLines(writer, x, y, width, height, color, thickness, imageWidth, imageHeight);
-    drawCornerHighlights(writer, x, y, width, height, color, imageWidth, imageHeight);
+    drawHorizontalLines(image, x, y, width, height, color, thickness);
+    drawVerticalLines(image, x, y, width, height, color, thickness);
+    drawCornerHighlights(image, x, y, width, height, color);
 }
 
-private void drawHorizontalLines(PixelWriter writer, int x, int y, int width, int height,
-                               Color color, int thickness, int maxWidth, int maxHeight) {
+private void drawHorizontalLines(RasterBuffer image, int x, int y, int width, int height,
+                               int color, int thickness) {
     for (int t = 0; t < thickness; t++) {
         // Top line
         for (int i = x; i < x + width; i++) {
-            if (i >= 0 && i < maxWidth && y + t >= 0 && y + t < maxHeight) {
-                writer.setColor(i, y + t, color);
-            }
+            drawPixel(image, i, y + t, color);
         }
         // Bottom line
         for (int i = x; i < x + width; i++) {
-            if (i >= 0 && i < maxWidth && y + height - t >= 0 && y + height - t < maxHeight) {
-                writer.setColor(i, y + height - t, color);
-            }
+            drawPixel(image, i, y + height - t, color);
         }
     }
 }
 
-private void drawVerticalLines(PixelWriter writer, int x, int y, int width, int height,
-                             Color color, int thickness, int maxWidth, int maxHeight) {
+private void drawVerticalLines(RasterBuffer image, int x, int y, int width, int height,
+                             int color, int thickness) {
     for (int t = 0; t < thickness; t++) {
         // Left line
         for (int j = y; j < y + height; j++) {
-            if (x + t >= 0 && x + t < maxWidth && j >= 0 && j < maxHeight) {
-                writer.setColor(x + t, j, color);
-            }
+            drawPixel(image, x + t, j, color);
         }
         // Right line
         for (int j = y; j < y + height; j++) {
-            if (x + width - t >= 0 && x + width - t < maxWidth && j >= 0 && j < maxHeight) {
-                writer.setColor(x + width - t, j, color);
-            }
+            drawPixel(image, x + width - t, j, color);
         }
     }
 }
 
-private void drawCornerHighlights(PixelWriter writer, int x, int y, int width, int height,
-                                Color color, int maxWidth, int maxHeight) {
+private void drawCornerHighlights(RasterBuffer image, int x, int y, int width, int height, int color) {
     int cornerSize = 6;
     for (int i = 0; i < cornerSize; i++) {
         for (int j = 0; j < cornerSize; j++) {
-            drawCornerPixel(writer, x + i, y + j, color, maxWidth, maxHeight);  // Top-left
-            drawCornerPixel(writer, x + width - i, y + j, color, maxWidth, maxHeight);  // Top-right
-            drawCornerPixel(writer, x + i, y + height - j, color, maxWidth, maxHeight);  // Bottom-left
-            drawCornerPixel(writer, x + width - i, y + height - j, color, maxWidth, maxHeight);  // Bottom-right
+            drawPixel(image, x + i, y + j, color);  // Top-left
+            drawPixel(image, x + width - i, y + j, color);  // Top-right
+            drawPixel(image, x + i, y + height - j, color);  // Bottom-left
+            drawPixel(image, x + width - i, y + height - j, color);  // Bottom-right
         }
     }
 }
 
-private void drawCornerPixel(PixelWriter writer, int x, int y, Color color, int maxWidth, int maxHeight) {
-    if (x >= 0 && x < maxWidth && y >= 0 && y < maxHeight) {
-        writer.setColor(x, y, color);
-    }
-}
-
-    /**
-     * Creates a copy of the original image that can be modified.
-     * This method is used to create a working copy of the image that
-     * can be marked up without affecting the original.
-     *
-     * @param originalImage The source image to be copied
-     * @return A WritableImage copy of the original image
-     */
-private WritableImage copyOriginalImage(Image originalImage) {
-    int width = (int) originalImage.getWidth();
-    int height = (int) originalImage.getHeight();
-    WritableImage processedImage = new WritableImage(width, height);
-    PixelWriter writer = processedImage.getPixelWriter();
-    PixelReader reader = originalImage.getPixelReader();
-
-    for (int y = 0; y < height; y++) {
-        for (int x = 0; x < width; x++) {
-            writer.setColor(x, y, reader.getColor(x, y));
-        }
+private void drawPixel(RasterBuffer image, int x, int y, int color) {
+    if (image.contains(x, y)) {
+        image.set(x, y, color);
     }
-    return processedImage;
 }
 
 
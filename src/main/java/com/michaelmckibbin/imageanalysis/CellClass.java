@@ -0,0 +1,24 @@
+package com.michaelmckibbin.imageanalysis;
+
+/**
+ * Byte codes used in per-pixel class maps.
+ * Storing one byte per pixel lets a processor classify each pixel once and then
+ * label every cell type in a single scan.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class CellClass {
+    /** Pixel is not part of any cell */
+    public static final byte BACKGROUND = 0;
+
+    /** Pixel belongs to a white blood cell (purple in stained samples) */
+    public static final byte WHITE_CELL = 1;
+
+    /** Pixel belongs to a red blood cell (pink in stained samples) */
+    public static final byte RED_CELL = 2;
+
+    private CellClass() {
+    }
+}
@@ -0,0 +1,38 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.shape.Rectangle;
+
+import java.util.List;
+
+/**
+ * The cells found by a detection run: bounding boxes for white and red blood cells.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class CellDetectionResult {
+    private final List<Rectangle> whiteCells;
+    private final List<Rectangle> redCells;
+
+    public CellDetectionResult(List<Rectangle> whiteCells, List<Rectangle> redCells) {
+        this.whiteCells = whiteCells;
+        this.redCells = redCells;
+    }
+
+    public List<Rectangle> getWhiteCells() {
+        return whiteCells;
+    }
+
+    public List<Rectangle> getRedCells() {
+        return redCells;
+    }
+
+    public int getWhiteCellCount() {
+        return whiteCells.size();
+    }
+
+    public int getRedCellCount() {
+        return redCells.size();
+    }
+}
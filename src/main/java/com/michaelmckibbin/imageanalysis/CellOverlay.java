@@ -0,0 +1,168 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+import javafx.scene.text.Font;
+
+import java.util.List;
+
+/**
+ * A transparent Canvas, layered over an ImageView, that draws detected cells as vector
+ * shapes: an outline and a number per cell, white cells in dark red and red cells in dark blue.
+ * <p>
+ * The image underneath is shown untouched, so a new detection only redraws the outlines of
+ * the cells at the displayed size, instead of copying and snapshotting the full image. The
+ * outlines look the same as when they were drawn into the image pixels (2 pixel borders,
+ * 6 pixel corner squares, Arial 18 numbers, all in image pixels), just scaled with the view.
+ * The cells are only rasterised into an image with {@link #rasterize} when it is saved,
+ * by an {@link AnnotationRenderer} that draws the same shapes into the pixels.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class CellOverlay extends Canvas {
+
+    private CellDetectionResult cells;
+    private double imageWidth;
+    private double imageHeight;
+
+    public CellOverlay() {
+        setMouseTransparent(true);
+    }
+
+    /**
+     * Keeps the overlay the same size as the image displayed by a view, and redraws it when
+     * that changes. The view and the overlay should be centred in the same StackPane.
+     *
+     * @param view The view showing the image the cells were detected in
+     */
+    public void attachTo(ImageView view) {
+        view.layoutBoundsProperty().addListener((obs, oldBounds, bounds) ->
+                fitTo(bounds.getWidth(), bounds.getHeight()));
+        fitTo(view.getLayoutBounds().getWidth(), view.getLayoutBounds().getHeight());
+    }
+
+    /**
+     * Shows the cells of a detection.
+     *
+     * @param cells       The detected cells
+     * @param imageWidth  Width of the image the cells were detected in, in pixels
+     * @param imageHeight Height of that image
+     */
+    public void setCells(CellDetectionResult cells, double imageWidth, double imageHeight) {
+        this.cells = cells;
+        this.imageWidth = imageWidth;
+        this.imageHeight = imageHeight;
+        redraw();
+    }
+
+    /**
+     * Removes the cells, e.g. for a processor that doesn't detect any.
+     */
+    public void clear() {
+        cells = null;
+        redraw();
+    }
+
+    /**
+     * @return The cells shown, or null
+     */
+    public CellDetectionResult getCells() {
+        return cells;
+    }
+
+    private void fitTo(double width, double height) {
+        setWidth(width);
+        setHeight(height);
+        redraw();
+    }
+
+    private void redraw() {
+        GraphicsContext gc = getGraphicsContext2D();
+        gc.clearRect(0, 0, getWidth(), getHeight());
+        if (cells != null && imageWidth > 0) {
+            draw(gc, cells, getWidth() / imageWidth);
+        }
+    }
+
+    /**
+     * Draws the outlines and then the numbers of both cell types.
+     *
+     * @param gc    Where to draw
+     * @param cells The detected cells, in image pixels
+     * @param scale Display pixels per image pixel
+     */
+    public static void draw(GraphicsContext gc, CellDetectionResult cells, double scale) {
+        gc.save();
+        gc.scale(scale, scale);
+        drawOutlines(gc, cells.getWhiteCells(), AnnotationRenderer.WHITE_CELL_COLOR);
+        drawOutlines(gc, cells.getRedCells(), AnnotationRenderer.RED_CELL_COLOR);
+        drawNumbers(gc, cells.getWhiteCells(), AnnotationRenderer.WHITE_CELL_COLOR);
+        drawNumbers(gc, cells.getRedCells(), AnnotationRenderer.RED_CELL_COLOR);
+        gc.restore();
+    }
+
+    /**
+     * Outlines each cell with 2 pixel borders and 6 pixel squares on the corners. At whole
+     * pixel coordinates the rectangles cover exactly the pixels that
+     * {@link AnnotationRenderer#drawOutline} fills in a raster.
+     */
+    private static void drawOutlines(GraphicsContext gc, List<Rectangle> cells, Color color) {
+        gc.setFill(color);
+        for (Rectangle cell : cells) {
+            int x = (int) cell.getX();
+            int y = (int) cell.getY();
+            int width = (int) cell.getWidth();
+            int height = (int) cell.getHeight();
+
+            int thickness = AnnotationRenderer.THICKNESS;
+            int corner = AnnotationRenderer.CORNER_SIZE;
+
+            // Borders: top, bottom, left, right
+            gc.fillRect(x, y, width, thickness);
+            gc.fillRect(x, y + height - thickness + 1, width, thickness);
+            gc.fillRect(x, y, thickness, height);
+            gc.fillRect(x + width - thickness + 1, y, thickness, height);
+
+            // Corner highlights
+            int far = corner - 1;
+            gc.fillRect(x, y, corner, corner);
+            gc.fillRect(x + width - far, y, corner, corner);
+            gc.fillRect(x, y + height - far, corner, corner);
+            gc.fillRect(x + width - far, y + height - far, corner, corner);
+        }
+    }
+
+    /**
+     * Numbers the cells from 1, slightly inside the top left corner of each outline.
+     */
+    private static void drawNumbers(GraphicsContext gc, List<Rectangle> cells, Color color) {
+        gc.setFill(color);
+        gc.setFont(new Font(AnnotationRenderer.FONT_FAMILY, AnnotationRenderer.FONT_SIZE));
+        for (int i = 0; i < cells.size(); i++) {
+            Rectangle cell = cells.get(i);
+            gc.fillText(String.valueOf(i + 1),
+                    cell.getX() + AnnotationRenderer.LABEL_X, cell.getY() + AnnotationRenderer.LABEL_Y);
+        }
+    }
+
+    /**
+     * Draws the cells into a copy of an image at full resolution, for saving.
+     * This writes the pixels directly, so it needs no Canvas snapshot.
+     *
+     * @param image The image the cells were detected in
+     * @param cells The detected cells
+     * @return A new image with the outlines and numbers drawn in
+     */
+    public static WritableImage rasterize(Image image, CellDetectionResult cells) {
+        RasterBuffer raster = RasterBuffer.fromImage(image);
+        new AnnotationRenderer().drawCells(raster, cells);
+        return raster.toImage();
+    }
+}
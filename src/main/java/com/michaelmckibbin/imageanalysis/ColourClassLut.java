@@ -0,0 +1,208 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * A colour classification lookup table over the full 24-bit RGB space.
+ * <p>
+ * The processors classify pixels with a handful of double comparisons (brightness, channel
+ * ratios, thresholds from the sliders). The result only depends on the colour and the
+ * parameters, so it can be computed once for all 2^24 colours and then every pixel of every
+ * image is classified with a single array read. The table is exact, one byte per colour
+ * (16 MB), so classification is bit for bit the same as the original code.
+ * <p>
+ * Building a table calls the classifier 16.7 million times, split over the common
+ * ForkJoinPool one red value (65536 colours) at a time. That only pays off once more pixels
+ * than that are classified with the same parameters, and every slider step is a new
+ * parameter set, so the table is built lazily: pixels are classified by calling the
+ * classifier directly until the pixels classified so far would reach the size of the table,
+ * and from then on through the table. A large slide builds it straight away, while a drag
+ * preview or a 1 MP image is classified directly in a fraction of the build time. Tables are
+ * cached by a parameter key so moving a slider back, or processing a batch of slides with
+ * the same settings, doesn't start counting (or rebuild) again.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class ColourClassLut {
+
+    /**
+     * Classifies one colour. The returned byte is whatever the processor stores in the table,
+     * usually a {@link CellClass} code.
+     */
+    @FunctionalInterface
+    public interface Classifier {
+        byte classify(int red, int green, int blue);
+    }
+
+    /** Entries of a table, one per 24-bit colour */
+    private static final int TABLE_SIZE = 1 << 24;
+
+    /** Most recently used tables kept; each one is 16 MB once built */
+    private static final int CACHE_SIZE = 4;
+
+    private static final Map<Object, ColourClassLut> cache =
+            new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, ColourClassLut> eldest) {
+                    return size() > CACHE_SIZE;
+                }
+            };
+
+    private final Classifier classifier;
+    private volatile byte[] table;                               // null until it pays off
+    private final AtomicLong directPixels = new AtomicLong();   // Classified without the table
+
+    private ColourClassLut(Classifier classifier, byte[] table) {
+        this.classifier = classifier;
+        this.table = table;
+    }
+
+    /**
+     * Returns the table for a parameter key, creating it if it isn't cached. The table itself
+     * is only built once enough pixels have been classified with it.
+     * The key must identify both the processor and every parameter the classifier reads
+     * (e.g. a List or record of the thresholds), since it is all the cache compares.
+     *
+     * @param key        The cache key
+     * @param classifier The classification to tabulate
+     * @return The lookup table
+     */
+    public static ColourClassLut of(Object key, Classifier classifier) {
+        synchronized (cache) {
+            return cache.computeIfAbsent(key, k -> new ColourClassLut(classifier, null));
+        }
+    }
+
+    /**
+     * Builds an uncached table straight away.
+     *
+     * @param classifier The classification to tabulate
+     * @return The lookup table
+     */
+    public static ColourClassLut build(Classifier classifier) {
+        return new ColourClassLut(classifier, tabulate(classifier));
+    }
+
+    private static byte[] tabulate(Classifier classifier) {
+        long start = System.nanoTime();
+        byte[] table = new byte[TABLE_SIZE];
+        IntStream.range(0, 256).parallel().forEach(red -> {
+            int i = red << 16;
+            for (int green = 0; green < 256; green++) {
+                for (int blue = 0; blue < 256; blue++) {
+                    table[i++] = classifier.classify(red, green, blue);
+                }
+            }
+        });
+        System.out.printf("Built colour lookup table in %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+        return table;
+    }
+
+    /**
+     * Counts pixels about to be classified, and builds the table once the pixels classified
+     * without it would reach its size.
+     *
+     * @param pixels The number of pixels about to be classified
+     * @return The table, or null to call the classifier directly
+     */
+    private byte[] tableFor(long pixels) {
+        byte[] built = table;
+        if (built != null || directPixels.addAndGet(pixels) <= TABLE_SIZE) {
+            return built;
+        }
+        synchronized (this) {
+            if (table == null) {
+                table = tabulate(classifier);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Tells the table that about this many pixels will be classified one at a time with
+     * {@link #get}, which doesn't count them itself, so it can build the table first if that
+     * is cheaper.
+     *
+     * @param pixels The number of pixels about to be classified
+     */
+    public void prepareFor(long pixels) {
+        tableFor(pixels);
+    }
+
+    /**
+     * @return true once the table has been built
+     */
+    boolean isBuilt() {
+        return table != null;
+    }
+
+    /**
+     * @param argb A packed ARGB pixel (alpha is ignored)
+     * @return The table entry for the pixel's colour
+     */
+    public byte get(int argb) {
+        byte[] built = table;
+        if (built != null) {
+            return built[argb & 0xFFFFFF];
+        }
+        return classifier.classify(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF);
+    }
+
+    /**
+     * Classifies every pixel of a raster into a class map.
+     *
+     * @param image The source pixels
+     * @return One table entry per pixel, in row-major order
+     */
+    public byte[] classify(RasterBuffer image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getPixels();
+        byte[] classes = new byte[width * height];
+        byte[] built = tableFor((long) width * height);
+        for (int y = 0; y < height; y++) {
+            classify(built, pixels, image.index(0, y), width, classes, y * width);
+        }
+        return classes;
+    }
+
+    /**
+     * Classifies a run of pixels, e.g. one row of a tile.
+     *
+     * @param pixels        Packed ARGB pixels
+     * @param offset        Index of the first pixel
+     * @param count         The number of pixels
+     * @param classes       Receives one table entry per pixel
+     * @param classesOffset Where the first entry goes
+     */
+    public void classify(int[] pixels, int offset, int count, byte[] classes, int classesOffset) {
+        classify(tableFor(count), pixels, offset, count, classes, classesOffset);
+    }
+
+    private void classify(byte[] built, int[] pixels, int offset, int count, byte[] classes, int classesOffset) {
+        if (built != null) {
+            for (int i = 0; i < count; i++) {
+                classes[classesOffset + i] = built[pixels[offset + i] & 0xFFFFFF];
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int argb = pixels[offset + i];
+                classes[classesOffset + i] = classifier.classify(argb >> 16 & 0xFF, argb >> 8 & 0xFF, argb & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Drops all cached tables.
+     */
+    public static void clearCache() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+}
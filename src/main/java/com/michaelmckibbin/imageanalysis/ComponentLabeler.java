@@ -0,0 +1,69 @@
+package com.michaelmckibbin.imageanalysis;
+
+/**
+ * A connected component labelling engine.
+ * <p>
+ * Labelers work on a byte class map (see {@link CellClass}): two neighbouring pixels
+ * are connected when they have the same non-zero class. Every implementation produces
+ * the same canonical output for the same input, so engines can be swapped freely:
+ * background pixels get label 0 and components are numbered 1..n in raster order of
+ * their first (top-left most) pixel.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public interface ComponentLabeler {
+
+    /**
+     * Labels the connected components of a class map.
+     *
+     * @param classes One class per pixel, row-major, 0 for background
+     * @param width   The image width
+     * @param height  The image height
+     * @param labels  Output array of at least width * height elements
+     * @return The number of components found
+     */
+    default int label(byte[] classes, int width, int height, int[] labels) {
+        return label(classes, 0, width, height, labels);
+    }
+
+    /**
+     * Labels the connected components of a block of rows inside a larger class map.
+     * Only the rows from offset to offset + width * height are read and written, and
+     * their labels start at 1 as if the block were a whole image. This lets several
+     * threads label horizontal strips of the same arrays.
+     *
+     * @param classes One class per pixel, row-major, 0 for background
+     * @param offset  Index of the first pixel of the block in both arrays
+     * @param width   The image width
+     * @param height  The number of rows in the block
+     * @param labels  Output array, written from offset to offset + width * height
+     * @return The number of components found in the block
+     */
+    int label(byte[] classes, int offset, int width, int height, int[] labels);
+
+    /**
+     * Labels the connected components of a class map and fills their statistics.
+     *
+     * @param classes One class per pixel, row-major, 0 for background
+     * @param width   The image width
+     * @param height  The image height
+     * @param labels  Output array of at least width * height elements. Engines that can
+     *                build the statistics without a label image accept null.
+     * @param stats   Receives the statistics of every component
+     * @param source  The source pixels for the colour sums, or null to skip colour
+     * @return The number of components found
+     */
+    default int labelStats(byte[] classes, int width, int height, int[] labels,
+                           ComponentStats stats, RasterBuffer source) {
+        int count = label(classes, width, height, labels);
+        stats.accumulate(labels, classes, count, width, height, source);
+        return count;
+    }
+
+    /**
+     * @return The neighbourhood this labeler uses
+     */
+    Connectivity getConnectivity();
+}
@@ -0,0 +1,208 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.Arrays;
+
+/**
+ * Per-component statistics held in primitive arrays indexed by dense label.
+ * <p>
+ * Filled in a single sweep over a label array (as produced by a {@link ComponentLabeler}),
+ * so nothing is allocated per pixel: area, bounding box, centroid sums and colour sums are
+ * simply added up as the pixels go by. Everything the processors need afterwards
+ * (bounding boxes, size filtering, mean colours) then costs O(number of components)
+ * instead of another walk over the pixels.
+ * <p>
+ * Labels run from 1 to {@link #getComponentCount()}; label 0 is background and is not
+ * recorded. The arrays are kept between runs and only grow.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class ComponentStats {
+    private int count;       // Number of components
+    private int[] area;      // Pixels per component
+    private int[] minX;
+    private int[] minY;
+    private int[] maxX;
+    private int[] maxY;
+    private long[] sumX;     // For the centroid
+    private long[] sumY;
+    private long[] sumRed;   // Colour channel totals (0 - 255 per pixel)
+    private long[] sumGreen;
+    private long[] sumBlue;
+    private byte[] cellClass; // CellClass of each component
+
+    public ComponentStats() {
+        allocate(0);
+    }
+
+    /**
+     * Clears the statistics for a new run with the given number of components.
+     *
+     * @param components The number of labels (not counting background)
+     */
+    public void reset(int components) {
+        int size = components + 1; // slot 0 is background
+        if (area.length < size) {
+            allocate(Math.max(size, area.length + (area.length >> 1)));
+        }
+        Arrays.fill(area, 0, size, 0);
+        Arrays.fill(minX, 0, size, Integer.MAX_VALUE);
+        Arrays.fill(minY, 0, size, Integer.MAX_VALUE);
+        Arrays.fill(maxX, 0, size, Integer.MIN_VALUE);
+        Arrays.fill(maxY, 0, size, Integer.MIN_VALUE);
+        Arrays.fill(sumX, 0, size, 0);
+        Arrays.fill(sumY, 0, size, 0);
+        Arrays.fill(sumRed, 0, size, 0);
+        Arrays.fill(sumGreen, 0, size, 0);
+        Arrays.fill(sumBlue, 0, size, 0);
+        Arrays.fill(cellClass, 0, size, CellClass.BACKGROUND);
+        count = components;
+    }
+
+    /**
+     * Resets the statistics and fills them in one pass over a labelled image.
+     *
+     * @param labels     Label per pixel, row-major, 0 for background
+     * @param classes    Class per pixel, or null if the caller doesn't need the class
+     * @param components The number of labels in use
+     * @param width      The image width
+     * @param height     The image height
+     * @param source     The source pixels for the colour sums, or null to skip colour
+     */
+    public void accumulate(int[] labels, byte[] classes, int components, int width, int height,
+                           RasterBuffer source) {
+        reset(components);
+        int[] pixels = source != null ? source.getPixels() : null;
+        for (int y = 0; y < height; y++) {
+            int p = y * width;
+            int row = source != null ? source.index(0, y) : 0;
+            for (int x = 0; x < width; x++, p++) {
+                int label = labels[p];
+                if (label == 0) {
+                    continue;
+                }
+                area[label]++;
+                if (x < minX[label]) minX[label] = x;
+                if (x > maxX[label]) maxX[label] = x;
+                if (y < minY[label]) minY[label] = y;
+                maxY[label] = y; // rows are visited in order
+                sumX[label] += x;
+                sumY[label] += y;
+                if (pixels != null) {
+                    int argb = pixels[row + x];
+                    sumRed[label] += RasterBuffer.red(argb);
+                    sumGreen[label] += RasterBuffer.green(argb);
+                    sumBlue[label] += RasterBuffer.blue(argb);
+                }
+                if (classes != null) {
+                    cellClass[label] = classes[p];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a horizontal run of pixels to a component. This lets run based labelling fill
+     * the statistics without visiting background pixels. Call {@link #reset(int)} first.
+     *
+     * @param label     The component label
+     * @param y         The row of the run
+     * @param start     The first x of the run
+     * @param end       One past the last x of the run
+     * @param cellClass The class of the run
+     * @param source    The source pixels for the colour sums, or null to skip colour
+     */
+    public void addRun(int label, int y, int start, int end, byte cellClass, RasterBuffer source) {
+        int length = end - start;
+        area[label] += length;
+        if (start < minX[label]) minX[label] = start;
+        if (end - 1 > maxX[label]) maxX[label] = end - 1;
+        if (y < minY[label]) minY[label] = y;
+        if (y > maxY[label]) maxY[label] = y;
+        sumX[label] += (long) (start + end - 1) * length / 2;
+        sumY[label] += (long) y * length;
+        this.cellClass[label] = cellClass;
+        if (source != null) {
+            int[] pixels = source.getPixels();
+            int row = source.index(0, y);
+            for (int x = start; x < end; x++) {
+                int argb = pixels[row + x];
+                sumRed[label] += RasterBuffer.red(argb);
+                sumGreen[label] += RasterBuffer.green(argb);
+                sumBlue[label] += RasterBuffer.blue(argb);
+            }
+        }
+    }
+
+    public int getComponentCount() {
+        return count;
+    }
+
+    public int getArea(int label) {
+        return area[label];
+    }
+
+    public int getMinX(int label) {
+        return minX[label];
+    }
+
+    public int getMinY(int label) {
+        return minY[label];
+    }
+
+    public int getMaxX(int label) {
+        return maxX[label];
+    }
+
+    public int getMaxY(int label) {
+        return maxY[label];
+    }
+
+    public byte getCellClass(int label) {
+        return cellClass[label];
+    }
+
+    public double getCentroidX(int label) {
+        return (double) sumX[label] / area[label];
+    }
+
+    public double getCentroidY(int label) {
+        return (double) sumY[label] / area[label];
+    }
+
+    /**
+     * @return The mean red channel of the component, 0 - 255
+     */
+    public double getMeanRed(int label) {
+        return (double) sumRed[label] / area[label];
+    }
+
+    /**
+     * @return The mean green channel of the component, 0 - 255
+     */
+    public double getMeanGreen(int label) {
+        return (double) sumGreen[label] / area[label];
+    }
+
+    /**
+     * @return The mean blue channel of the component, 0 - 255
+     */
+    public double getMeanBlue(int label) {
+        return (double) sumBlue[label] / area[label];
+    }
+
+    private void allocate(int size) {
+        area = new int[size];
+        minX = new int[size];
+        minY = new int[size];
+        maxX = new int[size];
+        maxY = new int[size];
+        sumX = new long[size];
+        sumY = new long[size];
+        sumRed = new long[size];
+        sumGreen = new long[size];
+        sumBlue = new long[size];
+        cellClass = new byte[size];
+    }
+}
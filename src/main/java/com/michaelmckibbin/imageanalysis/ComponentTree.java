@@ -0,0 +1,344 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.Arrays;
+
+/**
+ * A component tree (min-tree or max-tree) of an image: the connected components of every
+ * threshold of a per-pixel level, in one structure.
+ * <p>
+ * Thresholding an image at level t and labelling the result gives a set of components; at a
+ * higher t each of them can only grow or merge. So the components of all thresholds form a
+ * tree, with the components at the darkest level as leaves and the whole image at the root.
+ * Once the tree is built, the components at any threshold (with their area and bounding box)
+ * are read from the nodes, without looking at a pixel again. This is what makes the colour
+ * threshold sliders of {@link UnionFindBloodCellProcessor} interactive on large images.
+ * <p>
+ * A {@link Leveller} gives each pixel an integer level from 0 to levels - 1, or -1 for pixels
+ * that are never part of a component at any threshold. In a min-tree the components at
+ * level t are those of the pixels with level &lt;= t; in a max-tree, of the pixels with
+ * level &gt;= t.
+ * <p>
+ * The tree is built with the union-find algorithm of Berger et al. (2007): pixels are sorted
+ * by level with a counting sort, then added in order, and each one becomes the parent of the
+ * components of its already added neighbours. Afterwards a node is kept for every distinct
+ * component (not for every pixel), so the memory held is proportional to the number of nodes,
+ * while the build itself needs a few ints per pixel.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class ComponentTree {
+
+    /**
+     * Maps a pixel colour to its level.
+     */
+    @FunctionalInterface
+    public interface Leveller {
+        /**
+         * @param argb The packed ARGB colour
+         * @return The level, 0 to levels - 1, or -1 to leave the pixel out
+         */
+        int level(int argb);
+    }
+
+    private final boolean maxTree;
+    private final int levels;
+    private final int nodeCount;
+
+    // Per node, in level order, which also puts every node before its parent.
+    // Levels are stored flipped for a max-tree, so both trees are min-trees inside.
+    private final int[] nodeLevel;
+    private final int[] nodeEnd;      // Level of the parent, where the node merges into it
+    private final int[] nodeParent;   // The node itself for a root
+    private final int[] area;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+    private final int[] firstPixel;   // Smallest row-major pixel index, for raster ordering
+
+    private ComponentTree(boolean maxTree, int levels, int nodeCount) {
+        this.maxTree = maxTree;
+        this.levels = levels;
+        this.nodeCount = nodeCount;
+        nodeLevel = new int[nodeCount];
+        nodeEnd = new int[nodeCount];
+        nodeParent = new int[nodeCount];
+        area = new int[nodeCount];
+        minX = new int[nodeCount];
+        minY = new int[nodeCount];
+        maxX = new int[nodeCount];
+        maxY = new int[nodeCount];
+        firstPixel = new int[nodeCount];
+    }
+
+    /**
+     * Builds the tree of the lower level sets: components of pixels with level &lt;= t.
+     */
+    public static ComponentTree minTree(RasterBuffer image, int levels, Leveller leveller,
+                                        Connectivity connectivity) {
+        return build(image, levels, leveller, connectivity, false);
+    }
+
+    /**
+     * Builds the tree of the upper level sets: components of pixels with level &gt;= t.
+     */
+    public static ComponentTree maxTree(RasterBuffer image, int levels, Leveller leveller,
+                                        Connectivity connectivity) {
+        return build(image, levels, leveller, connectivity, true);
+    }
+
+    private static ComponentTree build(RasterBuffer image, int levels, Leveller leveller,
+                                       Connectivity connectivity, boolean maxTree) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int n = width * height;
+        int[] pixels = image.getPixels();
+
+        // Level of every pixel, and a histogram for the counting sort
+        int[] level = new int[n];
+        int[] start = new int[levels + 1];
+        for (int y = 0; y < height; y++) {
+            int row = image.index(0, y);
+            int p = y * width;
+            for (int x = 0; x < width; x++, p++) {
+                int l = leveller.level(pixels[row + x]);
+                if (l >= levels) {
+                    throw new IllegalArgumentException("Level " + l + " is out of range");
+                }
+                if (l >= 0 && maxTree) {
+                    l = levels - 1 - l;
+                }
+                level[p] = l;
+                if (l >= 0) {
+                    start[l + 1]++;
+                }
+            }
+        }
+        for (int l = 0; l < levels; l++) {
+            start[l + 1] += start[l];
+        }
+        int m = start[levels];
+        int[] order = new int[m];
+        for (int p = 0; p < n; p++) {
+            if (level[p] >= 0) {
+                order[start[level[p]]++] = p;
+            }
+        }
+        ImageProcessor.checkCancelled();
+
+        // Add the pixels from the lowest level up. zpar is the union-find forest of the
+        // components so far (-1 for pixels not added yet); parent is the tree.
+        int[] parent = new int[n];
+        int[] zpar = new int[n];
+        Arrays.fill(zpar, -1);
+        boolean eight = connectivity == Connectivity.EIGHT;
+        for (int i = 0; i < m; i++) {
+            if ((i & 0xFFFF) == 0) {
+                ImageProcessor.checkCancelled();
+            }
+            int p = order[i];
+            parent[p] = p;
+            zpar[p] = p;
+            int x = p % width;
+            int y = p / width;
+            boolean left = x > 0;
+            boolean right = x < width - 1;
+            boolean up = y > 0;
+            boolean down = y < height - 1;
+            if (left) merge(zpar, parent, p, p - 1);
+            if (right) merge(zpar, parent, p, p + 1);
+            if (up) merge(zpar, parent, p, p - width);
+            if (down) merge(zpar, parent, p, p + width);
+            if (eight) {
+                if (up && left) merge(zpar, parent, p, p - width - 1);
+                if (up && right) merge(zpar, parent, p, p - width + 1);
+                if (down && left) merge(zpar, parent, p, p + width - 1);
+                if (down && right) merge(zpar, parent, p, p + width + 1);
+            }
+        }
+        ImageProcessor.checkCancelled();
+
+        // Point every pixel at the canonical pixel of its node: the one pixel per node whose
+        // parent has a different level (or that is a root). Parents come later in the order,
+        // so going backwards their own parent is already canonical.
+        for (int i = m - 1; i >= 0; i--) {
+            int p = order[i];
+            int q = parent[p];
+            if (level[parent[q]] == level[q]) {
+                parent[p] = parent[q];
+            }
+        }
+
+        // Number the nodes in sort order, which puts every node before its parent.
+        // zpar is reused for the node number of each canonical pixel.
+        int nodes = 0;
+        for (int i = 0; i < m; i++) {
+            int p = order[i];
+            if (isCanonical(parent, level, p)) {
+                zpar[p] = nodes++;
+            }
+        }
+
+        ComponentTree tree = new ComponentTree(maxTree, levels, nodes);
+        Arrays.fill(tree.minX, Integer.MAX_VALUE);
+        Arrays.fill(tree.minY, Integer.MAX_VALUE);
+        Arrays.fill(tree.maxX, Integer.MIN_VALUE);
+        Arrays.fill(tree.maxY, Integer.MIN_VALUE);
+        Arrays.fill(tree.firstPixel, Integer.MAX_VALUE);
+        for (int i = 0; i < m; i++) {
+            int p = order[i];
+            if (isCanonical(parent, level, p)) {
+                int node = zpar[p];
+                tree.nodeLevel[node] = level[p];
+                tree.nodeParent[node] = parent[p] == p ? node : zpar[parent[p]];
+                tree.nodeEnd[node] = parent[p] == p ? Integer.MAX_VALUE : level[parent[p]];
+            }
+        }
+
+        // Each pixel counts towards its own node...
+        for (int p = 0; p < n; p++) {
+            if (level[p] >= 0) {
+                int canonical = isCanonical(parent, level, p) ? p : parent[p];
+                tree.add(zpar[canonical], p % width, p / width, p);
+            }
+        }
+        // ...and every node towards its parent
+        for (int node = 0; node < nodes; node++) {
+            int up = tree.nodeParent[node];
+            if (up != node) {
+                tree.merge(up, node);
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * Joins the component of neighbour q, if it was added already, under pixel p.
+     */
+    private static void merge(int[] zpar, int[] parent, int p, int q) {
+        if (zpar[q] < 0) {
+            return;
+        }
+        int root = findRoot(zpar, q);
+        if (root != p) {
+            parent[root] = p;
+            zpar[root] = p;
+        }
+    }
+
+    private static int findRoot(int[] zpar, int p) {
+        int root = p;
+        while (zpar[root] != root) {
+            root = zpar[root];
+        }
+        // Path compression
+        while (zpar[p] != root) {
+            int next = zpar[p];
+            zpar[p] = root;
+            p = next;
+        }
+        return root;
+    }
+
+    private static boolean isCanonical(int[] parent, int[] level, int p) {
+        return parent[p] == p || level[parent[p]] != level[p];
+    }
+
+    private void add(int node, int x, int y, int pixel) {
+        area[node]++;
+        minX[node] = Math.min(minX[node], x);
+        minY[node] = Math.min(minY[node], y);
+        maxX[node] = Math.max(maxX[node], x);
+        maxY[node] = Math.max(maxY[node], y);
+        firstPixel[node] = Math.min(firstPixel[node], pixel);
+    }
+
+    private void merge(int node, int child) {
+        area[node] += area[child];
+        minX[node] = Math.min(minX[node], minX[child]);
+        minY[node] = Math.min(minY[node], minY[child]);
+        maxX[node] = Math.max(maxX[node], maxX[child]);
+        maxY[node] = Math.max(maxY[node], maxY[child]);
+        firstPixel[node] = Math.min(firstPixel[node], firstPixel[child]);
+    }
+
+    /**
+     * Finds the components at a threshold: for a min-tree those of the pixels with
+     * level &lt;= the threshold, for a max-tree those with level &gt;= the threshold.
+     * A node is a component at t if it has appeared (its level &lt;= t) and not yet merged
+     * into its parent (the parent's level &gt; t). The nodes are in level order, so this is
+     * one sequential scan over the nodes up to level t.
+     *
+     * @param threshold The threshold level
+     * @return The nodes of the components, in raster order of their first pixel
+     */
+    public int[] componentsAt(int threshold) {
+        int t = maxTree ? levels - 1 - threshold : threshold;
+        int[] found = new int[16];
+        int count = 0;
+        for (int node = 0; node < nodeCount && nodeLevel[node] <= t; node++) {
+            if (nodeEnd[node] > t) {
+                if (count == found.length) {
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = node;
+            }
+        }
+
+        // Sort by first pixel, packed with the node into one long
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = ((long) firstPixel[found[i]] << 32) | found[i];
+        }
+        Arrays.sort(keys);
+        int[] components = new int[count];
+        for (int i = 0; i < count; i++) {
+            components[i] = (int) keys[i];
+        }
+        return components;
+    }
+
+    public boolean isMaxTree() {
+        return maxTree;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return The level at which the node first appears
+     */
+    public int getLevel(int node) {
+        return maxTree ? levels - 1 - nodeLevel[node] : nodeLevel[node];
+    }
+
+    /**
+     * @return The parent node, or the node itself for a root
+     */
+    public int getParent(int node) {
+        return nodeParent[node];
+    }
+
+    public int getArea(int node) {
+        return area[node];
+    }
+
+    public int getMinX(int node) {
+        return minX[node];
+    }
+
+    public int getMinY(int node) {
+        return minY[node];
+    }
+
+    public int getMaxX(int node) {
+        return maxX[node];
+    }
+
+    public int getMaxY(int node) {
+        return maxY[node];
+    }
+}
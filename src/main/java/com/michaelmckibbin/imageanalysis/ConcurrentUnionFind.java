@@ -0,0 +1,158 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lock-free Union-Find (Disjoint Set Union) that many threads can union into at once.
+ * <p>
+ * Parents are held in an AtomicIntegerArray. Roots are linked with a single
+ * compare-and-set, always pointing the higher index at the lower one, so every parent
+ * pointer only ever moves towards a smaller index. That keeps the structure free of
+ * cycles without locks, and makes find() wait-free: each step moves to a strictly
+ * smaller index, so it finishes in a bounded number of steps whatever other threads do.
+ * find() uses path halving with a CAS, which only ever shortens a path, so a failed CAS
+ * can simply be ignored.
+ * <p>
+ * Linking by index instead of by size means the trees aren't size balanced, but path
+ * halving keeps them shallow in practice. Use {@link UnionFind} when only one thread
+ * is involved.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ConcurrentUnionFind {
+    private AtomicIntegerArray parent; // Stores the parent of each element (never larger than the element)
+    private final AtomicInteger sets = new AtomicInteger(); // Number of disjoint sets
+    private int count; // Number of elements currently in use
+
+    /**
+     * Creates an empty structure. Call {@link #reset(int)} before use.
+     */
+    public ConcurrentUnionFind() {
+        parent = new AtomicIntegerArray(0);
+    }
+
+    /**
+     * Creates a structure with n singleton sets.
+     *
+     * @param n The number of elements
+     */
+    public ConcurrentUnionFind(int n) {
+        this();
+        reset(n);
+    }
+
+    /**
+     * Re-initialises the structure with n singleton sets, reusing the existing array
+     * when it is large enough. Must not be called while other threads are using it.
+     *
+     * @param n The number of elements
+     */
+    public final void reset(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        if (parent.length() < n) {
+            parent = new AtomicIntegerArray(n);
+        }
+        for (int i = 0; i < n; i++) {
+            parent.set(i, i);
+        }
+        count = n;
+        sets.set(n);
+    }
+
+    /**
+     * Finds the representative (root) of the set containing x.
+     * The root is the smallest element of the set once all unions have finished.
+     *
+     * @param x The element to find.
+     * @return The root representative of the set containing x.
+     */
+    public int find(int x) {
+        if (x < 0 || x >= count) { // input validation
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+        AtomicIntegerArray parent = this.parent;
+        while (true) {
+            int p = parent.get(x);
+            if (p == x) {
+                return x;
+            }
+            int grandparent = parent.get(p);
+            if (p != grandparent) {
+                // Path halving; if another thread got there first the path is already shorter
+                parent.compareAndSet(x, p, grandparent);
+            }
+            x = grandparent;
+        }
+    }
+
+    /**
+     * Merges the sets containing x and y. Safe to call from many threads at once.
+     *
+     * @param x An element in the first set.
+     * @param y An element in the second set.
+     * @return True if this call merged two different sets
+     */
+    public boolean union(int x, int y) {
+        AtomicIntegerArray parent = this.parent;
+        while (true) {
+            int rootX = find(x);
+            int rootY = find(y);
+            if (rootX == rootY) {
+                return false;
+            }
+            // Link the higher root below the lower one
+            int low = Math.min(rootX, rootY);
+            int high = Math.max(rootX, rootY);
+            if (parent.compareAndSet(high, high, low)) {
+                sets.decrementAndGet();
+                return true;
+            }
+            // high stopped being a root under us, try again from the new roots
+            x = high;
+            y = low;
+        }
+    }
+
+    /**
+     * Checks if two elements are in the same set. Only reliable once all unions that
+     * could affect the answer have finished.
+     *
+     * @param x The first element.
+     * @param y The second element.
+     * @return True if x and y are in the same set, false otherwise.
+     */
+    public boolean connected(int x, int y) {
+        while (true) {
+            int rootX = find(x);
+            int rootY = find(y);
+            if (rootX == rootY) {
+                return true;
+            }
+            // Still a root after looking at y means x's set really is different
+            if (parent.get(rootX) == rootX) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Counts the number of disjoint sets.
+     *
+     * @return The number of disjoint sets.
+     */
+    public int countSets() {
+        return sets.get();
+    }
+
+    /**
+     * @return The number of elements in the structure
+     */
+    public int size() {
+        return count;
+    }
+}
@@ -2,15 +2,20 @@ package com.michaelmckibbin.imageanalysis;
 
 import javafx.scene.image.*;
 import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import javafx.application.Platform;
 
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 /**
  * An alternate method of blood cell detection using the Connected Components detection.
  *
- * The TricolourBloodProcessor is used to create a three colour image, and then the ConnectedComponentsProcessor
- * is used to detect the connected components in the image. The connected components are then
+ * The TricolourBloodProcessor is used to create a three colour class map, and then the ConnectedComponentsProcessor
+ * is used to detect the connected components in the map. The connected components are then
  * used to detect the blood cells.
  *
  * TricolourBloodProcessor uses a UnionFind/disjoint sets approach.
@@ -22,10 +27,16 @@ import java.util.function.Consumer;
 public class ConnectedComponentsProcessor implements ImageProcessor {
     private int width;
     private int height;
-    private int[][] labels;
-    private int nextLabel = 1;
+    private int[] labels = new int[0];  // Row-major label per pixel, reused between runs
+    private final UnionFind equivalences = new UnionFind(); // Provisional label equivalences
     private Consumer<Image> resultCallback;
 
+    /** Produces the class map the cells are found in */
+    private final TricolourBloodProcessor tricolour = new TricolourBloodProcessor();
+
+    /** Runs processImage off the FX thread, one image at a time. Created when first needed */
+    private ExecutorService worker;
+
     @Override
     public String getProcessorName() {
         return "Connected Components Processor";
@@ -41,123 +52,189 @@ public class ConnectedComponentsProcessor implements ImageProcessor {
         System.out.println("\n* Processing image with ConnectedComponentsProcessor *");
         System.out.println("\n******************************************************");
         System.out.println("\n");
-        this.width = (int) image.getWidth();
-        this.height = (int) image.getHeight();
-        this.labels = new int[height][width];
+        RasterBuffer source = RasterBuffer.fromImage(image);
 
         // Create a WritableImage for the initial result
-        WritableImage initialResult = new WritableImage(width, height);
+        WritableImage initialResult = new WritableImage(source.getWidth(), source.getHeight());
+
+        // Process off the FX thread, and hand the result back to it
+        worker().execute(() -> {
+            long start = System.nanoTime();
+            RasterBuffer result = processRaster(source, params);
+            System.out.printf("Connected components processing took %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+            Platform.runLater(() -> {
+                if (resultCallback != null) {
+                    resultCallback.accept(result.toImage());
+                }
+            });
+        });
+        return initialResult;
+    }
 
-        // Create TricolourBloodProcessor
-        TricolourBloodProcessor triProcessor = new TricolourBloodProcessor();
+    private synchronized ExecutorService worker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "connected-components-processor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return worker;
+    }
 
-        // Set callback to process the image after TricolourBloodProcessor finishes
-        triProcessor.setImageDisplayCallback(processedImage -> {
-            // Now process the fully processed image from TricolourBloodProcessor
-            Image result = processImage(image, processedImage);
-            if (resultCallback != null) {
-                resultCallback.accept(result);
-            }
-        });
+    /**
+     * Runs the tricolour detection and the connected component labelling synchronously.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters passed on to the TricolourBloodProcessor
+     * @return A copy of the source with the detected cells outlined
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
+        this.width = source.getWidth();
+        this.height = source.getHeight();
 
-        // Start the TricolourBloodProcessor and return initial result
-        triProcessor.processImage(image, params);
-        return initialResult;
+        byte[] classes = tricolour.classify(source, params);
+        ImageProcessor.checkCancelled();
+        Collection<Cell> cells = findCells(classes);
+
+        // Draw original image
+        RasterBuffer resultImage = source.copy();
+
+        // Draw blue rectangles
+        drawCellBoundaries(resultImage, cells);
+
+        return resultImage;
     }
 
-    private Image processImage(Image originalImage, Image processedImage) {
-        WritableImage resultImage = new WritableImage(width, height);
-        PixelReader processedReader = processedImage.getPixelReader();
-        PixelReader originalReader = originalImage.getPixelReader();
-        PixelWriter writer = resultImage.getPixelWriter();
-
-        // Debug: Print some sample colors from processed image
-        System.out.println("\nSample colors from processed image:");
-        for (int y = 0; y < height; y += 100) {
-            for (int x = 0; x < width; x += 100) {
-                Color color = processedReader.getColor(x, y);
-                if (!color.equals(Color.WHITE)) {
-                    System.out.printf("Color at (%d,%d): R=%.2f, G=%.2f, B=%.2f%n",
-                        x, y, color.getRed(), color.getGreen(), color.getBlue());
-                }
+    /**
+     * Runs the tricolour detection and labelling, and returns the cells that would be
+     * outlined. Components containing purple are white cells, the rest are red cells.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters passed on to the TricolourBloodProcessor
+     * @return The bounding boxes of the white and red cells
+     */
+    @Override
+    public CellDetectionResult detectCells(RasterBuffer source, ProcessingParameters params) {
+        this.width = source.getWidth();
+        this.height = source.getHeight();
+
+        List<Rectangle> whiteCells = new ArrayList<>();
+        List<Rectangle> redCells = new ArrayList<>();
+        for (Cell cell : findCells(tricolour.classify(source, params))) {
+            if (isValid(cell)) {
+                Rectangle bounds = new Rectangle(cell.minX, cell.minY, cell.maxX - cell.minX, cell.maxY - cell.minY);
+                (cell.hasPurple ? whiteCells : redCells).add(bounds);
             }
         }
+        return new CellDetectionResult(whiteCells, redCells);
+    }
 
-        // First pass: Label connected components
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = processedReader.getColor(x, y);
-                if (isCell(color)) {
-                    labelPixel(x, y, "Cell", color);
-                }
-            }
+    /**
+     * Labels the cells in a tricolour class map and collects their bounding boxes.
+     * <p>
+     * Classic two-pass labelling with 8-connectivity. The first pass gives each cell pixel
+     * the label of its already visited neighbours (W, NW, N, NE), or a new provisional label
+     * if it has none, and records in a UnionFind that all the neighbour labels it touched are
+     * equivalent. The equivalences are resolved between the passes, and the second pass
+     * replaces every provisional label with its final one, so a U shaped cell whose arms
+     * start out with different labels is still counted once.
+     *
+     * @param classes The tricolour class map (purple is WHITE_CELL, pink is RED_CELL)
+     * @return One Cell per labelled component, in raster order of their first pixel
+     */
+    private Collection<Cell> findCells(byte[] classes) {
+        int n = width * height;
+        if (labels.length < n) {
+            labels = new int[n];
         }
+        equivalences.reset(0);
 
-        // Create cell map
-        Map<Integer, Cell> cellMap = new HashMap<>();
+        // First pass: provisional labels (1 based, 0 is background) and their equivalences
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                int label = labels[y][x];
-                if (label > 0) {
-                    Cell cell = cellMap.computeIfAbsent(label, k -> new Cell("Cell"));
-                    cell.updateBounds(x, y);
+                int p = y * width + x;
+                if (classes[p] == CellClass.BACKGROUND) {
+                    labels[p] = 0;
+                    continue;
+                }
+                int label = 0;
+                if (x > 0) {
+                    label = mergeLabels(label, labels[p - 1]);
+                }
+                if (y > 0) {
+                    int up = p - width;
+                    if (x > 0) {
+                        label = mergeLabels(label, labels[up - 1]);
+                    }
+                    label = mergeLabels(label, labels[up]);
+                    if (x + 1 < width) {
+                        label = mergeLabels(label, labels[up + 1]);
+                    }
                 }
+                labels[p] = label != 0 ? label : equivalences.makeSet() + 1;
             }
         }
 
-        System.out.println("Found " + cellMap.size() + " cells");
+        // Resolve the equivalence table: every set gets one final label
+        int count = equivalences.flattenAll();
+        Cell[] cells = new Cell[count];
+        for (int i = 0; i < count; i++) {
+            cells[i] = new Cell("Cell");
+        }
 
-        // Draw original image
+        // Second pass: final labels, and the bounds of each cell
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
-                writer.setColor(x, y, originalReader.getColor(x, y));
+                int p = y * width + x;
+                if (labels[p] == 0) {
+                    continue;
+                }
+                int label = equivalences.getLabel(labels[p] - 1);
+                labels[p] = label + 1;
+                Cell cell = cells[label];
+                cell.updateBounds(x, y);
+                if (classes[p] == CellClass.WHITE_CELL) {
+                    cell.hasPurple = true;
+                }
             }
         }
 
-        // Draw blue rectangles
-        drawCellBoundaries(writer, cellMap.values());
-
-        return resultImage;
+        System.out.println("Found " + count + " cells");
+        return Arrays.asList(cells);
     }
 
-    private void labelPixel(int x, int y, String cellType, Color color) {
-        if (x < 0 || x >= width || y < 0 || y >= height) return;
-
-        Set<Integer> neighborLabels = getNeighborLabels(x, y);
-
-        if (neighborLabels.isEmpty()) {
-            labels[y][x] = nextLabel;
-            nextLabel++;
-        } else {
-            labels[y][x] = neighborLabels.iterator().next();
+    /**
+     * Combines the label found so far for a pixel with one neighbour's label, recording
+     * that the two are equivalent.
+     *
+     * @param label     The label so far, 0 if none
+     * @param neighbour The neighbour's provisional label, 0 for background
+     * @return The label to keep
+     */
+    private int mergeLabels(int label, int neighbour) {
+        if (neighbour == 0) {
+            return label;
         }
-    }
-
-    private Set<Integer> getNeighborLabels(int x, int y) {
-        Set<Integer> neighbors = new HashSet<>();
-
-        // Check 8-connected neighbors
-        for (int dy = -1; dy <= 1; dy++) {
-            for (int dx = -1; dx <= 1; dx++) {
-                if (dx == 0 && dy == 0) continue;
-
-                int newX = x + dx;
-                int newY = y + dy;
-
-                if (newX >= 0 && newX < width && newY >= 0 && newY < height) {
-                    int label = labels[newY][newX];
-                    if (label > 0) {
-                        neighbors.add(label);
-                    }
-                }
-            }
+        if (label == 0) {
+            return neighbour;
+        }
+        if (label != neighbour) {
+            equivalences.union(label - 1, neighbour - 1);
         }
+        return label;
+    }
 
-        return neighbors;
+    /**
+     * Only cells that are large enough are outlined (to avoid noise).
+     */
+    private boolean isValid(Cell cell) {
+        return cell.maxX - cell.minX >= 5 && cell.maxY - cell.minY >= 5;
     }
 
-    private void drawCellBoundaries(PixelWriter writer, Collection<Cell> cells) {
-        Color boundaryColor = Color.BLUE;
+    private void drawCellBoundaries(RasterBuffer writer, Collection<Cell> cells) {
+        int boundaryColor = RasterBuffer.argb(Color.BLUE);
         int borderThickness = 2;
 
         System.out.println("Drawing boundaries for " + cells.size() + " cells");
@@ -165,9 +242,7 @@ public class ConnectedComponentsProcessor implements ImageProcessor {
 
         for (Cell cell : cells) {
             // Only draw rectangles for cells that are large enough (to avoid noise)
-            int width = cell.maxX - cell.minX;
-            int height = cell.maxY - cell.minY;
-            if (width < 5 || height < 5) continue;
+            if (!isValid(cell)) continue;
 
             validCells++;
 
@@ -176,11 +251,11 @@ public class ConnectedComponentsProcessor implements ImageProcessor {
                 for (int t = 0; t < borderThickness; t++) {
                     // Draw top border
                     if (cell.minY - t >= 0) {
-                        writer.setColor(x, cell.minY - t, boundaryColor);
+                        writer.set(x, cell.minY - t, boundaryColor);
                     }
                     // Draw bottom border
                     if (cell.maxY + t < this.height) {
-                        writer.setColor(x, cell.maxY + t, boundaryColor);
+                        writer.set(x, cell.maxY + t, boundaryColor);
                     }
                 }
             }
@@ -190,11 +265,11 @@ public class ConnectedComponentsProcessor implements ImageProcessor {
                 for (int t = 0; t < borderThickness; t++) {
                     // Draw left border
                     if (cell.minX - t >= 0) {
-                        writer.setColor(cell.minX - t, y, boundaryColor);
+                        writer.set(cell.minX - t, y, boundaryColor);
                     }
                     // Draw right border
                     if (cell.maxX + t < this.width) {
-                        writer.setColor(cell.maxX + t, y, boundaryColor);
+                        writer.set(cell.maxX + t, y, boundaryColor);
                     }
                 }
             }
@@ -203,32 +278,9 @@ public class ConnectedComponentsProcessor implements ImageProcessor {
         System.out.println("Drew boundaries for " + validCells + " valid cells");
     }
 
-/**
- * Determines if a pixel's color indicates the presence of a specific cell type.
- * Uses different thresholds for white and red blood cells based on
- * their staining characteristics.
- *
- */
-    private boolean isCell(Color color) {
-        return isPurple(color) || isRed(color);
-    }
-
-    private boolean isPurple(Color color) {
-        double tolerance = 0.01;
-        return Math.abs(color.getRed() - 75.0/255.0) < tolerance &&
-               Math.abs(color.getGreen() - 0.0) < tolerance &&
-               Math.abs(color.getBlue() - 130.0/255.0) < tolerance;
-    }
-
-    private boolean isRed(Color color) {
-        double tolerance = 0.01;
-        return Math.abs(color.getRed() - 219.0/255.0) < tolerance &&
-               Math.abs(color.getGreen() - 112.0/255.0) < tolerance &&
-               Math.abs(color.getBlue() - 147.0/255.0) < tolerance;
-    }
-
     private static class Cell {
         String type;
+        boolean hasPurple; // Contains purple (white cell) pixels
         int minX = Integer.MAX_VALUE;
         int minY = Integer.MAX_VALUE;
         int maxX = Integer.MIN_VALUE;
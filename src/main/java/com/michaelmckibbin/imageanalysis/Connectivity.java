@@ -0,0 +1,16 @@
+package com.michaelmckibbin.imageanalysis;
+
+/**
+ * Which neighbouring pixels count as connected when labelling components.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public enum Connectivity {
+    /** Pixels touching by an edge: left, right, up, down */
+    FOUR,
+
+    /** Pixels touching by an edge or a corner */
+    EIGHT
+}
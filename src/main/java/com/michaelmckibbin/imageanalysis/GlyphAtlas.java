@@ -0,0 +1,206 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The digits 0 to 9 of a font, rendered once into anti-aliased coverage masks, so cell
+ * numbers can be written straight into a {@link RasterBuffer} without the JavaFX toolkit.
+ * <p>
+ * The glyphs are rendered with Java2D, which works headless, into one strip of bytes (0 for
+ * no ink, 255 for full ink) and trimmed to the pixels they actually cover. Drawing a number
+ * then only blends those few hundred pixels per digit into the raster, so the cost depends on
+ * the number of cells rather than on the size of the image. If the font family isn't
+ * installed, Java2D falls back to its default sans serif font.
+ * <p>
+ * Atlases are immutable and cached by family and size, so they can be shared between threads.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class GlyphAtlas {
+
+    private static final int DIGITS = 10;
+    private static final int PADDING = 2; // room for anti-aliasing outside the advance
+
+    private static final Map<List<Object>, GlyphAtlas> cache = new HashMap<>();
+
+    private final byte[] coverage;  // All digits side by side, stripWidth x stripHeight
+    private final int stripWidth;
+    private final int ascent;
+
+    // Per digit: the trimmed box in the strip, relative to the pen position on the baseline
+    private final int[] stripX = new int[DIGITS];
+    private final int[] stripY = new int[DIGITS];
+    private final int[] left = new int[DIGITS];
+    private final int[] top = new int[DIGITS];
+    private final int[] width = new int[DIGITS];
+    private final int[] height = new int[DIGITS];
+    private final int[] advance = new int[DIGITS];
+
+    private GlyphAtlas(Font font) {
+        // Measure on a scratch image, then render every digit in its own cell of the strip
+        BufferedImage scratch = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = scratch.createGraphics();
+        FontMetrics metrics = g.getFontMetrics(font);
+        g.dispose();
+
+        ascent = metrics.getAscent();
+        int cellWidth = 0;
+        for (int d = 0; d < DIGITS; d++) {
+            advance[d] = metrics.charWidth((char) ('0' + d));
+            cellWidth = Math.max(cellWidth, advance[d]);
+        }
+        cellWidth += 2 * PADDING;
+        int stripHeight = ascent + metrics.getDescent() + 2 * PADDING;
+        stripWidth = cellWidth * DIGITS;
+
+        BufferedImage strip = new BufferedImage(stripWidth, stripHeight, BufferedImage.TYPE_BYTE_GRAY);
+        g = strip.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(font);
+        for (int d = 0; d < DIGITS; d++) {
+            g.drawString(String.valueOf(d), d * cellWidth + PADDING, ascent + PADDING);
+        }
+        g.dispose();
+
+        coverage = new byte[stripWidth * stripHeight];
+        Raster raster = strip.getRaster();
+        for (int y = 0; y < stripHeight; y++) {
+            for (int x = 0; x < stripWidth; x++) {
+                coverage[y * stripWidth + x] = (byte) raster.getSample(x, y, 0);
+            }
+        }
+
+        // Trim each digit to the pixels with any ink, so blending skips the empty margins
+        for (int d = 0; d < DIGITS; d++) {
+            int x0 = d * cellWidth;
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+            int maxX = -1, maxY = -1;
+            for (int y = 0; y < stripHeight; y++) {
+                for (int x = x0; x < x0 + cellWidth; x++) {
+                    if (coverage[y * stripWidth + x] != 0) {
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+            }
+            if (maxX < 0) {
+                continue; // No ink, e.g. a font without digits; nothing to draw
+            }
+            stripX[d] = minX;
+            stripY[d] = minY;
+            left[d] = minX - x0 - PADDING;
+            top[d] = minY - ascent - PADDING;
+            width[d] = maxX - minX + 1;
+            height[d] = maxY - minY + 1;
+        }
+    }
+
+    /**
+     * Returns the atlas for a font, rendering it the first time.
+     *
+     * @param family The font family, e.g. "Arial"
+     * @param size   The font size in pixels
+     * @return The atlas
+     */
+    public static GlyphAtlas of(String family, int size) {
+        List<Object> key = List.of(family, size);
+        synchronized (cache) {
+            return cache.computeIfAbsent(key, k -> new GlyphAtlas(new Font(family, Font.PLAIN, size)));
+        }
+    }
+
+    /**
+     * Blends a non-negative number into a raster in a colour. Pixels outside the raster
+     * are skipped.
+     *
+     * @param raster   The raster to draw on
+     * @param number   The number to write
+     * @param x        The left of the text
+     * @param baseline The baseline of the text
+     * @param argb     The text colour, opaque
+     * @return The x just past the last digit
+     */
+    public int drawNumber(RasterBuffer raster, int number, int x, int baseline, int argb) {
+        if (number < 0) {
+            throw new IllegalArgumentException("Number must not be negative");
+        }
+        // Digits of the number, most significant first
+        int[] digits = new int[10];
+        int count = 0;
+        do {
+            digits[count++] = number % 10;
+            number /= 10;
+        } while (number > 0);
+
+        for (int i = count - 1; i >= 0; i--) {
+            drawDigit(raster, digits[i], x, baseline, argb);
+            x += advance[digits[i]];
+        }
+        return x;
+    }
+
+    private void drawDigit(RasterBuffer raster, int d, int penX, int baseline, int argb) {
+        int x0 = penX + left[d];
+        int y0 = baseline + top[d];
+
+        // Clip the glyph box to the raster
+        int fromX = Math.max(0, -x0);
+        int fromY = Math.max(0, -y0);
+        int toX = Math.min(width[d], raster.getWidth() - x0);
+        int toY = Math.min(height[d], raster.getHeight() - y0);
+
+        int[] pixels = raster.getPixels();
+        for (int gy = fromY; gy < toY; gy++) {
+            int src = (stripY[d] + gy) * stripWidth + stripX[d];
+            int dst = raster.index(x0, y0 + gy);
+            for (int gx = fromX; gx < toX; gx++) {
+                int a = coverage[src + gx] & 0xFF;
+                if (a != 0) {
+                    pixels[dst + gx] = blend(pixels[dst + gx], argb, a);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draws an opaque colour over a pixel with a coverage from 0 to 255 (source over).
+     */
+    static int blend(int dst, int src, int coverage) {
+        if (coverage == 255) {
+            return src;
+        }
+        int inverse = 255 - coverage;
+        int a = coverage + (RasterBuffer.alpha(dst) * inverse + 127) / 255;
+        int r = (RasterBuffer.red(src) * coverage + RasterBuffer.red(dst) * inverse + 127) / 255;
+        int g = (RasterBuffer.green(src) * coverage + RasterBuffer.green(dst) * inverse + 127) / 255;
+        int b = (RasterBuffer.blue(src) * coverage + RasterBuffer.blue(dst) * inverse + 127) / 255;
+        return RasterBuffer.argb(a, r, g, b);
+    }
+
+    /**
+     * @return Pixels from the top of the tallest glyph to the baseline
+     */
+    public int getAscent() {
+        return ascent;
+    }
+
+    /**
+     * @param digit 0 to 9
+     * @return How far the pen moves after the digit
+     */
+    public int getAdvance(int digit) {
+        return advance[digit];
+    }
+}
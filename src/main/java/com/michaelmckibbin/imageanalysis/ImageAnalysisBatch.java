@@ -0,0 +1,345 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless batch entry point: processes every slide in a directory and writes the cell
+ * counts and timings to a CSV file.
+ * <p>
+ * Images are decoded with ImageIO straight into a {@link RasterBuffer}, and processed with
+ * {@link ImageProcessor#detectCells} / {@link ImageProcessor#processRaster}, so the JavaFX
+ * toolkit is never started. Slides are processed concurrently on a fixed size thread pool,
+ * and every task gets its own processor from the {@link ImageProcessorFactory} because the
+ * processors keep state between runs.
+ * <p>
+ * Usage:
+ * <pre>
+ *     ImageAnalysisBatch &lt;directory&gt; &lt;processor&gt; [key=value ...]
+ * </pre>
+ * processor is one of the factory keys: bw, tricolour, union, union2. The optional settings
+ * are the ProcessingParameters (brightness, saturation, hue, red, green, blue,
+ * redCellThreshold, whiteCellThreshold, minCellSize, maxCellSize), plus threads=N
+ * (default: number of cores), output=file.csv (default: results.csv in the directory) and
+ * cache=directory to keep the decoded slides in a {@link RasterCache} for the next run.
+ * tile=N processes the slides N by N pixels at a time with a {@link TiledCellDetector}, for
+ * whole-slide scans too large to decode at once, and stream=true only counts the cells with a
+ * {@link StreamingCellLabeler}, a band of rows at a time (both union processors only, and
+ * TIFF slides only: other formats decode the whole file again for every tile or band).
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ImageAnalysisBatch {
+
+    private static final String CSV_HEADER =
+            "file,processor,width,height,white_cells,red_cells,decode_ms,process_ms,error";
+
+    private final String processorType;
+    private final ProcessingParameters params;
+    private final int threads;
+    private RasterCache rasterCache;
+    private int tileSize;
+    private boolean streaming;
+
+    /**
+     * One row of the results file.
+     */
+    record SlideResult(Path file, int width, int height, int whiteCells, int redCells,
+                       double decodeMillis, double processMillis, String error) {
+    }
+
+    public ImageAnalysisBatch(String processorType, ProcessingParameters params, int threads) {
+        ImageProcessorFactory.createProcessor(processorType); // fail early on an unknown processor
+        this.processorType = processorType;
+        this.params = params;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ImageAnalysisBatch <directory> <bw|tricolour|union|union2> [key=value ...]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        String processorType = args[1].toLowerCase(Locale.ROOT);
+        ProcessingParameters params = defaultParameters(processorType);
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path output = directory.resolve("results.csv");
+        Path cache = null;
+        int tileSize = 0;
+        boolean streaming = false;
+
+        for (int i = 2; i < args.length; i++) {
+            String[] setting = args[i].split("=", 2);
+            if (setting.length != 2) {
+                throw new IllegalArgumentException("Expected key=value but got: " + args[i]);
+            }
+            switch (setting[0]) {
+                case "threads" -> threads = Integer.parseInt(setting[1]);
+                case "output" -> output = Paths.get(setting[1]);
+                case "cache" -> cache = Paths.get(setting[1]);
+                case "tile" -> tileSize = Integer.parseInt(setting[1]);
+                case "stream" -> streaming = Boolean.parseBoolean(setting[1]);
+                default -> applyParameter(params, setting[0], Double.parseDouble(setting[1]));
+            }
+        }
+
+        List<Path> slides = listSlides(directory);
+        System.out.println("Processing " + slides.size() + " slides with " + processorType
+                + " on " + threads + " threads");
+
+        long start = System.nanoTime();
+        ImageAnalysisBatch batch = new ImageAnalysisBatch(processorType, params, threads);
+        if (cache != null) {
+            batch.setRasterCache(new RasterCache(cache, RasterCache.defaultCache().getMaxBytes()));
+        }
+        batch.setTileSize(tileSize);
+        batch.setStreaming(streaming);
+        int failed = batch.run(slides, output);
+        System.out.printf("Wrote %s in %.1f s (%d failed)%n", output,
+                (System.nanoTime() - start) / 1_000_000_000.0, failed);
+    }
+
+    /**
+     * @param rasterCache Where to look for already decoded slides and store new ones, or null
+     */
+    public void setRasterCache(RasterCache rasterCache) {
+        this.rasterCache = rasterCache;
+    }
+
+    /**
+     * @param tileSize Tile width and height for tiled detection, or 0 to decode slides whole
+     */
+    public void setTileSize(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * @param streaming true to only count the cells, streaming each slide a band of rows at a time
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    /**
+     * Processes the slides and writes one CSV row per slide, in the order given.
+     *
+     * @param slides The image files
+     * @param output The CSV file to write
+     * @return The number of slides that failed
+     */
+    public int run(List<Path> slides, Path output) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int failed = 0;
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+            List<Future<SlideResult>> results = new ArrayList<>(slides.size());
+            for (Path slide : slides) {
+                results.add(executor.submit(() -> processSlide(slide)));
+            }
+
+            writer.println(CSV_HEADER);
+            for (Future<SlideResult> future : results) {
+                SlideResult result;
+                try {
+                    result = future.get();
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Slide task failed", e.getCause());
+                }
+                if (result.error() != null) {
+                    failed++;
+                }
+                writer.println(toCsv(result));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    /**
+     * Decodes and processes one slide. Errors are recorded in the result rather than thrown,
+     * so one bad file doesn't stop the batch.
+     *
+     * @param file The image file
+     * @return The counts and timings for the slide
+     */
+    SlideResult processSlide(Path file) {
+        if (streaming) {
+            return processSlideStreamed(file);
+        }
+        if (tileSize > 0) {
+            return processSlideTiled(file);
+        }
+        try {
+            long startDecode = System.nanoTime();
+            RasterBuffer raster = rasterCache != null ? rasterCache.get(file) : null;
+            boolean decoded = raster == null;
+            if (decoded) {
+                BufferedImage image = ImageIO.read(file.toFile());
+                if (image == null) {
+                    return new SlideResult(file, 0, 0, -1, -1, 0, 0, "Unsupported image format");
+                }
+                raster = RasterBuffer.fromBufferedImage(image);
+            }
+            long endDecode = System.nanoTime();
+            if (decoded && rasterCache != null) {
+                rasterCache.put(file, raster);
+            }
+
+            // Each task has its own processor, they aren't thread safe
+            ImageProcessor processor = ImageProcessorFactory.createProcessor(processorType);
+            long startProcess = System.nanoTime();
+            CellDetectionResult cells = processor.detectCells(raster, params);
+            if (cells == null) {
+                // No cell detection (e.g. black and white), time the image processing instead
+                processor.processRaster(raster, params);
+            }
+            long endProcess = System.nanoTime();
+
+            return new SlideResult(file, raster.getWidth(), raster.getHeight(),
+                    cells != null ? cells.getWhiteCellCount() : -1,
+                    cells != null ? cells.getRedCellCount() : -1,
+                    (endDecode - startDecode) / 1_000_000.0,
+                    (endProcess - startProcess) / 1_000_000.0,
+                    null);
+        } catch (IOException | RuntimeException e) {
+            return new SlideResult(file, 0, 0, -1, -1, 0, 0, e.toString());
+        }
+    }
+
+    /**
+     * Processes one slide a tile at a time, without decoding it whole. Decoding happens
+     * tile by tile during detection, so it is timed as processing.
+     *
+     * @param file The image file
+     * @return The counts and timings for the slide
+     */
+    private SlideResult processSlideTiled(Path file) {
+        ImageProcessor processor = ImageProcessorFactory.createProcessor(processorType);
+        if (!(processor instanceof UnionFindBloodCellProcessor unionFind)) {
+            return new SlideResult(file, 0, 0, -1, -1, 0, 0, "Tiled detection needs a union processor");
+        }
+        try (ImageFileTileSource source = new ImageFileTileSource(file)) {
+            if (!source.decodesRegions()) {
+                return new SlideResult(file, source.getWidth(), source.getHeight(), -1, -1, 0, 0,
+                        "Tiled detection needs a TIFF, this format decodes the whole file for every tile");
+            }
+            long startProcess = System.nanoTime();
+            CellDetectionResult cells = unionFind.detectCells(source, params, tileSize);
+            long endProcess = System.nanoTime();
+            return new SlideResult(file, source.getWidth(), source.getHeight(),
+                    cells.getWhiteCellCount(), cells.getRedCellCount(),
+                    0, (endProcess - startProcess) / 1_000_000.0, null);
+        } catch (IOException | RuntimeException e) {
+            return new SlideResult(file, 0, 0, -1, -1, 0, 0, e.toString());
+        }
+    }
+
+    /**
+     * Counts the cells of one slide in a single streaming pass, decoding a band of rows at a
+     * time. Decoding is timed as processing.
+     *
+     * @param file The image file
+     * @return The counts and timings for the slide
+     */
+    private SlideResult processSlideStreamed(Path file) {
+        ImageProcessor processor = ImageProcessorFactory.createProcessor(processorType);
+        if (!(processor instanceof UnionFindBloodCellProcessor unionFind)) {
+            return new SlideResult(file, 0, 0, -1, -1, 0, 0, "Streaming needs a union processor");
+        }
+        try (ImageFileTileSource source = new ImageFileTileSource(file)) {
+            if (!source.decodesRegions()) {
+                return new SlideResult(file, source.getWidth(), source.getHeight(), -1, -1, 0, 0,
+                        "Streaming needs a TIFF, this format decodes the whole file for every band");
+            }
+            int[] counts = new int[3]; // Indexed by CellClass
+            long startProcess = System.nanoTime();
+            unionFind.streamCells(source, params, cell -> counts[cell.cellClass()]++);
+            long endProcess = System.nanoTime();
+            return new SlideResult(file, source.getWidth(), source.getHeight(),
+                    counts[CellClass.WHITE_CELL], counts[CellClass.RED_CELL],
+                    0, (endProcess - startProcess) / 1_000_000.0, null);
+        } catch (IOException | RuntimeException e) {
+            return new SlideResult(file, 0, 0, -1, -1, 0, 0, e.toString());
+        }
+    }
+
+    /**
+     * Lists the image files ImageIO can read in a directory, sorted by name.
+     */
+    static List<Path> listSlides(Path directory) throws IOException {
+        List<Path> slides = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{png,jpg,jpeg,bmp,gif,tif,tiff,PNG,JPG,JPEG,BMP,GIF,TIF,TIFF}")) {
+            for (Path path : stream) {
+                if (Files.isRegularFile(path)) {
+                    slides.add(path);
+                }
+            }
+        }
+        slides.sort(null);
+        return slides;
+    }
+
+    /**
+     * The same defaults the application uses for each processor.
+     */
+    static ProcessingParameters defaultParameters(String processorType) {
+        return switch (processorType) {
+            case "bw" -> ProcessingParameters.getDefaultBlackAndWhite();
+            case "union" -> ProcessingParameters.UnionFindBloodCellProcessor();
+            case "tricolour", "union2" -> ProcessingParameters.getDefaultTricolourBlood();
+            default -> throw new IllegalArgumentException("Unknown processor type: " + processorType);
+        };
+    }
+
+    static void applyParameter(ProcessingParameters params, String key, double value) {
+        switch (key) {
+            case "brightness" -> params.setBrightness(value);
+            case "saturation" -> params.setSaturation(value);
+            case "hue" -> params.setHue(value);
+            case "red" -> params.setRed(value);
+            case "green" -> params.setGreen(value);
+            case "blue" -> params.setBlue(value);
+            case "redCellThreshold" -> params.setRedCellThreshold(value);
+            case "whiteCellThreshold" -> params.setWhiteCellThreshold(value);
+            case "minCellSize" -> params.setMinCellSize(value);
+            case "maxCellSize" -> params.setMaxCellSize(value);
+            default -> throw new IllegalArgumentException("Unknown parameter: " + key);
+        }
+    }
+
+    private String toCsv(SlideResult result) {
+        return String.join(",",
+                csvField(result.file().getFileName().toString()),
+                processorType,
+                Integer.toString(result.width()),
+                Integer.toString(result.height()),
+                result.whiteCells() >= 0 ? Integer.toString(result.whiteCells()) : "",
+                result.redCells() >= 0 ? Integer.toString(result.redCells()) : "",
+                String.format(Locale.ROOT, "%.2f", result.decodeMillis()),
+                String.format(Locale.ROOT, "%.2f", result.processMillis()),
+                result.error() != null ? csvField(result.error()) : "");
+    }
+
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
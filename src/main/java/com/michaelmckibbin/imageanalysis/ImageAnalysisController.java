@@ -1,6 +1,7 @@
 
 package com.michaelmckibbin.imageanalysis;
 
+import javafx.application.Platform;
 import javafx.fxml.FXML;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -27,6 +28,7 @@ import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import javafx.util.StringConverter;
 
 
@@ -42,6 +44,7 @@ public class ImageAnalysisController {
     @FXML public MenuItem saveImageAs;
     @FXML private ImageView imageViewOriginal;
     @FXML private ImageView imageViewProcessed;
+    @FXML private CellOverlay cellOverlay;
     @FXML private ComboBox<ImageProcessor> processorComboBox;
 
     // Sliders
@@ -66,12 +69,58 @@ public class ImageAnalysisController {
      */
     private File defaultImageDirectory;
 
+    /**
+     * Pixels of the original image and its downscaled copies, read once when it is loaded
+     * instead of on every update.
+     */
+    private ImagePyramid sourcePyramid;
+
+    /**
+     * Pixel budget of the preview shown while a slider is dragged (e.g. 1/8 of a 40 MP slide).
+     */
+    private static final long PREVIEW_PIXELS = 1_000_000;
+
+    /**
+     * Full resolution results already computed for the loaded image, so switching back to a
+     * processor or to earlier settings shows them at once. At most 512 MB or a quarter of the heap.
+     */
+    private final ResultCache<ProcessedImage> resultCache = new ResultCache<>(
+            Math.min(512L << 20, Runtime.getRuntime().maxMemory() / 4),
+            result -> result.cells() == null
+                    ? 4L * result.raster().getWidth() * result.raster().getHeight()
+                    : 64L * (result.cells().getWhiteCellCount() + result.cells().getRedCellCount())); // raster is the shared source
+
+    /**
+     * Decoded slides kept on disk, so reopening a slide skips decoding it.
+     */
+    private final RasterCache rasterCache = RasterCache.defaultCache();
+
+    /**
+     * The sliders that change the processing parameters.
+     */
+    private List<Slider> parameterSliders;
+
+    /**
+     * Runs the processing off the FX thread. While a slider is dragged only the newest
+     * parameters are processed, and only their result is shown.
+     */
+    private final LatestWinsExecutor processingExecutor =
+            new LatestWinsExecutor("image-processing", Platform::runLater);
+
+    /**
+     * The result of a background processing job: the processed pixels or, for the
+     * UnionFindBloodCellProcessor, the untouched source plus the cells to show on the overlay.
+     */
+    private record ProcessedImage(RasterBuffer raster, CellDetectionResult cells) {
+    }
+
     @FXML
     private void initialize() {
         setupProcessors();
         setupSliderDefaults();
         setupSliderListeners();
         initializeDefaultDirectory();
+        cellOverlay.attachTo(imageViewProcessed);
 
         // Add click handler to open image in new window
         imageViewProcessed.setOnMouseClicked(event -> {
@@ -90,6 +139,12 @@ public class ImageAnalysisController {
         Stage newWindow = new Stage();
         ImageView newImageView = new ImageView(image);
         StackPane root = new StackPane(newImageView);
+        if (cellOverlay.getCells() != null) {
+            CellOverlay overlay = new CellOverlay();
+            overlay.attachTo(newImageView);
+            overlay.setCells(cellOverlay.getCells(), image.getWidth(), image.getHeight());
+            root.getChildren().add(overlay);
+        }
 
         // Configure ImageView in new window
         newImageView.setPreserveRatio(true);
@@ -107,23 +162,15 @@ public class ImageAnalysisController {
         processorComboBox.getItems().clear();
         processorComboBox.setPromptText("Choose process");
 
-        // Initialize processors that need callbacks
-        ConnectedComponentsProcessor unionFindProcessor = new ConnectedComponentsProcessor();
-        unionFindProcessor.setResultCallback(processedImage -> imageViewProcessed.setImage(processedImage));
-
-        TricolourBloodProcessor tricolourProcessor = new TricolourBloodProcessor();
-        tricolourProcessor.setImageDisplayCallback(image -> imageViewProcessed.setImage(image));
-
-        // Initialize and add all processors to list
+        // Initialize and add all processors to list.
+        // They all run on the background executor (see submitProcessing), so none need callbacks.
         List<ImageProcessor> imageProcessors = Arrays.asList(
                 new OriginalImageProcessor(),
                 new BlackAndWhiteProcessor(),
                 new BloodCellProcessor(),
-                //new TricolourBloodProcessor(),
-                tricolourProcessor,
-                unionFindProcessor,
+                new TricolourBloodProcessor(),
+                new ConnectedComponentsProcessor(),
                 new UnionFindBloodCellProcessor()
-                //new ConnectedComponentsProcessor()
         );
 
         processorComboBox.getItems().addAll(imageProcessors);
@@ -207,18 +254,34 @@ public class ImageAnalysisController {
 
     private void setupSliderListeners() {
         // Create a list of all sliders
-        List<Slider> sliders = Arrays.asList(
+        parameterSliders = Arrays.asList(
             sliderBrightness, sliderHue,
             sliderRed, sliderGreen, sliderBlue,
             sliderWhiteCellSensitivity, sliderRedCellSensitivity, sliderMinCellSize, sliderMaxCellSize
         );
 
-        // Add listener to each slider with debouncing
-        sliders.forEach(slider -> slider.valueProperty().addListener((obs, oldVal, newVal) -> {
-            if (Math.abs(newVal.doubleValue() - oldVal.doubleValue()) > 0.01) {
-                updateImage();
-            }
-        }));
+        parameterSliders.forEach(slider -> {
+            // Add listener to each slider with debouncing
+            slider.valueProperty().addListener((obs, oldVal, newVal) -> {
+                if (Math.abs(newVal.doubleValue() - oldVal.doubleValue()) > 0.01) {
+                    updateImage();
+                }
+            });
+
+            // A drag shows a low resolution preview; process at full resolution when it ends
+            slider.valueChangingProperty().addListener((obs, wasChanging, isChanging) -> {
+                if (!isChanging) {
+                    updateImage();
+                }
+            });
+        });
+    }
+
+    /**
+     * @return true while the user is dragging one of the parameter sliders
+     */
+    private boolean isSliderDragging() {
+        return parameterSliders != null && parameterSliders.stream().anyMatch(Slider::isValueChanging);
     }
 
     /**
@@ -244,16 +307,8 @@ public class ImageAnalysisController {
 
             ProcessingParameters params = createProcessingParameters();
 
-            // Handle async processors differently
-            if (selectedProcessor instanceof ConnectedComponentsProcessor ||
-                selectedProcessor instanceof TricolourBloodProcessor) {
-                // These processors update the image view through their callbacks
-                selectedProcessor.processImage(imageViewOriginal.getImage(), params);
-            } else {
-                // Synchronous processors
-                Image processedImage = selectedProcessor.processImage(imageViewOriginal.getImage(), params);
-                imageViewProcessed.setImage(processedImage);
-            }
+            // Process in the background; superseded slider positions are dropped
+            submitProcessing(selectedProcessor, params);
         }
     }
 
@@ -274,16 +329,8 @@ public class ImageAnalysisController {
 
             ProcessingParameters params = createProcessingParameters();
 
-            // Handle async processors differently
-            if (selectedProcessor instanceof ConnectedComponentsProcessor ||
-                selectedProcessor instanceof TricolourBloodProcessor) {
-                // These processors update the image view through their callbacks
-                selectedProcessor.processImage(imageViewOriginal.getImage(), params);
-            } else {
-                // Synchronous processors
-                Image processedImage = selectedProcessor.processImage(imageViewOriginal.getImage(), params);
-                imageViewProcessed.setImage(processedImage);
-            }
+            // Process in the background; superseded slider positions are dropped
+            submitProcessing(selectedProcessor, params);
         }
     }
 
@@ -379,6 +426,69 @@ public class ImageAnalysisController {
         }
     }
 
+    /**
+     * Processes the original image on the background executor and shows the result.
+     * Submitting again before a job finishes cancels it; only the newest result is shown.
+     * While a slider is being dragged, a downscaled copy from the pyramid is processed
+     * instead, with the cell sizes scaled to match, so the preview keeps up with the drag.
+     *
+     * @param processor The image processor to use
+     * @param params    The parameters from the sliders
+     */
+    private void submitProcessing(ImageProcessor processor, ProcessingParameters params) {
+        ImagePyramid pyramid = getSourcePyramid();
+        int level = isSliderDragging() ? pyramid.levelFor(PREVIEW_PIXELS) : 0;
+        processingExecutor.submit(() -> {
+            // The first use of a level builds it, so do it here rather than on the FX thread
+            RasterBuffer source = pyramid.getLevel(level);
+            if (level > 0) {
+                return process(processor, source, params.scaledTo(pyramid.getScale(level)));
+            }
+
+            // Full resolution results are cached; previews are cheap enough to recompute
+            ResultCache.Key key = ResultCache.Key.of(pyramid.getContentHash(), processor, params);
+            ProcessedImage result = resultCache.get(key);
+            if (result == null) {
+                result = process(processor, source, params);
+                resultCache.put(key, result);
+            }
+            return result;
+        }, result -> {
+            // The full resolution source is already on screen as the original image
+            Image image = result.raster() == pyramid.getSource()
+                    ? imageViewOriginal.getImage()
+                    : result.raster().toImage();
+            imageViewProcessed.setImage(image);
+            if (result.cells() != null) {
+                cellOverlay.setCells(result.cells(), result.raster().getWidth(), result.raster().getHeight());
+            } else {
+                cellOverlay.clear();
+            }
+        });
+    }
+
+    /**
+     * The background part of {@link #submitProcessing}.
+     */
+    private static ProcessedImage process(ImageProcessor processor, RasterBuffer source,
+                                          ProcessingParameters params) {
+        if (processor instanceof UnionFindBloodCellProcessor unionFind) {
+            // Detect in the background; the cells are drawn over the source by the overlay
+            return new ProcessedImage(source, unionFind.detect(source, params));
+        }
+        return new ProcessedImage(processor.processRaster(source, params), null);
+    }
+
+    /**
+     * @return The original image and its downscaled copies, read from the view the first time they are needed
+     */
+    private ImagePyramid getSourcePyramid() {
+        if (sourcePyramid == null) {
+            sourcePyramid = new ImagePyramid(RasterBuffer.fromImage(imageViewOriginal.getImage()));
+        }
+        return sourcePyramid;
+    }
+
     private void initializeDefaultDirectory() {
         defaultImageDirectory = new File(System.getProperty("user.dir") +
             "/src/main/resources/com/michaelmckibbin/imageanalysis/images");
@@ -396,15 +506,7 @@ public class ImageAnalysisController {
     private void processImage(ImageProcessor processor) {
         if (imageViewOriginal.getImage() != null) {
             ProcessingParameters params = createProcessingParameters();
-            if (processor instanceof ConnectedComponentsProcessor ||
-                processor instanceof TricolourBloodProcessor) {
-                // Async processors handle their own image updates
-                processor.processImage(imageViewOriginal.getImage(), params);
-            } else {
-                // Synchronous processors
-                Image processedImage = processor.processImage(imageViewOriginal.getImage(), params);
-                imageViewProcessed.setImage(processedImage);
-            }
+            submitProcessing(processor, params);
         }
     }
 
@@ -456,8 +558,26 @@ private void handleOpenFile(ActionEvent actionEvent) {
     if (selectedFile != null) {
         try {
             currentImageFile = selectedFile;
-            String imageUrl = selectedFile.toURI().toURL().toExternalForm();
-            imageViewOriginal.setImage(new Image(imageUrl));
+            long startLoad = System.nanoTime();
+            RasterBuffer raster = rasterCache.get(selectedFile.toPath());
+            if (raster != null) {
+                // The view needs its own copy, as it does of a decoded image
+                imageViewOriginal.setImage(raster.toImage());
+            } else {
+                String imageUrl = selectedFile.toURI().toURL().toExternalForm();
+                Image image = new Image(imageUrl);
+                imageViewOriginal.setImage(image);
+                if (!image.isError()) {
+                    raster = RasterBuffer.fromImage(image);
+                    RasterBuffer decoded = raster;
+                    // Written in the background; the raster is never modified, only read
+                    CompletableFuture.runAsync(() -> rasterCache.put(selectedFile.toPath(), decoded));
+                }
+            }
+            System.out.printf("Loaded %s in %.1f ms%n", selectedFile.getName(), (System.nanoTime() - startLoad) / 1_000_000.0);
+            sourcePyramid = raster != null ? new ImagePyramid(raster) : null; // null: read again from the view
+            resultCache.invalidate();
+            cellOverlay.clear();
             updateImage();
         } catch (MalformedURLException e) {
             showErrorAlert("Image Loading Error", "Could not load the selected image.");
@@ -533,6 +653,10 @@ private void handleSaveImageAs(ActionEvent actionEvent) {
     if (selectedFile != null) {
         try {
             Image imageToSave = imageViewProcessed.getImage();
+            if (cellOverlay.getCells() != null) {
+                // The cells are only drawn into the pixels when saving
+                imageToSave = CellOverlay.rasterize(imageToSave, cellOverlay.getCells());
+            }
             BufferedImage bImage = SwingFXUtils.fromFXImage(imageToSave, null);
 
             // Determine format from the selected file extension
@@ -0,0 +1,88 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Reads tiles of an image file with ImageIO, decoding only the requested region each time
+ * (ImageReadParam.setSourceRegion), so the whole image is never held in memory.
+ * <p>
+ * How cheap a region is depends on the format: TIFF decodes just the strips or tiles that
+ * overlap it, while JPEG and PNG still scan the file from the start for every region, only
+ * keeping the rows of the region (see {@link #decodesRegions()}). Either way the memory used
+ * is that of one tile.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ImageFileTileSource implements TileSource {
+
+    private final ImageInputStream input;
+    private final ImageReader reader;
+    private final int width;
+    private final int height;
+    private final boolean decodesRegions;
+
+    /**
+     * Opens an image file and reads its size.
+     *
+     * @param file The image file
+     * @throws IOException If the file can't be read or no ImageIO reader supports it
+     */
+    public ImageFileTileSource(Path file) throws IOException {
+        input = ImageIO.createImageInputStream(file.toFile());
+        if (input == null) {
+            throw new IOException("Cannot open " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("Unsupported image format: " + file);
+        }
+        reader = readers.next();
+        reader.setInput(input, false, true); // tiles may go back up the file
+        width = reader.getWidth(0);
+        height = reader.getHeight(0);
+        decodesRegions = "tif".equalsIgnoreCase(reader.getFormatName());
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if a region is decoded on its own (TIFF); false if every region decodes
+     * the file from the start, so reading n tiles costs n decodes of the whole image
+     */
+    public boolean decodesRegions() {
+        return decodesRegions;
+    }
+
+    @Override
+    public RasterBuffer readTile(int x, int y, int tileWidth, int tileHeight) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(x, y, tileWidth, tileHeight));
+        BufferedImage tile = reader.read(0, param);
+        return RasterBuffer.fromBufferedImage(tile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+}
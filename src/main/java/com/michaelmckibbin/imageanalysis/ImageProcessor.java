@@ -9,6 +9,7 @@ import javafx.scene.paint.Color;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 /** The interface defines the contract that all image processors must follow
  *
@@ -21,6 +22,40 @@ public interface ImageProcessor {
     Image processImage(Image originalImage, ProcessingParameters params);
     Image processImage(Image originalImage);
 
+    /**
+     * Processes a packed ARGB raster directly, without going through a JavaFX Image.
+     * The processImage methods are thin adapters around this at the display boundary.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters
+     * @return A new raster holding the processed result
+     */
+    RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params);
+
+    /**
+     * Detects and counts the cells in a raster, without drawing anything or using the
+     * JavaFX toolkit. Used by the headless batch runner.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters
+     * @return The white and red cells found, or null if this processor doesn't detect cells
+     */
+    default CellDetectionResult detectCells(RasterBuffer source, ProcessingParameters params) {
+        return null;
+    }
+
     String getProcessorName();
-}
 
+    /**
+     * Cooperative cancellation point. Processors call this between passes (and every so
+     * many rows in long loops); when the job has been superseded, e.g. by
+     * {@link LatestWinsExecutor}, the thread is interrupted and processing stops here.
+     *
+     * @throws CancellationException if the current thread has been interrupted
+     */
+    static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Processing cancelled");
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Downscaled copies of an image, each half the width and height of the one before.
+ * <p>
+ * Level 0 is the original raster, level 1 is 1/2 size, level 2 is 1/4, and so on. A level
+ * is made from the one above it with a 2x2 box filter (the average of each channel over
+ * four pixels), so every level costs a quarter of the previous one and the whole pyramid
+ * a third of the original. Levels are only built when they are first asked for, and then
+ * kept for as long as the pyramid lives.
+ * <p>
+ * Used for the slider preview: while a slider is dragged, the processor runs on a small
+ * level, with the cell sizes scaled to match (see {@link ProcessingParameters#scaledTo}).
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ImagePyramid {
+
+    private final List<RasterBuffer> levels = new ArrayList<>();
+    private Long contentHash;
+
+    /**
+     * @param source The full resolution image (level 0). It is not copied.
+     */
+    public ImagePyramid(RasterBuffer source) {
+        levels.add(source);
+    }
+
+    /**
+     * @return The full resolution image
+     */
+    public RasterBuffer getSource() {
+        return levels.get(0);
+    }
+
+    /**
+     * @return {@link RasterBuffer#contentHash()} of the full resolution image, computed once
+     */
+    public synchronized long getContentHash() {
+        if (contentHash == null) {
+            contentHash = getSource().contentHash();
+        }
+        return contentHash;
+    }
+
+    /**
+     * Returns a level, building it and the levels above it if needed.
+     * Levels stop at 1x1, so a level past that returns the 1x1 image.
+     *
+     * @param level The level, 0 for the original
+     * @return The image at 1 / 2^level of the original width and height
+     */
+    public synchronized RasterBuffer getLevel(int level) {
+        if (level < 0) {
+            throw new IllegalArgumentException("Level must not be negative");
+        }
+        while (levels.size() <= level) {
+            RasterBuffer last = levels.get(levels.size() - 1);
+            if (last.getWidth() <= 1 && last.getHeight() <= 1) {
+                return last;
+            }
+            levels.add(halve(last));
+        }
+        return levels.get(level);
+    }
+
+    /**
+     * Chooses the first (largest) level with at most the given number of pixels.
+     *
+     * @param maxPixels The pixel budget
+     * @return The level number, 0 if the original already fits
+     */
+    public int levelFor(long maxPixels) {
+        RasterBuffer source = getSource();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int level = 0;
+        while ((long) width * height > maxPixels && (width > 1 || height > 1)) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * @param level A level number
+     * @return The resize factor of that level, e.g. 0.25 for level 2
+     */
+    public double getScale(int level) {
+        RasterBuffer source = getSource();
+        if (source.getWidth() == 0) {
+            return 1.0;
+        }
+        return (double) getLevel(level).getWidth() / source.getWidth();
+    }
+
+    /**
+     * Halves an image with a 2x2 box filter. An odd last row or column is averaged over
+     * the pixels that exist.
+     *
+     * @param source The image to shrink
+     * @return A new image of (width + 1) / 2 by (height + 1) / 2 pixels
+     */
+    static RasterBuffer halve(RasterBuffer source) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int halfWidth = (width + 1) / 2;
+        int halfHeight = (height + 1) / 2;
+        RasterBuffer half = new RasterBuffer(halfWidth, halfHeight);
+        int[] in = source.getPixels();
+        int[] out = half.getPixels();
+
+        for (int y = 0; y < halfHeight; y++) {
+            int row0 = source.index(0, 2 * y);
+            int row1 = 2 * y + 1 < height ? row0 + source.getStride() : row0;
+            int outRow = y * halfWidth;
+            for (int x = 0; x < halfWidth; x++) {
+                int x0 = 2 * x;
+                int x1 = x0 + 1 < width ? x0 + 1 : x0;
+                int p00 = in[row0 + x0];
+                int p01 = in[row0 + x1];
+                int p10 = in[row1 + x0];
+                int p11 = in[row1 + x1];
+
+                // Average each channel; adding 2 before the shift rounds to nearest
+                int a = ((p00 >>> 24) + (p01 >>> 24) + (p10 >>> 24) + (p11 >>> 24) + 2) >> 2;
+                int r = (RasterBuffer.red(p00) + RasterBuffer.red(p01)
+                        + RasterBuffer.red(p10) + RasterBuffer.red(p11) + 2) >> 2;
+                int g = (RasterBuffer.green(p00) + RasterBuffer.green(p01)
+                        + RasterBuffer.green(p10) + RasterBuffer.green(p11) + 2) >> 2;
+                int b = (RasterBuffer.blue(p00) + RasterBuffer.blue(p01)
+                        + RasterBuffer.blue(p10) + RasterBuffer.blue(p11) + 2) >> 2;
+                out[outRow + x] = RasterBuffer.argb(a, r, g, b);
+            }
+        }
+        return half;
+    }
+}
@@ -0,0 +1,179 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Runs processing jobs on one background thread, where only the newest job matters.
+ * <p>
+ * Dragging a slider produces a stream of parameter changes much faster than a large slide
+ * can be processed. Instead of queueing a job for every change, at most one job runs and at
+ * most one waits: a new job replaces the waiting one, and the running one is cancelled.
+ * Cancellation is cooperative; the worker thread is interrupted, and the processors check
+ * {@link ImageProcessor#checkCancelled()} between passes and give up with a
+ * CancellationException. A result is only passed on if no newer job was submitted in the
+ * meantime, and the check is made again on the result executor (the FX thread) just before
+ * it is delivered, so a stale image can never replace a newer one.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class LatestWinsExecutor {
+
+    private final ExecutorService worker;
+    private final Executor resultExecutor;
+    private final Object lock = new Object();
+
+    private long generation;  // Number of the newest job submitted
+    private Job<?> running;   // The job on the worker thread, or null
+    private Job<?> pending;   // The job to run next, or null
+
+    /**
+     * One submitted job.
+     */
+    private static final class Job<T> {
+        final long generation;
+        final Callable<T> work;
+        final Consumer<T> onResult;
+        volatile boolean cancelled;
+        Thread thread;        // Set while running, guarded by lock
+
+        Job(long generation, Callable<T> work, Consumer<T> onResult) {
+            this.generation = generation;
+            this.work = work;
+            this.onResult = onResult;
+        }
+    }
+
+    /**
+     * @param name           The name of the worker thread
+     * @param resultExecutor Where results are delivered, e.g. Platform::runLater
+     */
+    public LatestWinsExecutor(String name, Executor resultExecutor) {
+        this.resultExecutor = resultExecutor;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Submits a job, superseding all earlier ones.
+     *
+     * @param work     The processing, run on the worker thread
+     * @param onResult Receives the result on the result executor, if this is still the newest job
+     */
+    public <T> void submit(Callable<T> work, Consumer<T> onResult) {
+        synchronized (lock) {
+            Job<T> job = new Job<>(++generation, work, onResult);
+            if (running == null) {
+                start(job);
+            } else {
+                // The waiting job is dropped, and the running one told to stop
+                cancel(running);
+                pending = job;
+            }
+        }
+    }
+
+    /**
+     * Cancels the running and waiting jobs. Results that haven't been delivered yet are dropped.
+     */
+    public void cancelAll() {
+        synchronized (lock) {
+            generation++;
+            if (running != null) {
+                cancel(running);
+            }
+            pending = null;
+        }
+    }
+
+    /**
+     * Stops the worker thread.
+     */
+    public void shutdown() {
+        cancelAll();
+        worker.shutdownNow();
+    }
+
+    /**
+     * @return true if a job is running or waiting
+     */
+    public boolean isBusy() {
+        synchronized (lock) {
+            return running != null;
+        }
+    }
+
+    // Called with the lock held
+    private void start(Job<?> job) {
+        running = job;
+        worker.execute(() -> run(job));
+    }
+
+    // Called with the lock held
+    private void cancel(Job<?> job) {
+        job.cancelled = true;
+        if (job.thread != null) {
+            job.thread.interrupt();
+        }
+    }
+
+    private <T> void run(Job<T> job) {
+        synchronized (lock) {
+            // Clear an interrupt aimed at the previous job that arrived after it finished
+            Thread.interrupted();
+            job.thread = Thread.currentThread();
+        }
+
+        T result = null;
+        boolean completed = false;
+        try {
+            if (!job.cancelled) {
+                result = job.work.call();
+                completed = true;
+            }
+        } catch (CancellationException e) {
+            System.out.println("Processing job " + job.generation + " cancelled");
+        } catch (Exception e) {
+            if (!job.cancelled) {
+                System.err.println("Processing job " + job.generation + " failed: " + e);
+                e.printStackTrace();
+            }
+        }
+
+        boolean deliver;
+        synchronized (lock) {
+            job.thread = null;
+            deliver = completed && !job.cancelled && job.generation == generation;
+            running = null;
+            if (pending != null) {
+                Job<?> next = pending;
+                pending = null;
+                start(next);
+            }
+        }
+
+        if (deliver) {
+            T value = result;
+            resultExecutor.execute(() -> {
+                if (isCurrent(job)) {
+                    job.onResult.accept(value);
+                }
+            });
+        }
+    }
+
+    private boolean isCurrent(Job<?> job) {
+        synchronized (lock) {
+            return job.generation == generation;
+        }
+    }
+}
@@ -1,10 +1,6 @@
 package com.michaelmckibbin.imageanalysis;
 
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
 
 
 public class OriginalImageProcessor implements ImageProcessor {
@@ -32,27 +28,44 @@ public class OriginalImageProcessor implements ImageProcessor {
         System.out.println("\n*****************************************************");
         System.out.println("\n");
 
-        int width = (int) originalImage.getWidth();
-        int height = (int) originalImage.getHeight();
+        return processRaster(RasterBuffer.fromImage(originalImage), params).toImage();
+    }
+
+    /**
+     * Applies the brightness and red adjustments to a raster.
+     * See {@link #processImage(Image, ProcessingParameters)}.
+     *
+     * @param source The source pixels
+     * @param params Processing parameters containing adjustment values
+     * @return A new raster with the applied adjustments
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
+        int width = source.getWidth();
+        int height = source.getHeight();
 
-        // Create a new writable image to store the processed result
-        WritableImage processedImage = new WritableImage(width, height);
-        PixelReader reader = originalImage.getPixelReader();
-        PixelWriter writer = processedImage.getPixelWriter();
+        // Create a new raster to store the processed result
+        RasterBuffer processed = new RasterBuffer(width, height);
+        int[] in = source.getPixels();
+        int[] out = processed.getPixels();
+
+        // Apply brightness adjustment using exponential scaling
+        // 2^0 = 1.0 (no change), 2^1 = 2.0 (twice as bright), 2^-1 = 0.5 (half as bright)
+        double brightnessAdjustment = Math.pow(2.0, params.getBrightness());
+        double redAdjustment = 1.0 + params.getRed();
 
         // Process each pixel in the image
         for (int y = 0; y < height; y++) {
+            int row = source.index(0, y);
+            int outRow = y * width;
             for (int x = 0; x < width; x++) {
-                Color color = reader.getColor(x, y);
+                int argb = in[row + x];
 
                 // Initialize RGB values with original colors (range 0.0 to 1.0)
-                double red = color.getRed();
-                double green = color.getGreen();
-                double blue = color.getBlue();
+                double red = RasterBuffer.red(argb) / 255.0;
+                double green = RasterBuffer.green(argb) / 255.0;
+                double blue = RasterBuffer.blue(argb) / 255.0;
 
-                // Apply brightness adjustment using exponential scaling
-                // 2^0 = 1.0 (no change), 2^1 = 2.0 (twice as bright), 2^-1 = 0.5 (half as bright)
-                double brightnessAdjustment = Math.pow(2.0, params.getBrightness());
                 red *= brightnessAdjustment;
                 green *= brightnessAdjustment;
                 blue *= brightnessAdjustment;
@@ -64,23 +77,31 @@ public class OriginalImageProcessor implements ImageProcessor {
 //                if (params.getRed() != 0.0) red *= (1.0 + params.getRed());
                 // Try this alternative approach for red adjustment
                 if (params.getRed() != 0.0) {
-                    red = color.getRed() * (1.0 + params.getRed());
+                    red = RasterBuffer.red(argb) / 255.0 * redAdjustment;
                 }
 
 
                 // Create final color, ensuring values are within valid range
-                Color newColor = Color.color(
-                        clamp(red),
-                        clamp(green),
-                        clamp(blue),
-                        color.getOpacity() // Preserve original opacity
+                out[outRow + x] = RasterBuffer.argb(
+                        RasterBuffer.alpha(argb), // Preserve original opacity
+                        toChannel(red),
+                        toChannel(green),
+                        toChannel(blue)
                 );
-
-                writer.setColor(x, y, newColor);
             }
         }
 
-        return processedImage;
+        return processed;
+    }
+
+    /**
+     * Clamps a 0.0 - 1.0 colour value and converts it to a 0 - 255 channel value.
+     *
+     * @param value The color value to convert
+     * @return The rounded channel value
+     */
+    private int toChannel(double value) {
+        return (int) Math.round(clamp(value) * 255.0);
     }
 
     /**
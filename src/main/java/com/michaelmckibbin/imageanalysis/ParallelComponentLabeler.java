@@ -0,0 +1,215 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Multi-threaded connected component labelling.
+ * <p>
+ * The image is cut into horizontal strips which are labelled at the same time on a
+ * ForkJoinPool, each by its own {@link BlockComponentLabeler}. Strip s numbers its
+ * components 1..k(s), which are shifted into one global range by a prefix sum of the
+ * strip counts. The strips are then stitched together by unioning the labels on either
+ * side of each seam (the last row of one strip and the first row of the next). The seams
+ * are merged in parallel into one {@link ConcurrentUnionFind}, and a final parallel pass
+ * rewrites every pixel with its canonical label.
+ * <p>
+ * Components are numbered in raster order of their first pixel, exactly like the
+ * sequential engines, so the output is identical whatever the number of threads.
+ * Small images (fewer rows than two strips) are labelled on the calling thread.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ParallelComponentLabeler implements ComponentLabeler {
+
+    /** Strips shorter than this aren't worth a task of their own */
+    private static final int MIN_STRIP_ROWS = 64;
+
+    private final Connectivity connectivity;
+    private final ForkJoinPool pool;
+
+    /** One engine per strip, so each task has its own union-find */
+    private ComponentLabeler[] stripLabelers = new ComponentLabeler[0];
+
+    /** Equivalences between strip labels across the seams, shared by the seam tasks */
+    private final ConcurrentUnionFind seams = new ConcurrentUnionFind();
+
+    /** Global provisional label to canonical label */
+    private int[] canonical = new int[0];
+
+    /**
+     * Creates a parallel labeler on the common ForkJoinPool.
+     *
+     * @param connectivity The neighbourhood to use
+     */
+    public ParallelComponentLabeler(Connectivity connectivity) {
+        this(connectivity, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates a parallel labeler on the given pool. The image is split into one strip
+     * per worker thread.
+     *
+     * @param connectivity The neighbourhood to use
+     * @param pool         The pool that labels the strips
+     */
+    public ParallelComponentLabeler(Connectivity connectivity, ForkJoinPool pool) {
+        this.connectivity = connectivity;
+        this.pool = pool;
+    }
+
+    @Override
+    public int label(byte[] classes, int offset, int width, int height, int[] labels) {
+        int strips = Math.min(pool.getParallelism(), height / MIN_STRIP_ROWS);
+        if (strips < 2) {
+            return stripLabeler(0).label(classes, offset, width, height, labels);
+        }
+        int stripRows = (height + strips - 1) / strips;
+        strips = (height + stripRows - 1) / stripRows;
+        for (int s = 0; s < strips; s++) {
+            stripLabeler(s);
+        }
+
+        // First pass: label each strip on its own, in parallel
+        int[] counts = forEachStrip(strips, s -> {
+            int firstRow = s * stripRows;
+            int rows = Math.min(stripRows, height - firstRow);
+            return stripLabelers[s].label(classes, offset + firstRow * width, width, rows, labels);
+        });
+
+        // Shift each strip's labels into one global range
+        int[] base = new int[strips];
+        int total = 0;
+        for (int s = 0; s < strips; s++) {
+            base[s] = total;
+            total += counts[s];
+        }
+
+        // Second pass: union labels that touch across each seam, all seams at once
+        seams.reset(total + 1);
+        forEachStrip(strips, s -> {
+            if (s > 0) {
+                mergeSeam(classes, labels, offset + s * stripRows * width, width, base[s - 1], base[s]);
+            }
+            return 0;
+        });
+
+        // Number the merged components in raster order. Global provisional labels are
+        // already in raster order of each strip's first pixel, so the first one seen for
+        // a root is its first pixel in the whole image.
+        if (canonical.length < total + 1) {
+            canonical = new int[total + 1];
+        }
+        int[] canonical = this.canonical;
+        Arrays.fill(canonical, 0, total + 1, 0);
+        int next = 0;
+        for (int g = 1; g <= total; g++) {
+            int root = seams.find(g);
+            if (canonical[root] == 0) {
+                canonical[root] = ++next;
+            }
+            canonical[g] = canonical[root];
+        }
+
+        // Final pass: rewrite every pixel with its canonical label, in parallel
+        forEachStrip(strips, s -> {
+            int firstRow = s * stripRows;
+            int start = offset + firstRow * width;
+            int end = start + Math.min(stripRows, height - firstRow) * width;
+            int shift = base[s];
+            for (int p = start; p < end; p++) {
+                if (labels[p] != 0) {
+                    labels[p] = canonical[shift + labels[p]];
+                }
+            }
+            return 0;
+        });
+        return next;
+    }
+
+    @Override
+    public Connectivity getConnectivity() {
+        return connectivity;
+    }
+
+    /**
+     * Unions the components on the first row of a strip with the ones they touch on the
+     * last row of the strip above.
+     *
+     * @param row       Array index of the first pixel of the lower strip
+     * @param aboveBase Global label offset of the upper strip
+     * @param belowBase Global label offset of the lower strip
+     */
+    private void mergeSeam(byte[] classes, int[] labels, int row, int width, int aboveBase, int belowBase) {
+        boolean eight = connectivity == Connectivity.EIGHT;
+        for (int x = 0; x < width; x++) {
+            int p = row + x;
+            byte c = classes[p];
+            if (c == CellClass.BACKGROUND) {
+                continue;
+            }
+            int label = belowBase + labels[p];
+            int up = p - width;
+            if (classes[up] == c) {
+                seams.union(label, aboveBase + labels[up]);
+            }
+            if (eight) {
+                if (x > 0 && classes[up - 1] == c) {
+                    seams.union(label, aboveBase + labels[up - 1]);
+                }
+                if (x + 1 < width && classes[up + 1] == c) {
+                    seams.union(label, aboveBase + labels[up + 1]);
+                }
+            }
+        }
+    }
+
+    private ComponentLabeler stripLabeler(int s) {
+        if (s >= stripLabelers.length) {
+            stripLabelers = Arrays.copyOf(stripLabelers, s + 1);
+        }
+        if (stripLabelers[s] == null) {
+            stripLabelers[s] = new BlockComponentLabeler(connectivity);
+        }
+        return stripLabelers[s];
+    }
+
+    /**
+     * Runs one task per strip on the pool and waits for all of them.
+     *
+     * @param strips The number of strips
+     * @param task   Work for strip s, returning a result for that strip
+     * @return The result of each strip
+     */
+    private int[] forEachStrip(int strips, IntUnaryOperator task) {
+        List<Callable<Integer>> tasks = new ArrayList<>(strips);
+        for (int s = 0; s < strips; s++) {
+            int strip = s;
+            tasks.add(() -> task.applyAsInt(strip));
+        }
+        List<Future<Integer>> futures = pool.invokeAll(tasks);
+        int[] results = new int[strips];
+        try {
+            for (int s = 0; s < strips; s++) {
+                results[s] = futures.get(s).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while labelling", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Labelling failed", e.getCause());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,98 @@
+package com.michaelmckibbin.imageanalysis;
+
+/**
+ * Per-pixel arithmetic kernels over packed ARGB int arrays.
+ * <p>
+ * The black and white threshold and the tricolour first pass do the same few double
+ * operations on every pixel and nothing else, so they are kept here behind one interface
+ * with two implementations:
+ * <ul>
+ *     <li>{@link ScalarPixelKernels}: one pixel at a time, the reference behaviour</li>
+ *     <li>VectorPixelKernels: the same operations on SIMD lanes with the incubating Vector
+ *     API (jdk.incubator.vector), producing bit for bit the same output</li>
+ * </ul>
+ * The Vector API module is optional. It is only used when it was added to the JVM
+ * (--add-modules jdk.incubator.vector) and the hardware has vectors of at least 128 bits.
+ * Setting the system property imageanalysis.vector=false forces the scalar kernels.
+ * <p>
+ * Every kernel processes one row: length pixels from in[inPos] to out[outPos].
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public interface PixelKernels {
+
+    /** System property that disables the vector kernels when set to false */
+    String VECTOR_PROPERTY = "imageanalysis.vector";
+
+    /**
+     * Luminance threshold, as in {@link BlackAndWhiteProcessor}:
+     * (0.299 r + 0.587 g + 0.114 b) * rgbAdjustment &gt; threshold, with channels in 0 - 1.
+     *
+     * @param above The colour written where the luminance is over the threshold
+     * @param below The colour written otherwise
+     */
+    void threshold(int[] in, int inPos, int[] out, int outPos, int length,
+                   double rgbAdjustment, double threshold, int above, int below);
+
+    /**
+     * The tricolour first pass, as in {@link TricolourBloodProcessor}: see
+     * {@link ScalarPixelKernels#tricolourClass(int, int, int, double)} for the rule.
+     *
+     * @param purple     The colour written for white cell pixels
+     * @param pink       The colour written for red cell pixels
+     * @param background The colour written for everything else
+     */
+    void tricolour(int[] in, int inPos, int[] out, int outPos, int length,
+                   double brightness, int purple, int pink, int background);
+
+    /**
+     * @return true if this implementation uses SIMD lanes
+     */
+    boolean isVectorized();
+
+    /**
+     * @return The scalar kernels
+     */
+    static PixelKernels scalar() {
+        return ScalarPixelKernels.INSTANCE;
+    }
+
+    /**
+     * @return The Vector API kernels
+     * @throws UnsupportedOperationException if the Vector API is not available
+     */
+    static PixelKernels vector() {
+        if (!isVectorAvailable()) {
+            throw new UnsupportedOperationException(
+                    "Vector API not available, run with --add-modules jdk.incubator.vector");
+        }
+        return VectorPixelKernels.INSTANCE;
+    }
+
+    /**
+     * @return The vector kernels if they are available and not disabled, otherwise the scalar ones
+     */
+    static PixelKernels getDefault() {
+        boolean enabled = !"false".equalsIgnoreCase(System.getProperty(VECTOR_PROPERTY));
+        return enabled && isVectorAvailable() ? VectorPixelKernels.INSTANCE : ScalarPixelKernels.INSTANCE;
+    }
+
+    /**
+     * Checks that the jdk.incubator.vector module was resolved at startup and that the
+     * preferred vector shape is wide enough to be worth using.
+     *
+     * @return true if {@link #vector()} can be used
+     */
+    static boolean isVectorAvailable() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            return VectorPixelKernels.isSupported();
+        } catch (LinkageError e) {
+            return false; // module present but not readable from here
+        }
+    }
+}
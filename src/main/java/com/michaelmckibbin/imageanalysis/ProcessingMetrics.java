@@ -17,6 +17,7 @@ public class ProcessingMetrics {
     private List<Double> redCellTimes = new ArrayList<>();
     private List<Double> totalTimes = new ArrayList<>();
     private List<Double> cellsPerSecond = new ArrayList<>();
+    private List<Double> singlePassTimes = new ArrayList<>();
 
 
     public List<Double> getWhiteCellTimes() {
@@ -35,6 +36,10 @@ public class ProcessingMetrics {
         return cellsPerSecond;
     }
 
+    public List<Double> getSinglePassTimes() {
+        return singlePassTimes;
+    }
+
     public void addMetrics(double whiteTime, double redTime, double totalTime, double cps) {
         whiteCellTimes.add(whiteTime);
         redCellTimes.add(redTime);
@@ -42,6 +47,16 @@ public class ProcessingMetrics {
         cellsPerSecond.add(cps);
     }
 
+    /**
+     * Records a run where both cell types were labelled in one combined scan,
+     * so there is no separate white and red detection time.
+     */
+    public void addSinglePassMetrics(double detectionTime, double totalTime, double cps) {
+        singlePassTimes.add(detectionTime);
+        totalTimes.add(totalTime);
+        cellsPerSecond.add(cps);
+    }
+
     public void printAverages() {
         System.out.println("\nAverage Performance Metrics:");
         System.out.println("--------------------------");
@@ -49,6 +64,8 @@ public class ProcessingMetrics {
             whiteCellTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0));
         System.out.printf("Avg Red Cell Detection: %.2f ms%n",
             redCellTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0));
+        System.out.printf("Avg Single Pass Detection: %.2f ms%n",
+            singlePassTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0));
         System.out.printf("Avg Total Processing Time: %.2f ms%n",
             totalTimes.stream().mapToDouble(Double::doubleValue).average().orElse(0));
         System.out.printf("Avg Cells/Second: %.1f%n",
@@ -82,6 +99,7 @@ public class ProcessingMetrics {
         redCellTimes.clear();
         totalTimes.clear();
         cellsPerSecond.clear();
+        singlePassTimes.clear();
     }
 }
 
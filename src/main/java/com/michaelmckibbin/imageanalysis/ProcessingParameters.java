@@ -1,5 +1,7 @@
 package com.michaelmckibbin.imageanalysis;
 
+import java.util.List;
+
 /**
  * Encapsulates parameters for image processing and cell detection in blood cell analysis.
  * This class holds values for both image adjustment and cell detection thresholds.
@@ -85,6 +87,7 @@ public class ProcessingParameters {
     private double whiteCellThreshold;
     private double minCellSize;
     private double maxCellSize;
+    private double areaScale = 1.0;    // Pixel area of the processed image relative to the original
 
     public ProcessingParameters() {
 
@@ -132,6 +135,52 @@ public class ProcessingParameters {
         return maxCellSize;
     }
 
+    public double getAreaScale() {
+        return areaScale;
+    }
+
+    /**
+     * Converts a cell area measured on the original image to the processed image.
+     * The processors call this on their min/max cell sizes, so that a preview on a
+     * downscaled copy filters the same cells as the full resolution run.
+     *
+     * @param pixels An area in pixels of the original image
+     * @return The same area in pixels of the processed image, at least 1
+     */
+    public int scaleArea(int pixels) {
+        return Math.max(1, (int) Math.round(pixels * areaScale));
+    }
+
+    /**
+     * Returns every parameter as a list, for use as a map key: two parameter sets that
+     * process the same way give equal keys. (-0.0 is folded into 0.0.)
+     *
+     * @return An immutable list of the parameter values
+     */
+    public List<Double> toKey() {
+        return List.of(brightness + 0.0, saturation + 0.0, hue + 0.0,
+                red + 0.0, green + 0.0, blue + 0.0,
+                redCellThreshold + 0.0, whiteCellThreshold + 0.0,
+                minCellSize + 0.0, maxCellSize + 0.0, areaScale);
+    }
+
+    /**
+     * Creates a copy of these parameters for processing a copy of the image resized by the
+     * given factor in each direction. Areas shrink by the square of the factor.
+     *
+     * @param scale The resize factor, e.g. 0.25 for a quarter of the width and height
+     * @return New parameters with the area scale adjusted
+     */
+    public ProcessingParameters scaledTo(double scale) {
+        if (scale <= 0.0 || scale > 1.0) {
+            throw new IllegalArgumentException("Scale must be greater than 0 and at most 1");
+        }
+        ProcessingParameters scaled = new ProcessingParameters(brightness, saturation, hue,
+                red, green, blue, redCellThreshold, whiteCellThreshold, minCellSize, maxCellSize);
+        scaled.areaScale = areaScale * scale * scale;
+        return scaled;
+    }
+
     //Setters
 // Setters
     public void setBrightness(double brightness) {
@@ -0,0 +1,277 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A packed ARGB pixel buffer shared by the image processors.
+ * <p>
+ * Each pixel is stored as a single int in the standard {@code 0xAARRGGBB} layout,
+ * so processors can read and write channels with shifts and masks instead of
+ * allocating a {@link Color} per pixel. The buffer is filled once
+ * per image with a bulk {@link PixelReader#getPixels} call, and only converted back
+ * to a JavaFX {@link Image} when the result needs to be displayed.
+ * <p>
+ * Pixel (x, y) lives at {@code pixels[offset + y * stride + x]}.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class RasterBuffer {
+    private final int[] pixels;
+    private final int width;
+    private final int height;
+    private final int offset;
+    private final int stride;
+
+    /**
+     * Creates an empty (fully transparent) raster of the given size.
+     *
+     * @param width  The width in pixels
+     * @param height The height in pixels
+     */
+    public RasterBuffer(int width, int height) {
+        this(new int[checkedArea(width, height)], width, height, 0, width);
+    }
+
+    /**
+     * Wraps an existing pixel array without copying it.
+     *
+     * @param pixels The packed ARGB pixels
+     * @param width  The width in pixels
+     * @param height The height in pixels
+     * @param offset Index of pixel (0, 0) in the array
+     * @param stride Number of array elements between the start of two rows
+     */
+    public RasterBuffer(int[] pixels, int width, int height, int offset, int stride) {
+        if (width < 0 || height < 0 || stride < width || offset < 0) {
+            throw new IllegalArgumentException("Invalid raster geometry");
+        }
+        if (height > 0 && offset + (long) (height - 1) * stride + width > pixels.length) {
+            throw new IllegalArgumentException("Pixel array is too small for the raster geometry");
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.offset = offset;
+        this.stride = stride;
+    }
+
+    /**
+     * Reads every pixel of a JavaFX image into a new raster with a single bulk call.
+     *
+     * @param image The source image
+     * @return A raster holding a copy of the image's pixels
+     */
+    public static RasterBuffer fromImage(Image image) {
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        RasterBuffer raster = new RasterBuffer(width, height);
+        image.getPixelReader().getPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(), raster.pixels, 0, width);
+        return raster;
+    }
+
+    /**
+     * Reads every pixel of an AWT image into a new raster, without the JavaFX toolkit.
+     * Used for headless decoding with ImageIO.
+     *
+     * @param image The source image
+     * @return A raster holding a copy of the image's pixels
+     */
+    public static RasterBuffer fromBufferedImage(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        RasterBuffer raster = new RasterBuffer(width, height);
+        image.getRGB(0, 0, width, height, raster.pixels, 0, width);
+        return raster;
+    }
+
+    /**
+     * Converts this raster into a new JavaFX image for display.
+     *
+     * @return A WritableImage holding a copy of the pixels
+     */
+    public WritableImage toImage() {
+        WritableImage image = new WritableImage(width, height);
+        writeTo(image);
+        return image;
+    }
+
+    /**
+     * Copies this raster into an existing image of the same size.
+     *
+     * @param image The destination image
+     */
+    public void writeTo(WritableImage image) {
+        image.getPixelWriter().setPixels(0, 0, width, height,
+                PixelFormat.getIntArgbInstance(), pixels, offset, stride);
+    }
+
+    /**
+     * Creates a compact deep copy of this raster (stride equal to width).
+     *
+     * @return A new raster with the same pixels
+     */
+    public RasterBuffer copy() {
+        RasterBuffer copy = new RasterBuffer(width, height);
+        if (offset == 0 && stride == width) {
+            System.arraycopy(pixels, 0, copy.pixels, 0, width * height);
+        } else {
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(pixels, offset + y * stride, copy.pixels, y * width, width);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Sets every pixel to the given colour.
+     *
+     * @param argb The packed ARGB colour
+     */
+    public void fill(int argb) {
+        if (offset == 0 && stride == width) {
+            Arrays.fill(pixels, 0, width * height, argb);
+        } else {
+            for (int y = 0; y < height; y++) {
+                int row = offset + y * stride;
+                Arrays.fill(pixels, row, row + width, argb);
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Returns the backing array. Writes through it are visible in this raster.
+     *
+     * @return The packed ARGB pixel array
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The array index of pixel (x, y)
+     */
+    public int index(int x, int y) {
+        return offset + y * stride + x;
+    }
+
+    /**
+     * @return True if (x, y) lies inside the raster
+     */
+    public boolean contains(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    /**
+     * @return The packed ARGB value of pixel (x, y)
+     */
+    public int get(int x, int y) {
+        return pixels[offset + y * stride + x];
+    }
+
+    /**
+     * Sets pixel (x, y) to the given packed ARGB value.
+     */
+    public void set(int x, int y, int argb) {
+        pixels[offset + y * stride + x] = argb;
+    }
+
+    /**
+     * A 64-bit hash of the size and every pixel, for recognising the same image again
+     * (e.g. as a cache key). Equal pixels give equal hashes whatever the offset and stride.
+     *
+     * @return The content hash
+     */
+    public long contentHash() {
+        long hash = 0x9E3779B97F4A7C15L * (((long) width << 32) | height);
+        for (int y = 0; y < height; y++) {
+            int row = offset + y * stride;
+            for (int x = 0; x < width; x++) {
+                hash = (hash ^ pixels[row + x]) * 0x100000001B3L;
+            }
+        }
+        // Final mix so that nearby images don't give nearby hashes
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    // Channel helpers (0 - 255)
+
+    public static int alpha(int argb) {
+        return argb >>> 24;
+    }
+
+    public static int red(int argb) {
+        return (argb >> 16) & 0xFF;
+    }
+
+    public static int green(int argb) {
+        return (argb >> 8) & 0xFF;
+    }
+
+    public static int blue(int argb) {
+        return argb & 0xFF;
+    }
+
+    /**
+     * Packs four 0 - 255 channel values into a single ARGB int.
+     */
+    public static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Packs an opaque colour from three 0 - 255 channel values.
+     */
+    public static int rgb(int red, int green, int blue) {
+        return argb(0xFF, red, green, blue);
+    }
+
+    /**
+     * Packs a JavaFX colour, rounding each channel the same way the PixelWriter does.
+     *
+     * @param color The colour to pack
+     * @return The packed ARGB value
+     */
+    public static int argb(Color color) {
+        return argb((int) Math.round(color.getOpacity() * 255.0),
+                (int) Math.round(color.getRed() * 255.0),
+                (int) Math.round(color.getGreen() * 255.0),
+                (int) Math.round(color.getBlue() * 255.0));
+    }
+
+    private static int checkedArea(int width, int height) {
+        long area = (long) width * height;
+        if (width < 0 || height < 0 || area > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Raster too large: " + width + "x" + height);
+        }
+        return (int) area;
+    }
+}
@@ -0,0 +1,228 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * Keeps decoded images on disk, so a slide that is opened again is read back as raw pixels
+ * instead of being decoded from JPEG or PNG again.
+ * <p>
+ * Each entry is one file in the cache directory, named after a hash of the image's absolute
+ * path: a 32 byte header (magic, version, width, height, and the size and modification time
+ * of the image file) followed by the packed ARGB pixels, row by row, in native byte order.
+ * An entry is only used if the size and modification time in its header still match the
+ * image file, so an edited image is decoded again and its entry replaced. Entries are read
+ * through {@link FileChannel#map} and copied with one bulk copy into a new raster, so a 40 MP
+ * slide that was opened recently loads in a fraction of the decode time. That one copy is
+ * deliberate: every processor works on the int array of a {@link RasterBuffer}, which a
+ * mapped file can't back, so a hit allocates the same heap raster a decode would, but none
+ * of the decoder's buffers.
+ * <p>
+ * The directory is capped at a total size. Reading an entry touches its modification time,
+ * and storing one deletes the least recently used entries until the directory fits again.
+ * Any I/O problem just means a miss: the image is decoded as if there were no cache.
+ * Safe to use from several threads, and from several processes sharing the directory.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class RasterCache {
+
+    private static final int MAGIC = 0x52415354; // "RAST"
+    private static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    private static final String SUFFIX = ".raster";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * @param directory Where to keep the entries; created if it doesn't exist
+     * @param maxBytes  The most bytes of entries to keep
+     */
+    public RasterCache(Path directory, long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return The cache in the user's home directory, capped at 4 GB
+     */
+    public static RasterCache defaultCache() {
+        return new RasterCache(Path.of(System.getProperty("user.home"), ".imageanalysis", "raster-cache"),
+                4L << 30);
+    }
+
+    /**
+     * Reads the decoded pixels of an image file, if they are cached and the file hasn't
+     * changed since.
+     *
+     * @param file The image file
+     * @return A new raster with a copy of the pixels, or null on a miss
+     */
+    public RasterBuffer get(Path file) {
+        Path entry = entryFor(file);
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            mapped.order(ByteOrder.nativeOrder());
+            int width = mapped.getInt(8);
+            int height = mapped.getInt(12);
+            if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION
+                    || mapped.getLong(16) != Files.size(file)
+                    || mapped.getLong(24) != Files.getLastModifiedTime(file).toMillis()
+                    || length != HEADER_BYTES + 4L * width * height) {
+                return null; // Stale or foreign; replaced by the next put
+            }
+
+            RasterBuffer raster = new RasterBuffer(width, height);
+            IntBuffer pixels = mapped.position(HEADER_BYTES).slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+            pixels.get(raster.getPixels(), 0, width * height);
+
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return raster;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the decoded pixels of an image file, then evicts the least recently used
+     * entries if the cache is over its limit. A raster larger than the limit is not stored.
+     *
+     * @param file   The image file the pixels were decoded from
+     * @param raster The decoded pixels
+     */
+    public void put(Path file, RasterBuffer raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        long length = HEADER_BYTES + 4L * width * height;
+        if (length > maxBytes) {
+            return;
+        }
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            long fileSize = Files.size(file);
+            long modified = Files.getLastModifiedTime(file).toMillis();
+
+            // Write to a temporary file and move it into place, so readers never see half an entry
+            temp = Files.createTempFile(directory, "entry", ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+                mapped.order(ByteOrder.nativeOrder());
+                mapped.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height)
+                        .putLong(fileSize).putLong(modified);
+                IntBuffer pixels = mapped.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+                int[] source = raster.getPixels();
+                for (int y = 0; y < height; y++) {
+                    pixels.put(source, raster.index(0, y), width);
+                }
+                mapped.force();
+            }
+            Files.move(temp, entryFor(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            evict();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not cache " + file + ": " + e);
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // Left for the next eviction
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the directory fits its limit.
+     */
+    private synchronized void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(entries::add);
+        }
+        long total = 0;
+        List<long[]> info = new ArrayList<>(entries.size()); // size, last used, index
+        for (int i = 0; i < entries.size(); i++) {
+            try {
+                long size = Files.size(entries.get(i));
+                total += size;
+                info.add(new long[] {size, Files.getLastModifiedTime(entries.get(i)).toMillis(), i});
+            } catch (IOException e) {
+                // Deleted meanwhile
+            }
+        }
+        info.sort(Comparator.comparingLong(entry -> entry[1]));
+        for (int i = 0; i < info.size() && total > maxBytes; i++) {
+            try {
+                Files.deleteIfExists(entries.get((int) info.get(i)[2]));
+                total -= info.get(i)[0];
+            } catch (IOException e) {
+                // In use elsewhere (e.g. still mapped on Windows); try the next one
+            }
+        }
+    }
+
+    /**
+     * Deletes every entry.
+     */
+    public synchronized void clear() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                Files.deleteIfExists(entry);
+            }
+        }
+    }
+
+    /**
+     * @param file An image file
+     * @return The cache file for it, named by a hash of the absolute path
+     */
+    Path entryFor(Path file) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(file.toAbsolutePath().normalize().toString()
+                    .getBytes(StandardCharsets.UTF_8));
+            return directory.resolve(HexFormat.of().formatHex(hash, 0, 16) + SUFFIX);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
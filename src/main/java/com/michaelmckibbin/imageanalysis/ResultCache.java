@@ -0,0 +1,138 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps processing results in memory, so going back to a processor or to settings that were
+ * already used shows the result again without recomputing it.
+ * <p>
+ * A result is keyed by the image content (a hash of its pixels), the processor instance and
+ * every processing parameter. The cache is bounded by the total size of the results in bytes
+ * rather than by their number, since one result for a 40 MP slide is 160 MB and one for a
+ * preview is a few MB. When it is over the limit, the least recently used results are dropped.
+ * A single result larger than the limit is not stored at all.
+ * <p>
+ * All methods are thread safe; results are looked up and stored on the processing thread.
+ *
+ * @param <V> The type of result
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class ResultCache<V> {
+
+    /**
+     * The identity of a result.
+     *
+     * @param imageHash  {@link RasterBuffer#contentHash()} of the processed image
+     * @param processor  The processor, compared by identity
+     * @param parameters {@link ProcessingParameters#toKey()}
+     */
+    public record Key(long imageHash, ImageProcessor processor, List<Double> parameters) {
+
+        public static Key of(long imageHash, ImageProcessor processor, ProcessingParameters params) {
+            return new Key(imageHash, processor, params.toKey());
+        }
+    }
+
+    private final long maxBytes;
+    private final ToLongFunction<? super V> sizeOf;
+    private final Map<Key, V> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+
+    private long bytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param maxBytes The most bytes of results to keep
+     * @param sizeOf   Estimates the size of a result in bytes
+     */
+    public ResultCache(long maxBytes, ToLongFunction<? super V> sizeOf) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.maxBytes = maxBytes;
+        this.sizeOf = sizeOf;
+    }
+
+    /**
+     * @param key The result identity
+     * @return The cached result, or null if there is none
+     */
+    public synchronized V get(Key key) {
+        V value = entries.get(key);
+        if (value != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return value;
+    }
+
+    /**
+     * Stores a result, replacing any result with the same key, and drops the least recently
+     * used results until the cache fits its limit again.
+     *
+     * @param key   The result identity
+     * @param value The result; it must not be changed afterwards
+     */
+    public synchronized void put(Key key, V value) {
+        long size = sizeOf.applyAsLong(value);
+        V old = entries.remove(key);
+        if (old != null) {
+            bytes -= sizeOf.applyAsLong(old);
+        }
+        if (size > maxBytes) {
+            return;
+        }
+        entries.put(key, value);
+        bytes += size;
+
+        Iterator<V> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= sizeOf.applyAsLong(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops every result, e.g. when a new image is loaded. The counters are kept.
+     */
+    public synchronized void invalidate() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The estimated size of the cached results in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ResultCache[%d results, %d / %d MB, %d hits, %d misses]",
+                entries.size(), bytes >> 20, maxBytes >> 20, hits, misses);
+    }
+}
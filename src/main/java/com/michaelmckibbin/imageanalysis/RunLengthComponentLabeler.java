@@ -0,0 +1,183 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.util.Arrays;
+
+/**
+ * Connected component labelling over horizontal runs instead of pixels.
+ * <p>
+ * Each row is cut into runs of consecutive pixels of the same class. Runs on adjacent rows
+ * are joined when they overlap (or touch at a corner, with 8-connectivity), which a two
+ * pointer sweep over the two rows finds without looking at individual pixels. The
+ * UnionFind is therefore sized by the number of runs, not the number of pixels, and on a
+ * smear that is mostly background that is a small fraction of the image.
+ * <p>
+ * Component statistics can be built straight from the runs with
+ * {@link #labelStats(byte[], int, int, int[], ComponentStats, RasterBuffer)}: area, bounding
+ * box and centroid come from the run lengths and ends, and only foreground pixels are read
+ * for the colour sums. In that case no label image is needed at all. The labels written by
+ * {@link #label(byte[], int, int, int, int[])} are the same canonical labels as the other engines.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class RunLengthComponentLabeler implements ComponentLabeler {
+    private final Connectivity connectivity;
+    private final UnionFind uf = new UnionFind();
+
+    // The runs, in raster order. Grown as needed and kept between calls.
+    private int[] runY = new int[0];
+    private int[] runStart = new int[0];
+    private int[] runEnd = new int[0];   // one past the last pixel
+    private byte[] runClass = new byte[0];
+    private int[] runLabel = new int[0]; // canonical label of each run
+    private int runCount;
+
+    /** Index of the first run of each row, plus one entry for the end */
+    private int[] rowFirstRun = new int[0];
+
+    public RunLengthComponentLabeler(Connectivity connectivity) {
+        this.connectivity = connectivity;
+    }
+
+    @Override
+    public int label(byte[] classes, int offset, int width, int height, int[] labels) {
+        int count = labelRuns(classes, offset, width, height);
+
+        // Paint the runs into the label image
+        Arrays.fill(labels, offset, offset + width * height, 0);
+        for (int r = 0; r < runCount; r++) {
+            int row = offset + runY[r] * width;
+            Arrays.fill(labels, row + runStart[r], row + runEnd[r], runLabel[r]);
+        }
+        return count;
+    }
+
+    /**
+     * Fills the statistics directly from the runs. The label image is only written when
+     * labels is not null.
+     */
+    @Override
+    public int labelStats(byte[] classes, int width, int height, int[] labels,
+                          ComponentStats stats, RasterBuffer source) {
+        int count = labels != null
+                ? label(classes, 0, width, height, labels)
+                : labelRuns(classes, 0, width, height);
+        stats.reset(count);
+        for (int r = 0; r < runCount; r++) {
+            stats.addRun(runLabel[r], runY[r], runStart[r], runEnd[r], runClass[r], source);
+        }
+        return count;
+    }
+
+    @Override
+    public Connectivity getConnectivity() {
+        return connectivity;
+    }
+
+    /**
+     * @return The number of runs found by the last labelling
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * Finds the runs, joins the ones that touch, and gives every run its canonical label.
+     *
+     * @return The number of components
+     */
+    private int labelRuns(byte[] classes, int offset, int width, int height) {
+        extractRuns(classes, offset, width, height);
+        connectRuns(height);
+
+        // Runs are in raster order, so the first run seen for a root holds the
+        // component's first pixel
+        if (runLabel.length < runCount) {
+            runLabel = new int[runY.length];
+        }
+        int[] rootLabel = runLabel; // runLabel[root] doubles as the lookup, as in PixelComponentLabeler
+        Arrays.fill(rootLabel, 0, runCount, 0);
+        int next = 0;
+        for (int r = 0; r < runCount; r++) {
+            int root = uf.find(r);
+            if (rootLabel[root] == 0) {
+                rootLabel[root] = ++next;
+            }
+            runLabel[r] = rootLabel[root];
+        }
+        return next;
+    }
+
+    /**
+     * Cuts every row into runs of consecutive pixels with the same non-zero class.
+     */
+    private void extractRuns(byte[] classes, int offset, int width, int height) {
+        if (rowFirstRun.length < height + 1) {
+            rowFirstRun = new int[height + 1];
+        }
+        runCount = 0;
+        for (int y = 0; y < height; y++) {
+            rowFirstRun[y] = runCount;
+            int row = offset + y * width;
+            int x = 0;
+            while (x < width) {
+                byte c = classes[row + x];
+                if (c == CellClass.BACKGROUND) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                do {
+                    x++;
+                } while (x < width && classes[row + x] == c);
+                addRun(y, start, x, c);
+            }
+        }
+        rowFirstRun[height] = runCount;
+    }
+
+    private void addRun(int y, int start, int end, byte c) {
+        if (runCount == runY.length) {
+            int capacity = Math.max(256, runY.length + (runY.length >> 1));
+            runY = Arrays.copyOf(runY, capacity);
+            runStart = Arrays.copyOf(runStart, capacity);
+            runEnd = Arrays.copyOf(runEnd, capacity);
+            runClass = Arrays.copyOf(runClass, capacity);
+        }
+        runY[runCount] = y;
+        runStart[runCount] = start;
+        runEnd[runCount] = end;
+        runClass[runCount] = c;
+        runCount++;
+    }
+
+    /**
+     * Unions runs of the same class that touch on adjacent rows.
+     * For each run, the runs above are swept from the first one that can still reach it,
+     * so each row pair is visited in linear time.
+     */
+    private void connectRuns(int height) {
+        uf.reset(runCount);
+        // With 8-connectivity, runs that only touch at a corner are connected too
+        int slack = connectivity == Connectivity.EIGHT ? 1 : 0;
+        for (int y = 1; y < height; y++) {
+            int above = rowFirstRun[y - 1];
+            int aboveEnd = rowFirstRun[y];
+            int rowEnd = rowFirstRun[y + 1];
+            for (int r = aboveEnd; r < rowEnd; r++) {
+                int start = runStart[r];
+                int end = runEnd[r];
+                // Skip runs above that end before this one (or any later one) starts
+                while (above < aboveEnd && runEnd[above] + slack <= start) {
+                    above++;
+                }
+                for (int a = above; a < aboveEnd && runStart[a] < end + slack; a++) {
+                    if (runClass[a] == runClass[r]) {
+                        uf.union(a, r);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.michaelmckibbin.imageanalysis;
+
+/**
+ * The reference {@link PixelKernels}: one pixel at a time, in doubles.
+ * VectorPixelKernels must match these results exactly.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public final class ScalarPixelKernels implements PixelKernels {
+
+    static final ScalarPixelKernels INSTANCE = new ScalarPixelKernels();
+
+    private ScalarPixelKernels() {
+    }
+
+    @Override
+    public void threshold(int[] in, int inPos, int[] out, int outPos, int length,
+                          double rgbAdjustment, double threshold, int above, int below) {
+        for (int i = 0; i < length; i++) {
+            int argb = in[inPos + i];
+
+            // Luminance weighted by human perception (see BlackAndWhiteProcessor)
+            double luminance = (0.299 * (RasterBuffer.red(argb) / 255.0) +
+                               0.587 * (RasterBuffer.green(argb) / 255.0) +
+                               0.114 * (RasterBuffer.blue(argb) / 255.0));
+
+            // Apply RGB adjustment
+            luminance *= rgbAdjustment;
+
+            out[outPos + i] = (luminance > threshold) ? above : below;
+        }
+    }
+
+    @Override
+    public void tricolour(int[] in, int inPos, int[] out, int outPos, int length,
+                          double brightness, int purple, int pink, int background) {
+        for (int i = 0; i < length; i++) {
+            int argb = in[inPos + i];
+            byte cellClass = tricolourClass(RasterBuffer.red(argb), RasterBuffer.green(argb),
+                    RasterBuffer.blue(argb), brightness);
+            out[outPos + i] = switch (cellClass) {
+                case CellClass.WHITE_CELL -> purple;
+                case CellClass.RED_CELL -> pink;
+                default -> background;
+            };
+        }
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * The tricolour first pass detection rule for one colour.
+     * Purple intensity is (red + blue) / 2 - green, plus the brightness offset. Above 0.15 the
+     * pixel is a cell: a white cell if it is dark (HSB brightness under 0.6) and blue is the
+     * strongest channel, otherwise a red cell.
+     *
+     * @param r          Red, 0 - 255
+     * @param g          Green, 0 - 255
+     * @param b          Blue, 0 - 255
+     * @param brightness The purple intensity offset
+     * @return WHITE_CELL for deep purple, RED_CELL for pink, BACKGROUND otherwise
+     */
+    public static byte tricolourClass(int r, int g, int b, double brightness) {
+        double red = r / 255.0;
+        double green = g / 255.0;
+        double blue = b / 255.0;
+
+        // detection logic
+        double purpleIntensity = (red + blue) / 2.0 - green;
+        purpleIntensity += brightness;
+
+        if (purpleIntensity > 0.15) {
+            // HSB brightness is the largest of the three channels
+            if (Math.max(r, Math.max(g, b)) / 255.0 < 0.6 &&
+                b > r &&
+                b > g) {
+                return CellClass.WHITE_CELL;
+            }
+            return CellClass.RED_CELL;
+        }
+        return CellClass.BACKGROUND;
+    }
+}
@@ -0,0 +1,293 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Labels the cell components of an image in a single top-to-bottom pass, holding only a band
+ * of rows at a time, for runs that only need the cells and not a processed image.
+ * <p>
+ * Bands of rows are read from a {@link TileSource} (with an {@link ImageFileTileSource}, each
+ * band is decoded with ImageReadParam.setSourceRegion) and classified with a
+ * {@link ColourClassLut}. Each row is split into runs of pixels of the same non-background
+ * class, and a run joins every run of the previous row with the same class that it touches
+ * (sharing a column, or also diagonally with eight connectivity). Components live in a table
+ * of slots with a union-find over them, holding area, bounding box, class and first pixel.
+ * <p>
+ * When a row is done, any component with no run in it can't grow any more, so it is handed
+ * to the consumer straight away and its slot (like the slots of components merged into
+ * others) goes back on a free list for reuse. Only the runs of the previous row and the
+ * active components are kept, so memory is O(width + active components) plus one band,
+ * whatever the height of the image.
+ * <p>
+ * Components arrive in the order they finish (by their last row), not in raster order.
+ * A labeler is not thread safe; use one per thread.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class StreamingCellLabeler {
+
+    public static final int DEFAULT_BAND_HEIGHT = 64;
+
+    /**
+     * A finished component.
+     *
+     * @param cellClass  The {@link CellClass} of its pixels
+     * @param area       The number of pixels
+     * @param minX       The bounding box, inclusive
+     * @param minY       The bounding box, inclusive
+     * @param maxX       The bounding box, inclusive
+     * @param maxY       The bounding box, inclusive
+     * @param firstPixel Row-major index of its top-left most pixel
+     */
+    public record Component(byte cellClass, long area, int minX, int minY, int maxX, int maxY,
+                            long firstPixel) {
+    }
+
+    private final ColourClassLut lut;
+    private final Connectivity connectivity;
+    private int bandHeight = DEFAULT_BAND_HEIGHT;
+
+    // Runs of the previous and current row: start, end (exclusive), slot
+    private int[] previousRuns = new int[0];
+    private int[] currentRuns = new int[0];
+    private int previousCount;
+    private int currentCount;
+
+    // Component slots
+    private int[] parent = new int[0];
+    private long[] area = new long[0];
+    private int[] minX = new int[0];
+    private int[] minY = new int[0];
+    private int[] maxX = new int[0];
+    private int[] maxY = new int[0];
+    private long[] firstPixel = new long[0];
+    private byte[] cellClass = new byte[0];
+    private int[] mark = new int[0];        // Row in which a slot was last found live or emitted
+    private int slots;                      // Slots ever handed out
+    private int[] free = new int[0];        // Free list of slots
+    private int freeCount;
+    private int[] merged = new int[0];      // Slots merged into another root during this row
+    private int mergedCount;
+
+    /**
+     * @param lut          Classifies the pixels into {@link CellClass} codes
+     * @param connectivity Which neighbours join a component
+     */
+    public StreamingCellLabeler(ColourClassLut lut, Connectivity connectivity) {
+        this.lut = lut;
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * @param bandHeight The number of rows read from the source at a time
+     */
+    public void setBandHeight(int bandHeight) {
+        if (bandHeight < 1) {
+            throw new IllegalArgumentException("Band height must be at least 1");
+        }
+        this.bandHeight = bandHeight;
+    }
+
+    public int getBandHeight() {
+        return bandHeight;
+    }
+
+    /**
+     * @return How many component slots the last run needed at most, for testing the memory bound
+     */
+    int getSlotsUsed() {
+        return slots;
+    }
+
+    /**
+     * Labels an image, handing every component to the consumer as soon as it is finished.
+     *
+     * @param source     The image, read a band of rows at a time
+     * @param components Receives the finished components
+     * @throws IOException If a band can't be read
+     */
+    public void label(TileSource source, Consumer<Component> components) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        reset(width);
+        byte[] classes = new byte[width];
+
+        for (int bandY = 0; bandY < height; bandY += bandHeight) {
+            ImageProcessor.checkCancelled();
+            int rows = Math.min(bandHeight, height - bandY);
+            RasterBuffer band = source.readTile(0, bandY, width, rows);
+            int[] pixels = band.getPixels();
+            for (int row = 0; row < rows; row++) {
+                lut.classify(pixels, band.index(0, row), width, classes, 0);
+                labelRow(classes, width, bandY + row, components);
+            }
+        }
+        // Past the last row every component is finished
+        currentCount = 0;
+        finishRow(height, components);
+    }
+
+    private void reset(int width) {
+        // Neighbouring runs can differ only in class, so a row has up to width runs
+        previousRuns = new int[3 * width];
+        currentRuns = new int[3 * width];
+        previousCount = 0;
+        currentCount = 0;
+        slots = 0;
+        freeCount = 0;
+        mergedCount = 0;
+        ensureSlots(Math.max(16, width));
+    }
+
+    /**
+     * Splits a row into runs, joins them to the touching runs of the previous row, then
+     * finishes the components that didn't continue into it.
+     */
+    private void labelRow(byte[] classes, int width, int y, Consumer<Component> components) {
+        int reach = connectivity == Connectivity.EIGHT ? 1 : 0;
+        currentCount = 0;
+        int p = 0; // Next run of the previous row that may still touch
+        int x = 0;
+        while (x < width) {
+            byte cls = classes[x];
+            if (cls == CellClass.BACKGROUND) {
+                x++;
+                continue;
+            }
+            int start = x;
+            while (x < width && classes[x] == cls) {
+                x++;
+            }
+            int end = x;
+
+            // Previous runs ending before this one starts (minus the diagonal) can't touch it
+            // or any later run
+            while (p < previousCount && previousRuns[3 * p + 1] + reach <= start) {
+                p++;
+            }
+            int slot = -1;
+            for (int q = p; q < previousCount && previousRuns[3 * q] < end + reach; q++) {
+                int other = find(previousRuns[3 * q + 2]);
+                if (cellClass[other] != cls) {
+                    continue;
+                }
+                slot = slot < 0 ? other : union(slot, other);
+            }
+            if (slot < 0) {
+                slot = newSlot(cls, y, (long) y * width + start);
+            }
+            area[slot] += end - start;
+            minX[slot] = Math.min(minX[slot], start);
+            maxX[slot] = Math.max(maxX[slot], end - 1);
+            maxY[slot] = Math.max(maxY[slot], y);
+
+            int r = 3 * currentCount++;
+            currentRuns[r] = start;
+            currentRuns[r + 1] = end;
+            currentRuns[r + 2] = slot;
+        }
+        finishRow(y, components);
+    }
+
+    /**
+     * Emits and frees the components of the previous row that have no run in the current row,
+     * frees the merged slots, and makes the current row the previous one.
+     */
+    private void finishRow(int y, Consumer<Component> components) {
+        int stamp = y + 1; // 0 is the initial mark of every slot
+        for (int i = 0; i < currentCount; i++) {
+            int root = find(currentRuns[3 * i + 2]);
+            currentRuns[3 * i + 2] = root;
+            mark[root] = stamp;
+        }
+        for (int i = 0; i < previousCount; i++) {
+            int root = find(previousRuns[3 * i + 2]);
+            if (mark[root] != stamp) {
+                mark[root] = stamp;
+                components.accept(new Component(cellClass[root], area[root],
+                        minX[root], minY[root], maxX[root], maxY[root], firstPixel[root]));
+                free[freeCount++] = root;
+            }
+        }
+        for (int i = 0; i < mergedCount; i++) {
+            free[freeCount++] = merged[i];
+        }
+        mergedCount = 0;
+
+        int[] swap = previousRuns;
+        previousRuns = currentRuns;
+        currentRuns = swap;
+        previousCount = currentCount;
+    }
+
+    private int newSlot(byte cls, int y, long first) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            ensureSlots(slots + 1);
+            slot = slots++;
+        }
+        parent[slot] = slot;
+        area[slot] = 0;
+        minX[slot] = Integer.MAX_VALUE;
+        maxX[slot] = Integer.MIN_VALUE;
+        minY[slot] = y;
+        maxY[slot] = Integer.MIN_VALUE;
+        firstPixel[slot] = first;
+        cellClass[slot] = cls;
+        mark[slot] = 0;
+        return slot;
+    }
+
+    private void ensureSlots(int needed) {
+        if (needed <= parent.length) {
+            return;
+        }
+        int capacity = Math.max(needed, 2 * parent.length);
+        parent = Arrays.copyOf(parent, capacity);
+        area = Arrays.copyOf(area, capacity);
+        minX = Arrays.copyOf(minX, capacity);
+        minY = Arrays.copyOf(minY, capacity);
+        maxX = Arrays.copyOf(maxX, capacity);
+        maxY = Arrays.copyOf(maxY, capacity);
+        firstPixel = Arrays.copyOf(firstPixel, capacity);
+        cellClass = Arrays.copyOf(cellClass, capacity);
+        mark = Arrays.copyOf(mark, capacity);
+        free = Arrays.copyOf(free, capacity);
+        merged = Arrays.copyOf(merged, capacity);
+    }
+
+    private int find(int slot) {
+        while (parent[slot] != slot) {
+            parent[slot] = parent[parent[slot]]; // Path halving
+            slot = parent[slot];
+        }
+        return slot;
+    }
+
+    /**
+     * Joins two roots, keeping the one with the earlier first pixel.
+     *
+     * @return The root of the joined component
+     */
+    private int union(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        int root = firstPixel[a] <= firstPixel[b] ? a : b;
+        int child = root == a ? b : a;
+        parent[child] = root;
+        area[root] += area[child];
+        minX[root] = Math.min(minX[root], minX[child]);
+        minY[root] = Math.min(minY[root], minY[child]);
+        maxX[root] = Math.max(maxX[root], maxX[child]);
+        maxY[root] = Math.max(maxY[root], maxY[child]);
+        merged[mergedCount++] = child;
+        return root;
+    }
+}
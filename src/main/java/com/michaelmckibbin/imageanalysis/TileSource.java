@@ -0,0 +1,62 @@
+package com.michaelmckibbin.imageanalysis;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An image that is read a rectangle at a time, so an image too large for one
+ * {@link RasterBuffer} (or for int pixel indices) can still be processed tile by tile.
+ * See {@link TiledCellDetector} and {@link ImageFileTileSource}.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public interface TileSource extends Closeable {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads a rectangle of the image. The rectangle lies inside the image.
+     *
+     * @param x      The left of the rectangle
+     * @param y      The top of the rectangle
+     * @param width  The width of the rectangle
+     * @param height The height of the rectangle
+     * @return The pixels of the rectangle; only valid until the next call
+     * @throws IOException If the pixels can't be read
+     */
+    RasterBuffer readTile(int x, int y, int width, int height) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    /**
+     * Reads tiles out of a raster that is already in memory, as views without copying.
+     *
+     * @param raster The image
+     * @return A source of views on the raster
+     */
+    static TileSource of(RasterBuffer raster) {
+        return new TileSource() {
+            @Override
+            public int getWidth() {
+                return raster.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return raster.getHeight();
+            }
+
+            @Override
+            public RasterBuffer readTile(int x, int y, int width, int height) {
+                return new RasterBuffer(raster.getPixels(), width, height,
+                        raster.index(x, y), raster.getStride());
+            }
+        };
+    }
+}
@@ -0,0 +1,380 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.shape.Rectangle;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Detects cells in an image one tile at a time, so whole-slide scans that don't fit in memory
+ * (or overflow int pixel indices) can be processed with memory bounded by the tile size.
+ * <p>
+ * Tiles are read from a {@link TileSource} in raster order. Each one is classified with a
+ * {@link ColourClassLut} and labelled on its own by a {@link ComponentLabeler}, and every
+ * tile component gets a global id in a growable union-find that holds its area, bounding box,
+ * class and first pixel. Components that cross a tile border are then stitched through a
+ * one pixel overlap: the global labels of the row just above the tile (kept for the full
+ * width) and of the column just left of it (kept from the previous tile). Each pixel on the
+ * tile's top and left edges is merged with its already labelled neighbours there, four or
+ * eight of them depending on the labeler's connectivity, when they have the same class.
+ * <p>
+ * A component that isn't referenced by the overlap any more can't grow, so it is complete.
+ * After every row of tiles (and within a row when many components have piled up), the
+ * union-find is compacted: complete components become cells if they are within the size
+ * limits, and only the components still touching the overlap are kept, renumbered. Apart from
+ * the current tile, memory is therefore one row of labels for the slide width plus the
+ * components crossing it, never the area of the slide. Pixel positions are longs, so slides
+ * with more than 2^31 pixels are fine as long as each side fits in an int.
+ * <p>
+ * The cells are the same, and in the same order (raster order of each cell's first pixel), as
+ * when the whole image is labelled at once.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+public class TiledCellDetector {
+
+    public static final int DEFAULT_TILE_SIZE = 2048;
+
+    private final ColourClassLut lut;
+    private final ComponentLabeler labeler;
+    private final int tileSize;
+
+    /**
+     * A cell found by the detector, with its first pixel for ordering.
+     */
+    private record Cell(long firstPixel, Rectangle bounds) {
+    }
+
+    /**
+     * @param lut      Classifies the pixels into {@link CellClass} codes
+     * @param labeler  Labels the components of each tile; also sets the connectivity
+     * @param tileSize The width and height of the tiles, in pixels
+     */
+    public TiledCellDetector(ColourClassLut lut, ComponentLabeler labeler, int tileSize) {
+        if (tileSize < 1 || (long) tileSize * tileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid tile size: " + tileSize);
+        }
+        this.lut = lut;
+        this.labeler = labeler;
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Detects the white and red cells of an image.
+     *
+     * @param source      The image, read one tile at a time
+     * @param minCellSize The smallest cell area, in pixels
+     * @param maxCellSize The largest cell area, in pixels
+     * @return The cells of both types, in raster order of their first pixel
+     * @throws IOException If a tile can't be read
+     */
+    public CellDetectionResult detect(TileSource source, int minCellSize, int maxCellSize) throws IOException {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        boolean eight = labeler.getConnectivity() == Connectivity.EIGHT;
+
+        byte[] classes = new byte[tileSize * tileSize];
+        int[] labels = new int[tileSize * tileSize];
+        int[] above = new int[width];     // Global ids of the row above the tile row, 0 for none
+        int[] below = new int[width];     // Global ids of the bottom row of this tile row
+        int[] left = new int[tileSize];   // Global ids of the column left of the tile
+        Components components = new Components(width + tileSize);
+        long compactAt = 2L * width + 2L * tileSize * tileSize;
+
+        List<Cell> whiteCells = new ArrayList<>();
+        List<Cell> redCells = new ArrayList<>();
+        Components.Sink sink = (id, c) -> {
+            long area = c.area[id];
+            if (area >= minCellSize && area <= maxCellSize) {
+                Rectangle bounds = new Rectangle(c.minX[id], c.minY[id],
+                        c.maxX[id] - c.minX[id], c.maxY[id] - c.minY[id]);
+                Cell cell = new Cell(c.firstPixel[id], bounds);
+                if (c.cellClass[id] == CellClass.WHITE_CELL) {
+                    whiteCells.add(cell);
+                } else if (c.cellClass[id] == CellClass.RED_CELL) {
+                    redCells.add(cell);
+                }
+            }
+        };
+
+        for (int ty = 0; ty < height; ty += tileSize) {
+            int th = Math.min(tileSize, height - ty);
+            for (int tx = 0; tx < width; tx += tileSize) {
+                ImageProcessor.checkCancelled();
+                int tw = Math.min(tileSize, width - tx);
+
+                // Classify and label the tile on its own
+                RasterBuffer tile = source.readTile(tx, ty, tw, th);
+                int[] pixels = tile.getPixels();
+                for (int y = 0; y < th; y++) {
+                    lut.classify(pixels, tile.index(0, y), tw, classes, y * tw);
+                }
+                int count = labeler.label(classes, tw, th, labels);
+
+                // Give the tile's components global ids (base + label) and their statistics
+                int base = components.add(count);
+                for (int y = 0; y < th; y++) {
+                    int p = y * tw;
+                    for (int x = 0; x < tw; x++) {
+                        int label = labels[p + x];
+                        if (label != 0) {
+                            components.addPixel(base + label, tx + x, ty + y, width, classes[p + x]);
+                        }
+                    }
+                }
+
+                // Stitch the top edge to the row above, and the left edge to the tile before
+                if (ty > 0) {
+                    for (int x = 0; x < tw; x++) {
+                        int label = labels[x];
+                        if (label != 0) {
+                            int id = base + label;
+                            int gx = tx + x;
+                            components.join(id, above[gx]);
+                            if (eight) {
+                                if (gx > 0) components.join(id, above[gx - 1]);
+                                if (gx < width - 1) components.join(id, above[gx + 1]);
+                            }
+                        }
+                    }
+                }
+                if (tx > 0) {
+                    for (int y = 0; y < th; y++) {
+                        int label = labels[y * tw];
+                        if (label != 0) {
+                            int id = base + label;
+                            components.join(id, left[y]);
+                            if (eight) {
+                                if (y > 0) components.join(id, left[y - 1]);
+                                if (y < th - 1) components.join(id, left[y + 1]);
+                            }
+                        }
+                    }
+                }
+
+                // Keep the bottom row and right column as the overlap for the next tiles
+                int bottom = (th - 1) * tw;
+                for (int x = 0; x < tw; x++) {
+                    int label = labels[bottom + x];
+                    below[tx + x] = label != 0 ? base + label : 0;
+                }
+                for (int y = 0; y < th; y++) {
+                    int label = labels[y * tw + tw - 1];
+                    left[y] = label != 0 ? base + label : 0;
+                }
+
+                if (components.size() > compactAt) {
+                    // Everything still in the overlap (or left of the tile, in this row) is live
+                    components.compact(sink, new int[][] {above, below, left},
+                            new int[] {width, tx + tw, th});
+                }
+            }
+
+            int[] swap = above;
+            above = below;
+            below = swap;
+            boolean last = ty + th >= height;
+            components.compact(sink, new int[][] {above}, new int[] {last ? 0 : width});
+        }
+
+        return new CellDetectionResult(toRectangles(whiteCells), toRectangles(redCells));
+    }
+
+    private static List<Rectangle> toRectangles(List<Cell> cells) {
+        cells.sort(Comparator.comparingLong(Cell::firstPixel));
+        List<Rectangle> rectangles = new ArrayList<>(cells.size());
+        for (Cell cell : cells) {
+            rectangles.add(cell.bounds());
+        }
+        return rectangles;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * A union-find over global component ids that grows as tiles are added, with the
+     * statistics of every component kept in its root. Id 0 means no component.
+     */
+    private static final class Components {
+
+        /** Receives a complete component when the union-find is compacted */
+        @FunctionalInterface
+        interface Sink {
+            void accept(int id, Components components);
+        }
+
+        private int size = 1;
+        private int[] parent;
+        private long[] area;
+        private int[] minX;
+        private int[] minY;
+        private int[] maxX;
+        private int[] maxY;
+        private long[] firstPixel;
+        private byte[] cellClass;
+
+        Components(int capacity) {
+            allocate(Math.max(capacity, 16));
+        }
+
+        private void allocate(int capacity) {
+            parent = new int[capacity];
+            area = new long[capacity];
+            minX = new int[capacity];
+            minY = new int[capacity];
+            maxX = new int[capacity];
+            maxY = new int[capacity];
+            firstPixel = new long[capacity];
+            cellClass = new byte[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Adds empty components.
+         *
+         * @param count How many
+         * @return The base: the new ids are base + 1 to base + count
+         */
+        int add(int count) {
+            int base = size - 1;
+            int needed = size + count;
+            if (needed > parent.length) {
+                int capacity = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(needed, 2L * parent.length));
+                parent = Arrays.copyOf(parent, capacity);
+                area = Arrays.copyOf(area, capacity);
+                minX = Arrays.copyOf(minX, capacity);
+                minY = Arrays.copyOf(minY, capacity);
+                maxX = Arrays.copyOf(maxX, capacity);
+                maxY = Arrays.copyOf(maxY, capacity);
+                firstPixel = Arrays.copyOf(firstPixel, capacity);
+                cellClass = Arrays.copyOf(cellClass, capacity);
+            }
+            for (int id = size; id < needed; id++) {
+                parent[id] = id;
+                area[id] = 0;
+            }
+            size = needed;
+            return base;
+        }
+
+        /**
+         * Counts a pixel towards a component. Pixels arrive in raster order within a tile,
+         * so the first one is the component's first pixel.
+         */
+        void addPixel(int id, int x, int y, int width, byte cls) {
+            if (area[id] == 0) {
+                firstPixel[id] = (long) y * width + x;
+                cellClass[id] = cls;
+                minX[id] = maxX[id] = x;
+                minY[id] = maxY[id] = y;
+            } else {
+                minX[id] = Math.min(minX[id], x);
+                maxX[id] = Math.max(maxX[id], x);
+                minY[id] = Math.min(minY[id], y);
+                maxY[id] = Math.max(maxY[id], y);
+            }
+            area[id]++;
+        }
+
+        int find(int id) {
+            while (parent[id] != id) {
+                parent[id] = parent[parent[id]]; // Path halving
+                id = parent[id];
+            }
+            return id;
+        }
+
+        /**
+         * Joins two neighbouring components if both exist and have the same class.
+         */
+        void join(int a, int b) {
+            if (b == 0) {
+                return;
+            }
+            int ra = find(a);
+            int rb = find(b);
+            if (ra == rb || cellClass[ra] != cellClass[rb]) {
+                return;
+            }
+            int root = Math.min(ra, rb);
+            int child = Math.max(ra, rb);
+            parent[child] = root;
+            area[root] += area[child];
+            minX[root] = Math.min(minX[root], minX[child]);
+            minY[root] = Math.min(minY[root], minY[child]);
+            maxX[root] = Math.max(maxX[root], maxX[child]);
+            maxY[root] = Math.max(maxY[root], maxY[child]);
+            firstPixel[root] = Math.min(firstPixel[root], firstPixel[child]);
+        }
+
+        /**
+         * Hands every complete component to the sink and keeps only the live ones,
+         * renumbering the ids in the reference arrays.
+         *
+         * @param sink    Receives the complete components
+         * @param refs    Arrays of ids that are still live
+         * @param lengths How much of each array to look at
+         */
+        void compact(Sink sink, int[][] refs, int[] lengths) {
+            int[] remap = new int[size];
+            Components live = new Components(Math.min(size, lengths.length == 0 ? 16 : sum(lengths) + 1));
+            for (int r = 0; r < refs.length; r++) {
+                int[] ids = refs[r];
+                for (int i = 0; i < lengths[r]; i++) {
+                    if (ids[i] != 0) {
+                        int root = find(ids[i]);
+                        if (remap[root] == 0) {
+                            remap[root] = live.copyOf(this, root);
+                        }
+                        ids[i] = remap[root];
+                    }
+                }
+            }
+            for (int id = 1; id < size; id++) {
+                if (parent[id] == id && remap[id] == 0) {
+                    sink.accept(id, this);
+                }
+            }
+
+            size = live.size;
+            parent = live.parent;
+            area = live.area;
+            minX = live.minX;
+            minY = live.minY;
+            maxX = live.maxX;
+            maxY = live.maxY;
+            firstPixel = live.firstPixel;
+            cellClass = live.cellClass;
+        }
+
+        private int copyOf(Components from, int id) {
+            int copy = add(1) + 1;
+            area[copy] = from.area[id];
+            minX[copy] = from.minX[id];
+            minY[copy] = from.minY[id];
+            maxX[copy] = from.maxX[id];
+            maxY[copy] = from.maxY[id];
+            firstPixel[copy] = from.firstPixel[id];
+            cellClass[copy] = from.cellClass[id];
+            return copy;
+        }
+
+        private static int sum(int[] lengths) {
+            int total = 0;
+            for (int length : lengths) {
+                total += length;
+            }
+            return total;
+        }
+    }
+}
@@ -1,19 +1,15 @@
 package com.michaelmckibbin.imageanalysis;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Platform;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
-import javafx.scene.paint.Color;
-import javafx.util.Duration;
+import javafx.scene.shape.Rectangle;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
-import com.michaelmckibbin.imageanalysis.UnionFind;
 
 /**
  * A blood cell processor that identifies and marks three distinct types of cells based on color.
@@ -36,6 +32,10 @@ import com.michaelmckibbin.imageanalysis.UnionFind;
  * Platelets should be filtered out by size as much as possible.
  * The background should be white.
  *
+ * Both passes work on a byte {@link CellClass} map: the first pass classifies every pixel
+ * once, and the second pass labels and filters the map. The colours are only written at
+ * the end, when an image is wanted, so nothing is read back from the marking colours.
+ *
  * @author Michael McKibbin (20092733)
  * @version 1.0 (2024-02-20)
  *
@@ -54,6 +54,11 @@ public class TricolourBloodProcessor implements ImageProcessor {
         return "Tricolour Blood Analysis";
     }
 
+    /** Packed ARGB colours used to mark each class of pixel */
+    private static final int PURPLE = RasterBuffer.rgb(75, 0, 130);
+    private static final int PINK = RasterBuffer.rgb(219, 112, 147);
+    private static final int WHITE = 0xFFFFFFFF;
+
     @Override
     public Image processImage(Image originalImage, ProcessingParameters params) {
         System.out.println("\n*****************************************************");
@@ -64,182 +69,269 @@ public class TricolourBloodProcessor implements ImageProcessor {
 
         int width = (int) originalImage.getWidth();
         int height = (int) originalImage.getHeight();
+        RasterBuffer source = RasterBuffer.fromImage(originalImage);
 
-        // Create two images: one for initial detection and one for final output
-        WritableImage initialDetection = new WritableImage(width, height);
+        // Filled in on the FX thread when the background work is done
         WritableImage processedImage = new WritableImage(width, height);
-        PixelReader pixelReader = originalImage.getPixelReader();
-        PixelWriter initialWriter = initialDetection.getPixelWriter();
+
+        // Both passes run off the FX thread, the results are handed back with runLater
+        worker().execute(() -> {
+            long start = System.nanoTime();
+            byte[] initial = detectInitial(source, params);
+            if (showInitialDetection && imageDisplayCallback != null) {
+                Image initialImage = render(initial, width, height).toImage();
+                Platform.runLater(() -> imageDisplayCallback.accept(initialImage));
+            }
+
+            RasterBuffer result = render(processSecondPass(initial, width, height), width, height);
+            System.out.printf("Tricolour processing took %.1f ms%n", (System.nanoTime() - start) / 1_000_000.0);
+            Platform.runLater(() -> {
+                result.writeTo(processedImage);
+                if (imageDisplayCallback != null) {
+                    imageDisplayCallback.accept(processedImage);
+                }
+            });
+        });
+
+        return processedImage; // Filled in when the processing finishes
+    }
+
+    /**
+     * Runs both passes synchronously on a raster.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters (brightness is used as a purple intensity offset)
+     * @return The final tricolour raster
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
+        return render(classify(source, params), source.getWidth(), source.getHeight());
+    }
+
+    /**
+     * Runs both passes synchronously and returns the final class map, without drawing it:
+     * WHITE_CELL for purple pixels, RED_CELL for pink pixels that aren't connected to purple,
+     * BACKGROUND for everything else.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters (brightness is used as a purple intensity offset)
+     * @return One CellClass per pixel, in row-major order
+     */
+    byte[] classify(RasterBuffer source, ProcessingParameters params) {
+        byte[] initial = detectInitial(source, params);
+        ImageProcessor.checkCancelled();
+        return processSecondPass(initial, source.getWidth(), source.getHeight());
+    }
+
+    /**
+     * Runs both passes, then counts the purple components as white cells and the
+     * remaining pink components as red cells (8-connected, like the second pass).
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters
+     * @return The bounding boxes of the white and red cells
+     */
+    @Override
+    public CellDetectionResult detectCells(RasterBuffer source, ProcessingParameters params) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int n = width * height;
+        byte[] classes = classify(source, params);
+
+        if (labelBuffer.length < n) {
+            labelBuffer = new int[n];
+        }
+        int componentCount = labeler.label(classes, width, height, labelBuffer);
+        stats.accumulate(labelBuffer, classes, componentCount, width, height, null);
+
+        List<Rectangle> whiteCells = new ArrayList<>();
+        List<Rectangle> redCells = new ArrayList<>();
+        for (int label = 1; label <= componentCount; label++) {
+            int minX = stats.getMinX(label);
+            int minY = stats.getMinY(label);
+            Rectangle bounds = new Rectangle(minX, minY,
+                    stats.getMaxX(label) - minX, stats.getMaxY(label) - minY);
+            if (stats.getCellClass(label) == CellClass.WHITE_CELL) {
+                whiteCells.add(bounds);
+            } else {
+                redCells.add(bounds);
+            }
+        }
+        return new CellDetectionResult(whiteCells, redCells);
+    }
+
+    /**
+     * First pass: classifies each pixel as deep purple (white cell), pink (red cell) or background.
+     *
+     * @param source The source pixels
+     * @param params Processing parameters
+     * @return One CellClass per pixel, in row-major order
+     */
+    private byte[] detectInitial(RasterBuffer source, ProcessingParameters params) {
+        int width = source.getWidth();
+        int height = source.getHeight();
 
         // Apply brightness and color adjustments from parameters
         double brightness = params.getBrightness();
 
-
         // First pass: Initial cell detection
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = pixelReader.getColor(x, y);
-
-                // detection logic
-                double purpleIntensity = (color.getRed() + color.getBlue()) / 2.0 - color.getGreen();
-                purpleIntensity += brightness;
-
-                if (purpleIntensity > 0.15) {
-                    if (color.getBrightness() < 0.6 &&
-                        color.getBlue() > color.getRed() &&
-                        color.getBlue() > color.getGreen()) {
-                        // Deep purple for WBCs
-                        initialWriter.setColor(x, y, Color.rgb(75, 0, 130));
-                    } else {
-                        // Pink/light purple for RBCs
-                        initialWriter.setColor(x, y, Color.rgb(219, 112, 147));
-                    }
-                } else {
-                    initialWriter.setColor(x, y, Color.WHITE);
+        if (kernels.isVectorized()) {
+            // SIMD arithmetic beats the table lookups (a gather) when it's available.
+            // The kernel writes the class codes as ints, one row at a time.
+            byte[] classes = new byte[width * height];
+            int[] in = source.getPixels();
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                kernels.tricolour(in, source.index(0, y), row, 0, width, brightness,
+                        CellClass.WHITE_CELL, CellClass.RED_CELL, CellClass.BACKGROUND);
+                int p = y * width;
+                for (int x = 0; x < width; x++) {
+                    classes[p + x] = (byte) row[x];
                 }
             }
+            return classes;
         }
 
-        //=========
+        // Classify all colours once for this brightness (cached, so only rebuilt when it changes)
+        ColourClassLut lut = ColourClassLut.of(List.of("tricolour", brightness),
+                (r, g, b) -> ScalarPixelKernels.tricolourClass(r, g, b, brightness));
+        return lut.classify(source);
+    }
 
-        // Show initial detection result and pause
-        Platform.runLater(() -> {
-            // Notify the UI to display the initial detection
-            if (imageDisplayCallback != null) {
-                imageDisplayCallback.accept(initialDetection);
-            }
+    /**
+     * Draws a class map: deep purple for white cells, pink for red cells, white background.
+     */
+    private static RasterBuffer render(byte[] classes, int width, int height) {
+        RasterBuffer image = new RasterBuffer(width, height);
+        int[] out = image.getPixels();
+        for (int p = 0; p < width * height; p++) {
+            out[p] = switch (classes[p]) {
+                case CellClass.WHITE_CELL -> PURPLE; // Deep purple for WBCs
+                case CellClass.RED_CELL -> PINK;     // Pink/light purple for RBCs
+                default -> WHITE;
+            };
+        }
+        return image;
+    }
 
-            // Create a pause using Timeline
-            Timeline pause = new Timeline(
-                    new KeyFrame(Duration.seconds(2), event -> {
-                        // After pause, proceed with second pass
-                        processSecondPass(initialDetection, processedImage, width, height);
-
-                        // Show final result
-                        if (imageDisplayCallback != null) {
-                            imageDisplayCallback.accept(processedImage);
-                        }
-                    })
-            );
-            pause.play();
-        });
+    /** Receives the results of processImage on the FX thread */
+    private Consumer<Image> imageDisplayCallback;
 
+    /** Also pass the first pass result to the callback, before the final one */
+    private boolean showInitialDetection;
 
+    /** Runs processImage off the FX thread, one image at a time. Created when first needed */
+    private ExecutorService worker;
 
-        return processedImage; // Return initial detection immediately
-    }
+    /** Connected component engine for the second pass, reused between runs */
+    private final ComponentLabeler labeler = new ParallelComponentLabeler(Connectivity.EIGHT);
 
-    // Add this field to the class
-    private Consumer<Image> imageDisplayCallback;
+    /** Label buffer for the second pass, reused between runs */
+    private int[] labelBuffer = new int[0];
 
-    // Add this method to the class
-    public void setImageDisplayCallback(Consumer<Image> callback) {
-        this.imageDisplayCallback = callback;
-    }
+    /** Component statistics for counting cells, reused between runs */
+    private final ComponentStats stats = new ComponentStats();
 
-    // Move second pass processing to a separate method
-    private void processSecondPass(Image initialDetection, WritableImage processedImage, int width, int height) {
+    /** First pass kernels; the colour lookup table is used instead when they are scalar */
+    private PixelKernels kernels = PixelKernels.getDefault();
 
+    /**
+     * Selects the first pass kernels, e.g. {@link PixelKernels#scalar()} to use the colour
+     * lookup table even when the Vector API is available.
+     *
+     * @param kernels The kernels to use
+     */
+    public void setKernels(PixelKernels kernels) {
+        this.kernels = kernels;
+    }
 
-        //=========
+    /**
+     * Sets the callback that receives the processed image. It is called on the FX thread.
+     *
+     * @param callback The image consumer, e.g. an ImageView's setImage
+     */
+    public void setImageDisplayCallback(Consumer<Image> callback) {
+        this.imageDisplayCallback = callback;
+    }
 
+    /**
+     * Whether processImage also shows the first pass (every cell pixel, before red cells
+     * touching white cells are removed). Off by default.
+     *
+     * @param show true to pass the initial detection to the display callback as well
+     */
+    public void setShowInitialDetection(boolean show) {
+        this.showInitialDetection = show;
+    }
 
+    private synchronized ExecutorService worker() {
+        if (worker == null) {
+            worker = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "tricolour-processor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return worker;
+    }
 
-        // Create UnionFind structure
-        UnionFind uf = new UnionFind(width * height);
+    /**
+     * Second pass: removes pink pixels that are 8-connected to purple ones (the cytoplasm
+     * around a white cell nucleus), keeping pink components with no purple as red cells.
+     *
+     * @param initial The first pass class map (not modified)
+     * @param width   The image width
+     * @param height  The image height
+     * @return The final class map
+     */
+    private byte[] processSecondPass(byte[] initial, int width, int height) {
+        int n = width * height;
 
         // Second pass: Connect adjacent cells
-        PixelReader initialReader = initialDetection.getPixelReader();
-
         int purpleCount = 0;
         int redCount = 0;
 
-        // Count initial cells
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = initialReader.getColor(x, y);
-                if (isPurple(color)) purpleCount++;
-                if (isRed(color)) redCount++;
-            }
+        // Count initial cells, and build a cell / background mask for the labeller
+        byte[] mask = new byte[n];
+        for (int p = 0; p < n; p++) {
+            byte cellClass = initial[p];
+            if (cellClass == CellClass.WHITE_CELL) purpleCount++;
+            if (cellClass == CellClass.RED_CELL) redCount++;
+            if (cellClass != CellClass.BACKGROUND) mask[p] = CellClass.RED_CELL; // any cell pixel, purple or pink
         }
         System.out.println("Initial counts - Purple: " + purpleCount + ", Red: " + redCount);
 
-
-        // continue second pass
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color currentColor = initialReader.getColor(x, y);
-
-
-                if (isCell(currentColor)) {
-                    int currentPixel = y * width + x;
-
-                    // Check neighbors (8-connectivity)
-                    for (int dy = -1; dy <= 1; dy++) {
-                        for (int dx = -1; dx <= 1; dx++) {
-                            int newX = x + dx;
-                            int newY = y + dy;
-                            if (newX >= 0 && newX < width && newY >= 0 && newY < height) {
-                                Color neighborColor = initialReader.getColor(newX, newY);
-                                if (isCell(neighborColor)) {
-                                    uf.union(currentPixel, newY * width + newX);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+        // continue second pass: label cells with 8-connectivity
+        if (labelBuffer.length < n) {
+            labelBuffer = new int[n];
         }
-
-        // Create a map to track components containing purple pixels
-        Map<Integer, Boolean> hasPurple = new HashMap<>();
+        int[] labels = labelBuffer;
+        int componentCount = labeler.label(mask, width, height, labels);
+        ImageProcessor.checkCancelled();
 
         // Third pass: Identify components containing purple pixels
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = initialReader.getColor(x, y);
-                if (isPurple(color)) {
-                    int root = uf.find(y * width + x);
-                    hasPurple.put(root, true);
-                }
+        boolean[] hasPurple = new boolean[componentCount + 1];
+        for (int p = 0; p < n; p++) {
+            if (initial[p] == CellClass.WHITE_CELL) {
+                hasPurple[labels[p]] = true;
             }
         }
 
-        // Final pass: Write output image
-        PixelWriter finalWriter = processedImage.getPixelWriter();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = initialReader.getColor(x, y);
-                if (isCell(color)) {
-                    int root = uf.find(y * width + x);
-                    if (isPurple(color)) {
-                        // Keep purple pixels
-                        finalWriter.setColor(x, y, color);
-                    } else if (!hasPurple.getOrDefault(root, false)) {
-                        // Keep red pixels only if not connected to purple
-                        finalWriter.setColor(x, y, color);
-                    } else {
-                        // Remove red pixels connected to purple
-                        finalWriter.setColor(x, y, Color.WHITE);
-                    }
-                } else {
-                    finalWriter.setColor(x, y, Color.WHITE);
-                }
-            }
-        }
-
-        // After final pass, count remaining cells
-        purpleCount = 0;
+        // Final pass: keep purple pixels, and red pixels only if not connected to purple.
+        // The mask is reused for the result.
+        byte[] processed = mask;
         redCount = 0;
-        PixelReader finalReader = processedImage.getPixelReader();
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Color color = finalReader.getColor(x, y);
-                if (isPurple(color)) purpleCount++;
-                if (isRed(color)) redCount++;
+        for (int p = 0; p < n; p++) {
+            byte cellClass = initial[p];
+            if (cellClass == CellClass.RED_CELL && hasPurple[labels[p]]) {
+                cellClass = CellClass.BACKGROUND; // Remove red pixels connected to purple
+            } else if (cellClass == CellClass.RED_CELL) {
+                redCount++;
             }
+            processed[p] = cellClass;
         }
         System.out.println("Final counts - Purple: " + purpleCount + ", Red: " + redCount);
+        return processed;
     }
 
     /**
@@ -252,24 +344,4 @@ public class TricolourBloodProcessor implements ImageProcessor {
     public Image processImage(Image originalImage) {
         return null;
     }
-
-    // helper methods
-    private boolean isCell(Color color) {
-        return isPurple(color) || isRed(color);
-    }
-
-    private boolean isPurple(Color color) {
-        double tolerance = 0.01;  // Adjust this value as needed
-        return Math.abs(color.getRed() - 75.0/255.0) < tolerance &&
-                Math.abs(color.getGreen() - 0.0) < tolerance &&
-                Math.abs(color.getBlue() - 130.0/255.0) < tolerance;
-    }
-
-    private boolean isRed(Color color) {
-        double tolerance = 0.01;  // Adjust this value as needed
-        return Math.abs(color.getRed() - 219.0/255.0) < tolerance &&
-                Math.abs(color.getGreen() - 112.0/255.0) < tolerance &&
-                Math.abs(color.getBlue() - 147.0/255.0) < tolerance;
-    }
 }
-
@@ -1,120 +1,146 @@
 package com.michaelmckibbin.imageanalysis;
 
+import java.util.Arrays;
+
 /**
  * Union-Find (Disjoint Set Union) implementation with
- * Path Compression, Union by Rank, and Size Tracking.
+ * Path Halving, Union by Size, and reusable storage.
  * This class is used in the blood cell analysis to efficiently
  * manage and merge disjoint sets of pixels.
+ * <p>
+ * find() is iterative, so long snake-like components in high resolution images
+ * cannot overflow the stack. The arrays are kept between runs: call
+ * {@link #reset(int)} to start again with a new number of elements without
+ * reallocating, as long as the new size fits in the existing capacity.
  *
  * @author Michael McKibbin (20092733)
- * @version 1.0 (2024-02-20)
+ * @version 2.0 (2024-02-20)
  *
  */
 
 public class UnionFind {
     private int[] parent; // Stores the parent of each element
-    private int[] rank;   // Stores the rank of each set (tree depth)
-    private int[] size;  // useful for cell detection to filter by cell size
-    private int count;
+    private int[] size;   // Size of each set (only valid at the root), used to filter cells by size
+    private int[] labels; // Dense labels assigned by flattenAll()
+    private int count;    // Number of elements currently in use
+    private int sets;     // Number of disjoint sets
+
+    /**
+     * Creates an empty Union-Find structure. Call {@link #reset(int)} before use.
+     */
+    public UnionFind() {
+        parent = new int[0];
+        size = new int[0];
+        labels = new int[0];
+    }
 
     /**
      * Constructor to initialize Union-Find data structure.
-     * Each element is its own parent initially (disjoint sets),
-     * and the rank of each set is initialized to 0.
+     * Each element is its own parent initially (disjoint sets) with a set size of 1.
      *
      * @param size The number of elements in the Union-Find structure.
      */
-
-//    public UnionFind(int size) {
-//        parent = new int[size];
-//        rank = new int[size];
-//        this.size = new int[size];  // Initialize size array
-//
-//        // Initialize each element to be its own parent (self-loop)
-//        for (int i = 0; i < size; i++) {
-//            parent[i] = i;
-//            rank[i] = 0; // Initially, all elements have rank 0
-//            this.size[i] = 1;  // Each set starts with size 1
-//        }
-//    }
-
     public UnionFind(int size) {
-    System.out.printf("Creating UnionFind: size=%d, called from %s%n",
-        size,
-        Thread.currentThread().getStackTrace()[2].getClassName()
-    );
-
-    parent = new int[size];
-    rank = new int[size];
-    this.size = new int[size];  // Initialize size array
-
-    // Initialize each element to be its own parent (self-loop)
-    for (int i = 0; i < size; i++) {
-        parent[i] = i;
-        rank[i] = 0; // Initially, all elements have rank 0
-        this.size[i] = 1;  // Each set starts with size 1
+        this();
+        reset(size);
+    }
+
+    /**
+     * Re-initialises the structure with n singleton sets, reusing the existing arrays
+     * when they are large enough.
+     *
+     * @param n The number of elements
+     */
+    public final void reset(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Size must not be negative");
+        }
+        if (parent.length < n) {
+            parent = new int[n];
+            size = new int[n];
+            labels = new int[0]; // reallocated lazily by flattenAll()
+        }
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        Arrays.fill(size, 0, n, 1);
+        count = n;
+        sets = n;
     }
-}
 
+    /**
+     * Adds a new singleton set, growing the arrays if needed.
+     * Useful when the number of elements isn't known in advance, e.g. provisional labels.
+     *
+     * @return The new element
+     */
+    public int makeSet() {
+        if (count == parent.length) {
+            int capacity = Math.max(16, parent.length + (parent.length >> 1));
+            parent = Arrays.copyOf(parent, capacity);
+            size = Arrays.copyOf(size, capacity);
+        }
+        parent[count] = count;
+        size[count] = 1;
+        sets++;
+        return count++;
+    }
 
     /**
      * Finds the representative (root) of the set containing x.
-     * Uses path compression to make future operations more efficient.
+     * Uses path halving: every node on the path is pointed at its grandparent,
+     * which keeps trees flat without recursion or a second pass.
      *
      * @param x The element to find.
      * @return The root representative of the set containing x.
      */
-
     public int find(int x) {
-        if (x < 0 || x >= parent.length) { // input validation
+        if (x < 0 || x >= count) { // input validation
             throw new IllegalArgumentException("Index out of bounds");
         }
-        if (parent[x] != x) {
-            // Path compression: make x's parent point directly to root
-            parent[x] = find(parent[x]);
+        int[] parent = this.parent;
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
         }
-        return parent[x];
+        return x;
     }
 
     /**
      * Merges the sets containing x and y.
-     * Uses union by rank to keep the tree balanced.
+     * Uses union by size: the smaller set is attached below the root of the larger one.
      *
      * @param x An element in the first set.
      * @param y An element in the second set.
+     * @return True if the two elements were in different sets
      */
-
-    public void union(int x, int y) {
+    public boolean union(int x, int y) {
         int rootX = find(x); // Find root of x
         int rootY = find(y); // Find root of y
 
         // Only merge if they are in different sets
-        if (rootX != rootY) {
-            // Attach the smaller tree to the larger tree
-            if (rank[rootX] > rank[rootY]) {
-                parent[rootY] = rootX; // rootX becomes the root
-                size[rootX] += size[rootY];  // Update size
-            } else if (rank[rootX] < rank[rootY]) {
-                parent[rootX] = rootY; // rootY becomes the root
-                size[rootY] += size[rootX];  // Update size
-            } else {
-                // If ranks are equal, arbitrarily choose one as root
-                parent[rootY] = rootX;
-                size[rootX] += size[rootY];  // Update size
-                rank[rootX]++; // Increase rank since tree height increases
-            }
+        if (rootX == rootY) {
+            return false;
+        }
+        if (size[rootX] < size[rootY]) {
+            int swap = rootX;
+            rootX = rootY;
+            rootY = swap;
         }
+        parent[rootY] = rootX; // rootX becomes the root
+        size[rootX] += size[rootY];  // Update size
+        sets--;
+        return true;
     }
 
-        /**
-         * Checks if two elements are in the same set.
-         *
-         * @param x The first element.
-         * @param y The second element.
-         * @return True if x and y are in the same set, false otherwise.
-         */
-
-        public boolean connected(int x, int y) { // Are x and y connected?
+    /**
+     * Checks if two elements are in the same set.
+     *
+     * @param x The first element.
+     * @param y The second element.
+     * @return True if x and y are in the same set, false otherwise.
+     */
+    public boolean connected(int x, int y) { // Are x and y connected?
         return find(x) == find(y);
     }
 
@@ -123,15 +149,8 @@ public class UnionFind {
      *
      * @return The number of disjoint sets.
      */
-
-    public int countSets() { // Count the number of disjoint sets.
-        int count = 0;
-        for (int i = 0; i < parent.length; i++) {
-            if (parent[i] == i) {
-                count++;
-            }
-        }
-        return count;
+    public int countSets() {
+        return sets;
     }
 
     /**
@@ -144,5 +163,51 @@ public class UnionFind {
         return size[find(x)];
     }
 
-}
+    /**
+     * @return The number of elements in the structure
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Assigns every set a dense label from 0 to countSets() - 1 in one O(n) sweep.
+     * Labels are canonical: sets are numbered in order of their lowest element,
+     * so two structures holding the same partition always produce the same labels.
+     * Every element is also pointed directly at its root.
+     * <p>
+     * The labels are valid until the next union() or reset().
+     *
+     * @return The number of labels assigned (the number of sets)
+     */
+    public int flattenAll() {
+        if (labels.length < count) {
+            labels = new int[parent.length];
+        }
+        int[] parent = this.parent;
+        int[] labels = this.labels;
+        Arrays.fill(labels, 0, count, -1);
+        int next = 0;
+        for (int i = 0; i < count; i++) {
+            int root = find(i);
+            parent[i] = root;
+            if (labels[root] < 0) {
+                // i is the lowest element of its set
+                labels[root] = next++;
+            }
+            labels[i] = labels[root];
+        }
+        return next;
+    }
 
+    /**
+     * Returns the dense label of element x assigned by the last {@link #flattenAll()}.
+     *
+     * @param x The element
+     * @return A label between 0 and countSets() - 1
+     */
+    public int getLabel(int x) {
+        return labels[x];
+    }
+
+}
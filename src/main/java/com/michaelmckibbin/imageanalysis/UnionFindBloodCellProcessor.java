@@ -1,21 +1,24 @@
 package com.michaelmckibbin.imageanalysis;
 
-import javafx.scene.SnapshotParameters;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
 import javafx.scene.image.WritableImage;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
-import java.util.stream.Collectors;
-import java.awt.Point;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Map;
-import java.util.HashMap;
-import javafx.scene.text.Font;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.Arrays;
 
 /**
  * Processes blood cell images using a Union-Find algorithm to detect and classify blood cells.
@@ -53,6 +56,154 @@ public class UnionFindBloodCellProcessor implements ImageProcessor{
     /** Maximum size (in pixels) for a valid cell cluster to prevent false positives */
     private int maxCellSize;     // Will be set from slider
 
+    /** Label both cell types in one scan over a byte class map, instead of one scan per type */
+    private boolean singlePassLabeling = true;
+
+    /** Reused between runs so repeated processing of the same image size doesn't reallocate */
+    private final UnionFind unionFind = new UnionFind();
+
+    /** Draws the outlines and numbers into the output raster, without the JavaFX toolkit */
+    private final AnnotationRenderer renderer = new AnnotationRenderer();
+
+    /** Connected component engine used by the single pass detection */
+    private ComponentLabeler labeler = new RunLengthComponentLabeler(Connectivity.FOUR);
+
+    /** Label buffer, reused between runs */
+    private int[] labelBuffer = new int[0];
+
+    /** Per-component statistics of the last detection */
+    private ComponentStats stats = new ComponentStats();
+
+    /**
+     * The last few single pass labellings, most recent first. Moving only the cell size
+     * sliders doesn't change the labels, so the sizes are filtered again from these instead
+     * of classifying and labelling the whole image again. Two are kept so that switching
+     * between the drag preview and the full resolution image hits both.
+     */
+    private final Deque<Labelling> labellings = new ArrayDeque<>();
+    private static final int LABELLINGS_KEPT = 2;
+
+    /** Number of full labellings done, for checking the reuse */
+    private int labellingRuns;
+
+    /**
+     * Component trees of the last few images whose colour thresholds were changed, most
+     * recent first: a min-tree of the white cell pixels by brightness, and a max-tree of the
+     * red cell pixels by red. They are built in the background, and once ready any threshold
+     * is answered from them without labelling; see {@link #detectFromTrees}. As with the
+     * labellings, two are kept so that the drag preview and the full resolution image don't
+     * keep throwing away each other's trees.
+     */
+    private boolean componentTrees = true;
+    private final Deque<TreeBuild> treeBuilds = new ArrayDeque<>();
+    private static final int TREES_KEPT = LABELLINGS_KEPT;
+    private ExecutorService treeWorker;
+
+    /** The component trees of one image */
+    private record CellTrees(ComponentTree white, ComponentTree red) {
+    }
+
+    /**
+     * The two tree builds of one image. Cancelling interrupts the builds, which stop at
+     * their next {@link ImageProcessor#checkCancelled()}.
+     */
+    private static final class TreeBuild {
+        final ImageRef image;
+        final Future<ComponentTree> white;
+        final Future<ComponentTree> red;
+
+        TreeBuild(RasterBuffer image, Future<ComponentTree> white, Future<ComponentTree> red) {
+            this.image = new ImageRef(image);
+            this.white = white;
+            this.red = red;
+        }
+
+        /**
+         * @return Both trees, or null if they aren't built (yet), or failed
+         */
+        CellTrees ready() {
+            if (!white.isDone() || !red.isDone() || white.isCancelled() || red.isCancelled()) {
+                return null;
+            }
+            try {
+                return new CellTrees(white.get(), red.get());
+            } catch (ExecutionException | InterruptedException e) {
+                return null;
+            }
+        }
+
+        void await() {
+            for (Future<ComponentTree> tree : List.of(white, red)) {
+                try {
+                    tree.get();
+                } catch (ExecutionException | CancellationException e) {
+                    // Nothing to wait for
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        void cancel() {
+            white.cancel(true);
+            red.cancel(true);
+        }
+    }
+
+    /**
+     * Identifies a source raster without keeping it alive: the pixel array is held weakly
+     * and compared by identity, so the raster must not be changed between calls (the
+     * processors and the controller never do).
+     */
+    private static final class ImageRef {
+        final WeakReference<int[]> pixels;
+        final int offset;
+        final int stride;
+        final int width;
+        final int height;
+
+        ImageRef(RasterBuffer image) {
+            this.pixels = new WeakReference<>(image.getPixels());
+            this.offset = image.getOffset();
+            this.stride = image.getStride();
+            this.width = image.getWidth();
+            this.height = image.getHeight();
+        }
+
+        boolean isOf(RasterBuffer image) {
+            return pixels.get() == image.getPixels() &&
+                    offset == image.getOffset() && stride == image.getStride() &&
+                    width == image.getWidth() && height == image.getHeight();
+        }
+    }
+
+    /**
+     * The component statistics of one image labelled at one pair of colour thresholds.
+     */
+    private static final class Labelling {
+        final ImageRef image;
+        final double whiteCellThreshold;
+        final double redCellThreshold;
+        final ComponentStats stats;
+
+        Labelling(RasterBuffer image, double whiteCellThreshold, double redCellThreshold, ComponentStats stats) {
+            this.image = new ImageRef(image);
+            this.whiteCellThreshold = whiteCellThreshold;
+            this.redCellThreshold = redCellThreshold;
+            this.stats = stats;
+        }
+
+        boolean matches(RasterBuffer image, double whiteCellThreshold, double redCellThreshold) {
+            return this.image.isOf(image) &&
+                    this.whiteCellThreshold == whiteCellThreshold &&
+                    this.redCellThreshold == redCellThreshold;
+        }
+    }
+
+    /** CellClass of every colour for the current thresholds, see {@link #colourLut()} */
+    private ColourClassLut colourLut;
+
 
     /**
      * Enumeration of cell types that can be detected by the processor.
@@ -91,34 +242,44 @@ public class UnionFindBloodCellProcessor implements ImageProcessor{
     // Parameter initialization timing
     long startParams = System.nanoTime();
 
-    minCellSize = 1 + (int)(params.getMinCellSize() / 100.0 * 999);
-    maxCellSize = (int)(100 + (params.getMaxCellSize() / 100.0 * (20000 - 100)));
-
-
-    whiteCellThreshold = params.getWhiteCellThreshold() / 100.0;
-    redCellThreshold = params.getRedCellThreshold() / 100.0;
+    applyParameters(params);
 
     long endParams = System.nanoTime();
 
-    // Image copy timing
+    // Image copy timing (one bulk read of the source, one array copy for the output)
     long startCopy = System.nanoTime();
-    WritableImage processedImage = copyOriginalImage(originalImage);
+    RasterBuffer source = RasterBuffer.fromImage(originalImage);
+    RasterBuffer processed = source.copy();
     long endCopy = System.nanoTime();
 
-    // White cell detection timing
-    long startWhiteCells = System.nanoTime();
-    List<Rectangle> whiteCells = detectCells(originalImage, UnionFindBloodCellProcessor.CellType.WHITE_CELL);
-    long endWhiteCells = System.nanoTime();
-
-    // Red cell detection timing
-    long startRedCells = System.nanoTime();
-    List<Rectangle> redCells = detectCells(originalImage, UnionFindBloodCellProcessor.CellType.RED_CELL);
-    long endRedCells = System.nanoTime();
+    List<Rectangle> whiteCells;
+    List<Rectangle> redCells;
+    long startWhiteCells, endWhiteCells, startRedCells, endRedCells;
+
+    if (singlePassLabeling) {
+        // Both cell types are labelled in one scan, so there is a single detection timing
+        startWhiteCells = System.nanoTime();
+        CellDetectionResult cells = detectAllCells(source);
+        endWhiteCells = System.nanoTime();
+        startRedCells = endRedCells = endWhiteCells;
+        whiteCells = cells.getWhiteCells();
+        redCells = cells.getRedCells();
+    } else {
+        // White cell detection timing
+        startWhiteCells = System.nanoTime();
+        whiteCells = detectCells(source, UnionFindBloodCellProcessor.CellType.WHITE_CELL);
+        endWhiteCells = System.nanoTime();
+
+        // Red cell detection timing
+        startRedCells = System.nanoTime();
+        redCells = detectCells(source, UnionFindBloodCellProcessor.CellType.RED_CELL);
+        endRedCells = System.nanoTime();
+    }
 
     // Cell marking timing
     long startMarking = System.nanoTime();
-    markCells(processedImage, whiteCells, Color.DARKRED);
-    markCells(processedImage, redCells, Color.DARKBLUE);
+    renderer.drawCells(processed, new CellDetectionResult(whiteCells, redCells));
+    WritableImage processedImage = processed.toImage();
     long endMarking = System.nanoTime();
 
     // Calculate total time
@@ -129,8 +290,12 @@ public class UnionFindBloodCellProcessor implements ImageProcessor{
     System.out.println("--------------------");
     System.out.printf("Parameter initialization: %.2f ms%n", (endParams - startParams) / 1_000_000.0);
     System.out.printf("Image copy: %.2f ms%n", (endCopy - startCopy) / 1_000_000.0);
-    System.out.printf("White cell detection: %.2f ms%n", (endWhiteCells - startWhiteCells) / 1_000_000.0);
-    System.out.printf("Red cell detection: %.2f ms%n", (endRedCells - startRedCells) / 1_000_000.0);
+    if (singlePassLabeling) {
+        System.out.printf("Cell detection (single pass): %.2f ms%n", (endWhiteCells - startWhiteCells) / 1_000_000.0);
+    } else {
+        System.out.printf("White cell detection: %.2f ms%n", (endWhiteCells - startWhiteCells) / 1_000_000.0);
+        System.out.printf("Red cell detection: %.2f ms%n", (endRedCells - startRedCells) / 1_000_000.0);
+    }
     System.out.printf("Cell marking: %.2f ms%n", (endMarking - startMarking) / 1_000_000.0);
     System.out.printf("Total processing time: %.2f ms%n", (endTotal - startTotal) / 1_000_000.0);
     System.out.println();
@@ -149,17 +314,176 @@ public class UnionFindBloodCellProcessor implements ImageProcessor{
     double cellsPerSecond = totalCells / totalTimeSeconds;
     System.out.printf("Processing speed: %.1f cells/second%n", cellsPerSecond);
 
+    if (singlePassLabeling) {
+        metrics.addSinglePassMetrics(
+                (endWhiteCells - startWhiteCells) / 1_000_000.0,
+                (endTotal - startTotal) / 1_000_000.0,
+                cellsPerSecond
+        );
+    } else {
         metrics.addMetrics(
                 (endWhiteCells - startWhiteCells) / 1_000_000.0,
                 (endRedCells - startRedCells) / 1_000_000.0,
                 (endTotal - startTotal) / 1_000_000.0,
                 cellsPerSecond
         );
+    }
 
     return processedImage;
 
 }
 
+    /**
+     * Detects cells in a raster, then outlines and numbers them without using the JavaFX toolkit.
+     *
+     * @param source The source pixels (not modified)
+     * @param params Processing parameters containing thresholds and other settings
+     * @return A copy of the source with detected cells outlined and numbered
+     */
+    @Override
+    public RasterBuffer processRaster(RasterBuffer source, ProcessingParameters params) {
+        CellDetectionResult cells = detect(source, params);
+
+        RasterBuffer processed = source.copy();
+        drawCells(processed, cells);
+        return processed;
+    }
+
+    /**
+     * Applies the parameters, then detects both cell types in a raster.
+     *
+     * @param source The source pixels
+     * @param params Processing parameters containing thresholds and other settings
+     * @return The white and red cells found
+     */
+    CellDetectionResult detect(RasterBuffer source, ProcessingParameters params) {
+        applyParameters(params);
+        return detect(source);
+    }
+
+    @Override
+    public CellDetectionResult detectCells(RasterBuffer source, ProcessingParameters params) {
+        return detect(source, params);
+    }
+
+    /**
+     * Detects both cell types in an image that is read one tile at a time, for whole-slide
+     * scans too large to hold in one raster. Gives the same cells as labelling the whole image.
+     *
+     * @param source   The image
+     * @param params   Processing parameters containing thresholds and other settings
+     * @param tileSize The width and height of the tiles, e.g. {@link TiledCellDetector#DEFAULT_TILE_SIZE}
+     * @return The white and red cells found
+     * @throws IOException If a tile can't be read
+     */
+    public CellDetectionResult detectCells(TileSource source, ProcessingParameters params, int tileSize)
+            throws IOException {
+        applyParameters(params);
+        return new TiledCellDetector(colourLut(), labeler, tileSize).detect(source, minCellSize, maxCellSize);
+    }
+
+    /**
+     * Streams the cells of an image that is read a band of rows at a time, for count-only runs
+     * that don't need the image or the cell list in memory. Each cell is passed on as soon as
+     * its last row has been read, in that order rather than raster order.
+     *
+     * @param source The image
+     * @param params Processing parameters containing thresholds and other settings
+     * @param cells  Receives the components of both types that are within the size limits
+     * @throws IOException If a band can't be read
+     */
+    public void streamCells(TileSource source, ProcessingParameters params,
+                            Consumer<StreamingCellLabeler.Component> cells) throws IOException {
+        applyParameters(params);
+        int min = minCellSize;
+        int max = maxCellSize;
+        new StreamingCellLabeler(colourLut(), labeler.getConnectivity()).label(source, component -> {
+            if (component.area() >= min && component.area() <= max) {
+                cells.accept(component);
+            }
+        });
+    }
+
+    /**
+     * Detects both cell types in a raster using the current parameters,
+     * in either one combined scan or one scan per cell type.
+     *
+     * @param source The source pixels
+     * @return The white and red cells found
+     */
+    CellDetectionResult detect(RasterBuffer source) {
+        if (singlePassLabeling) {
+            return detectAllCells(source);
+        }
+        colourLut().prepareFor(2L * source.getWidth() * source.getHeight());
+        return new CellDetectionResult(
+                detectCells(source, CellType.WHITE_CELL),
+                detectCells(source, CellType.RED_CELL));
+    }
+
+    /**
+     * Chooses between labelling both cell types in a single scan (the default)
+     * and the original approach of one full labelling per cell type.
+     *
+     * @param singlePassLabeling true to classify and label both cell types in one pass
+     */
+    public void setSinglePassLabeling(boolean singlePassLabeling) {
+        this.singlePassLabeling = singlePassLabeling;
+    }
+
+    public boolean isSinglePassLabeling() {
+        return singlePassLabeling;
+    }
+
+    /**
+     * Sets the connected component engine used by the single pass detection.
+     * The engines produce identical labels, so this only changes the speed.
+     *
+     * @param labeler The labelling engine, e.g. a {@link RunLengthComponentLabeler} (the default) or {@link ParallelComponentLabeler}
+     */
+    public void setLabeler(ComponentLabeler labeler) {
+        this.labeler = labeler;
+    }
+
+    public ComponentLabeler getLabeler() {
+        return labeler;
+    }
+
+    /**
+     * Converts the slider values in the parameters into pixel sizes and colour thresholds.
+     *
+     * @param params Processing parameters containing thresholds and other settings
+     */
+    private void applyParameters(ProcessingParameters params) {
+        minCellSize = 1 + (int)(params.getMinCellSize() / 100.0 * 999);
+        maxCellSize = (int)(100 + (params.getMaxCellSize() / 100.0 * (20000 - 100)));
+
+        // Sizes are for the original image; shrink them for a downscaled preview
+        minCellSize = params.scaleArea(minCellSize);
+        maxCellSize = params.scaleArea(maxCellSize);
+
+        whiteCellThreshold = params.getWhiteCellThreshold() / 100.0;
+        redCellThreshold = params.getRedCellThreshold() / 100.0;
+
+        // The colour table is looked up when pixels are next classified; detections
+        // answered from the component trees don't need it
+        colourLut = null;
+    }
+
+    /**
+     * @return The colour table for the current thresholds
+     */
+    private ColourClassLut colourLut() {
+        if (colourLut == null) {
+            // Classify all colours once for these thresholds (cached, so only rebuilt when they change)
+            double white = whiteCellThreshold;
+            double red = redCellThreshold;
+            colourLut = ColourClassLut.of(List.of("union", white, red),
+                    (r, g, b) -> classifyColour(r, g, b, white, red));
+        }
+        return colourLut;
+    }
+
 
 
     /**
@@ -190,48 +514,18 @@ public class UnionFindBloodCellProcessor implements ImageProcessor{
 /**
  * Checks if a pixel belongs to the specified cell type based on its colour.
  *
- * @param image The source image
+ * @param raster The source pixels
  * @param x X coordinate of the pixel
  * @param y Y coordinate of the pixel
  * @param type The type of cell to check for (WHITE_CELL or RED_CELL)
  * @return true if the pixel is part of the specified cell type
  */
-private boolean isCellPixel(Image image, int x, int y, CellType type) {
-    if (x < 0 || x >= image.getWidth() || y < 0 || y >= image.getHeight()) {
+private boolean isCellPixel(RasterBuffer raster, int x, int y, CellType type) {
+    if (!raster.contains(x, y)) {
         return false;
     }
 
-    Color color = image.getPixelReader().getColor(x, y); // US spelling to match Java spelling
-    return isCellOfType(color, type);
-}
-
-/**
- * Creates a bounding rectangle from a list of points.
- *
- * @param points List of points belonging to a cell
- * @return Rectangle that bounds all the points
- */
-private Rectangle getBoundingRectangle(List<Point> points) {
-    if (points.isEmpty()) {
-        return null;
-    }
-
-    double minX = Double.MAX_VALUE;
-    double minY = Double.MAX_VALUE;
-    double maxX = Double.MIN_VALUE;
-    double maxY = Double.MIN_VALUE;
-
-    for (Point p : points) {
-        minX = Math.min(minX, p.getX());
-        minY = Math.min(minY, p.getY());
-        maxX = Math.max(maxX, p.getX());
-        maxY = Math.max(maxY, p.getY());
-    }
-
-    double width = maxX - minX;
-    double height = maxY - minY;
-
-    return new Rectangle(minX, minY, width, height);
+    return isCellOfType(raster.get(x, y), type);
 }
 
     /**
@@ -239,7 +533,7 @@ private Rectangle getBoundingRectangle(List<Point> points) {
      * For white blood cells, checks for darker purple colouring.
      * For red blood cells, checks for pink/red colouring with specific brightness constraints.
      *
-     * @param color The color (colour) to analyze // US spelling to match Java
+     * @param argb The packed ARGB colour to analyze
      * @param type The type of cell to check for (WHITE_CELL or RED_CELL)
      * @return true if the colour matches the specified cell type's characteristics
      */
@@ -270,10 +564,25 @@ private Rectangle getBoundingRectangle(List<Point> points) {
 //    }
 //}
 
-    private boolean isCellOfType(Color color, CellType type) {
-        double brightness = (color.getRed() + color.getGreen() + color.getBlue()) / 3.0;
-        double redComponent = color.getRed();
-        double blueComponent = color.getBlue();
+    private boolean isCellOfType(int argb, CellType type) {
+        byte cellClass = colourLut().get(argb);
+        return switch (type) {
+            case WHITE_CELL -> cellClass == CellClass.WHITE_CELL;
+            case RED_CELL -> cellClass == CellClass.RED_CELL;
+        };
+    }
+
+    /**
+     * The colour rules behind {@link #isCellOfType}, evaluated for every colour when the
+     * lookup table is built. A colour can't match both types (one needs blue &gt; red, the
+     * other red &gt; blue).
+     *
+     * @return The CellClass of the colour
+     */
+    private static byte classifyColour(int r, int g, int b, double whiteCellThreshold, double redCellThreshold) {
+        double redComponent = r / 255.0;
+        double blueComponent = b / 255.0;
+        double brightness = brightness(r, g, b);
 
         // original switch method
 //        switch (type) {
@@ -294,19 +603,120 @@ private Rectangle getBoundingRectangle(List<Point> points) {
 //        }
 //
 
-        // enhanced switch method
-        return switch (type) {
-            case WHITE_CELL ->
-                // White blood cells are typically darker (purple)
-                // Check if the pixel is dark enough and has more blue component
-                    brightness < whiteCellThreshold && blueComponent > redComponent;
-            case RED_CELL ->
-                // Red blood cells are typically pink/red
-                // Check if the pixel has strong red component but isn't too bright
-                    redComponent > redCellThreshold &&
-                            redComponent > blueComponent &&
-                            brightness < 0.8;
-        };
+        // White blood cells are typically darker (purple)
+        // Check if the pixel is dark enough and has more blue component
+        if (brightness < whiteCellThreshold && blueComponent > redComponent) {
+            return CellClass.WHITE_CELL;
+        }
+        // Red blood cells are typically pink/red
+        // Check if the pixel has strong red component but isn't too bright
+        if (redComponent > redCellThreshold &&
+                redComponent > blueComponent &&
+                brightness < 0.8) {
+            return CellClass.RED_CELL;
+        }
+        return CellClass.BACKGROUND;
+    }
+
+    /**
+     * The mean of the three channels, 0 - 1, exactly as the colour rules compute it.
+     */
+    private static double brightness(int r, int g, int b) {
+        return (r / 255.0 + g / 255.0 + b / 255.0) / 3.0;
+    }
+
+    /**
+     * Ranks the brightness values of all colours, to use them as component tree levels.
+     * <p>
+     * In doubles, the brightness is not quite a function of r + g + b: colours with the same
+     * channel sum can differ in the last bits, and a threshold such as 0.6 falls exactly
+     * among them. So the levels are the distinct double values themselves (1753 of them,
+     * at most three per channel sum), which keeps the trees exact. Values of one sum all lie
+     * below those of the next sum, so a colour's level is found from its sum in a step or two.
+     */
+    private static final class BrightnessLevels {
+        private static final double[] VALUES;   // Every distinct brightness, ascending
+        private static final int[] OFFSET;      // Index of the first value of each channel sum
+
+        static {
+            // Distinct values of r/255.0 + g/255.0 per r + g, then of the brightness per sum
+            double[][] pairs = new double[511][];
+            for (int r = 0; r < 256; r++) {
+                for (int g = 0; g < 256; g++) {
+                    pairs[r + g] = addDistinct(pairs[r + g], r / 255.0 + g / 255.0);
+                }
+            }
+            double[][] bySum = new double[766][];
+            for (int sum = 0; sum < pairs.length; sum++) {
+                for (double pair : pairs[sum]) {
+                    for (int b = 0; b < 256; b++) {
+                        bySum[sum + b] = addDistinct(bySum[sum + b], (pair + b / 255.0) / 3.0);
+                    }
+                }
+            }
+
+            OFFSET = new int[767];
+            for (int sum = 0; sum < 766; sum++) {
+                Arrays.sort(bySum[sum]);
+                OFFSET[sum + 1] = OFFSET[sum] + bySum[sum].length;
+            }
+            VALUES = new double[OFFSET[766]];
+            for (int sum = 0; sum < 766; sum++) {
+                System.arraycopy(bySum[sum], 0, VALUES, OFFSET[sum], bySum[sum].length);
+            }
+            for (int i = 1; i < VALUES.length; i++) {
+                if (!(VALUES[i - 1] < VALUES[i])) {
+                    throw new IllegalStateException("Brightness values of different sums overlap");
+                }
+            }
+        }
+
+        private static double[] addDistinct(double[] values, double value) {
+            if (values == null) {
+                return new double[] {value};
+            }
+            for (double existing : values) {
+                if (existing == value) {
+                    return values;
+                }
+            }
+            double[] grown = Arrays.copyOf(values, values.length + 1);
+            grown[values.length] = value;
+            return grown;
+        }
+
+        static int count() {
+            return VALUES.length;
+        }
+
+        /**
+         * @return The level of the colour's brightness
+         */
+        static int level(int r, int g, int b) {
+            double value = brightness(r, g, b);
+            int level = OFFSET[r + g + b];
+            while (VALUES[level] != value) {
+                level++;
+            }
+            return level;
+        }
+
+        /**
+         * @return The number of levels with a brightness below the threshold
+         */
+        static int countBelow(double threshold) {
+            int low = 0;
+            int high = VALUES.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (VALUES[mid] < threshold) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
     }
 
 //    // TRY HSV (Hue, Saturation, Value) method
@@ -394,14 +804,15 @@ private Rectangle getBoundingRectangle(List<Point> points) {
     /**
      * Detects cells of the specified type in the image using connected component analysis.
      *
-     * @param image The source image to analyze
+     * @param image The source pixels to analyze
      * @param cellType The type of cells to detect (WHITE_CELL or RED_CELL)
      * @return List of Rectangles representing the bounding boxes of detected cells
      */
-private List<Rectangle> detectCells(Image image, CellType cellType) {
-    int width = (int) image.getWidth();
-    int height = (int) image.getHeight();
-    UnionFind uf = new UnionFind(width * height);
+private List<Rectangle> detectCells(RasterBuffer image, CellType cellType) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    UnionFind uf = unionFind;
+    uf.reset(width * height);
 
     // First pass: Union adjacent pixels that belong to the same cell
     for (int y = 0; y < height; y++) {
@@ -420,162 +831,378 @@ private List<Rectangle> detectCells(Image image, CellType cellType) {
         }
     }
 
-    // Second pass: Collect cells that meet the size threshold
-    Map<Integer, List<Point>> cellGroups = new HashMap<>();
+    // Second pass: give each cell a dense label, numbered in raster order
+    int n = width * height;
+    int[] labels = labelBuffer(n);
+    Arrays.fill(labels, 0, n, 0);
+    int componentCount = 0;
     for (int y = 0; y < height; y++) {
         for (int x = 0; x < width; x++) {
             int p = y * width + x;
             if (isCellPixel(image, x, y, cellType)) {
                 int root = uf.find(p);
-                if (uf.getSize(root) >= minCellSize &&
-                    uf.getSize(root) <= maxCellSize) {
-                    cellGroups.computeIfAbsent(root, k -> new ArrayList<>())
-                             .add(new Point(x, y));
+                if (labels[root] == 0) {
+                    labels[root] = ++componentCount;
                 }
+                labels[p] = labels[root];
             }
         }
     }
 
-    // Convert cell groups to bounding rectangles
-    return cellGroups.values().stream()
-            .map(this::getBoundingRectangle)
-            .collect(Collectors.toList());
+    // Convert cells that meet the size threshold to bounding rectangles
+    // (into a fresh table, since the kept labellings own theirs)
+    if (labellings.stream().anyMatch(labelling -> labelling.stats == stats)) {
+        stats = new ComponentStats();
+    }
+    stats.accumulate(labels, null, componentCount, width, height, image);
+    return collectCells(stats, CellClass.BACKGROUND);
 }
 
-    private void markCells(WritableImage image, List<Rectangle> cells, Color color) {
-        // Create a Canvas to overlay text
-        Canvas canvas = new Canvas(image.getWidth(), image.getHeight());
-        GraphicsContext gc = canvas.getGraphicsContext2D();
-
-        // Draw the original image onto the canvas
-        gc.drawImage(image, 0, 0);
-
-        // Set up text properties
-        gc.setFill(color);
-        gc.setFont(new Font("Arial", 18)); // Adjust font and size as needed
-
-        // Draw rectangles and numbers
-        for (int i = 0; i < cells.size(); i++) {
-            Rectangle cell = cells.get(i);
-            drawRectangle(image, cell, color);
-
-            // Draw cell number
-            String number = String.valueOf(i + 1);
-            gc.fillText(number,
-                    cell.getX() + 10, // Position slightly inside top left corner of the rectangle. (Negative value is outside and above)
-                    cell.getY() + 25); // Position slightly inside top left corner of the rectangle. (Negative value is outside and above)
-        }
-
-        // Convert canvas back to WritableImage
-        SnapshotParameters params = new SnapshotParameters();
-        WritableImage newImage = canvas.snapshot(params, null);
-
-        // Copy the text overlay back to the original image
-        PixelWriter writer = image.getPixelWriter();
-        PixelReader reader = newImage.getPixelReader();
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                Color pixelColor = reader.getColor(x, y);
-                // Only copy non-transparent pixels (the text)
-                if (pixelColor.getOpacity() > 0) {
-                    writer.setColor(x, y, pixelColor);
-                }
-            }
+    /**
+     * Classifies every pixel once into a compact class map, with one lookup per pixel in the
+     * colour table for the current thresholds.
+     * A pixel can never match both cell types (one needs blue &gt; red, the other red &gt; blue),
+     * so a single byte per pixel is enough.
+     *
+     * @param image The source pixels
+     * @return One {@link CellClass} value per pixel, in row-major order
+     */
+    byte[] classifyPixels(RasterBuffer image) {
+        return colourLut().classify(image);
+    }
+
+    /**
+     * Detects white and red cells together in a single raster scan.
+     * Each pixel is classified exactly once, and both cell types are labelled together by the
+     * configured {@link ComponentLabeler}: pixels are only joined to 4-connected neighbours of
+     * the same class, so white and red components never merge.
+     * Once a colour threshold changes for the same image, component trees of the image are
+     * built in the background, and when they are ready the cells come from them instead
+     * (see {@link #detectFromTrees}).
+     *
+     * @param image The source pixels to analyze
+     * @return The bounding boxes of both cell types
+     */
+private CellDetectionResult detectAllCells(RasterBuffer image) {
+    if (componentTrees && !isLabelled(image, true)) {
+        CellTrees ready = readyTrees(image);
+        if (ready != null) {
+            return detectFromTrees(ready);
+        }
+        if (isLabelled(image, false)) {
+            // A colour threshold changed on an image that was already labelled, so more
+            // changes are likely: index the image while this change is labelled as usual
+            startTreeBuild(image);
+        }
+    }
+    stats = labelledStats(image);
+
+    // Convert cells of each type that meet the size threshold to bounding rectangles
+    return new CellDetectionResult(
+            collectCells(stats, CellClass.WHITE_CELL),
+            collectCells(stats, CellClass.RED_CELL));
+}
+
+    /**
+     * Returns the component statistics of an image at the current colour thresholds.
+     * If the image was labelled recently at the same thresholds (only the cell sizes
+     * changed), the kept statistics are returned and no pixel is read.
+     *
+     * @param image The source pixels to analyze
+     * @return The statistics of every component of both cell types
+     */
+private ComponentStats labelledStats(RasterBuffer image) {
+    for (Iterator<Labelling> it = labellings.iterator(); it.hasNext(); ) {
+        Labelling labelling = it.next();
+        if (labelling.matches(image, whiteCellThreshold, redCellThreshold)) {
+            it.remove();
+            labellings.addFirst(labelling);
+            return labelling.stats;
         }
     }
 
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] classes = classifyPixels(image);
+    ImageProcessor.checkCancelled();
 
-    // Helper methods for drawing...
-    private void drawRectangle(WritableImage image, Rectangle rect, Color color) {
-        PixelWriter writer = image.getPixelWriter();
-        int x = (int) rect.getX();
-        int y = (int) rect.getY();
-        int width = (int) rect.getWidth();
-        int height = (int) rect.getHeight();
-        int thickness = 2;
+    // Recycle the statistics arrays of the oldest labelling
+    ComponentStats labelledStats = labellings.size() >= LABELLINGS_KEPT
+            ? labellings.removeLast().stats : new ComponentStats();
 
-        // Cast image dimensions to int
-        int imageWidth = (int) image.getWidth();
-        int imageHeight = (int) image.getHeight();
+    // The run-length engine builds the statistics from its runs and needs no label image
+    int[] labels = labeler instanceof RunLengthComponentLabeler ? null : labelBuffer(width * height);
 
-        // Draw borders
-        drawHorizontalLines(writer, x, y, width, height, color, thickness, imageWidth, imageHeight);
-        drawVerticalLines(writer, x, y, width, height, color, thickness, imageWidth, imageHeight);
-        drawCornerHighlights(writer, x, y, width, height, color, imageWidth, imageHeight);
-    }
+    // Label connected pixels of the same class, with the area, bounding box
+    // and colour of every component
+    labeler.labelStats(classes, width, height, labels, labelledStats, image);
+    labellingRuns++;
+    ImageProcessor.checkCancelled();
 
-    private void drawHorizontalLines(PixelWriter writer, int x, int y, int width, int height,
-                                     Color color, int thickness, int maxWidth, int maxHeight) {
-        for (int t = 0; t < thickness; t++) {
-            // Top line
-            for (int i = x; i < x + width; i++) {
-                if (i >= 0 && i < maxWidth && y + t >= 0 && y + t < maxHeight) {
-                    writer.setColor(i, y + t, color);
-                }
-            }
-            // Bottom line
-            for (int i = x; i < x + width; i++) {
-                if (i >= 0 && i < maxWidth && y + height - t >= 0 && y + height - t < maxHeight) {
-                    writer.setColor(i, y + height - t, color);
-                }
+    labellings.addFirst(new Labelling(image, whiteCellThreshold, redCellThreshold, labelledStats));
+    return labelledStats;
+}
+
+    /**
+     * @param image          The source pixels
+     * @param sameThresholds true to also require the current colour thresholds
+     * @return true if one of the kept labellings is of this image
+     */
+    private boolean isLabelled(RasterBuffer image, boolean sameThresholds) {
+        for (Labelling labelling : labellings) {
+            if (sameThresholds ? labelling.matches(image, whiteCellThreshold, redCellThreshold)
+                               : labelling.image.isOf(image)) {
+                return true;
             }
         }
+        return false;
     }
 
-    private void drawVerticalLines(PixelWriter writer, int x, int y, int width, int height,
-                                   Color color, int thickness, int maxWidth, int maxHeight) {
-        for (int t = 0; t < thickness; t++) {
-            // Left line
-            for (int j = y; j < y + height; j++) {
-                if (x + t >= 0 && x + t < maxWidth && j >= 0 && j < maxHeight) {
-                    writer.setColor(x + t, j, color);
-                }
-            }
-            // Right line
-            for (int j = y; j < y + height; j++) {
-                if (x + width - t >= 0 && x + width - t < maxWidth && j >= 0 && j < maxHeight) {
-                    writer.setColor(x + width - t, j, color);
-                }
+    /**
+     * @return The component trees of the image, or null if they aren't built (yet)
+     */
+    private CellTrees readyTrees(RasterBuffer image) {
+        TreeBuild build = treeBuildOf(image);
+        return build == null ? null : build.ready();
+    }
+
+    /**
+     * @return The kept tree build of an image, moved to the front, or null if there is none
+     */
+    private TreeBuild treeBuildOf(RasterBuffer image) {
+        for (Iterator<TreeBuild> it = treeBuilds.iterator(); it.hasNext(); ) {
+            TreeBuild build = it.next();
+            if (build.image.isOf(image)) {
+                it.remove();
+                treeBuilds.addFirst(build);
+                return build;
             }
         }
+        return null;
+    }
+
+    /**
+     * Builds the two component trees of an image in the background, both at once, unless
+     * they are already built or being built. The oldest kept build beyond {@link #TREES_KEPT}
+     * is cancelled. The colour rules split into a fixed mask
+     * and a threshold:
+     * <ul>
+     *     <li>white: blue &gt; red (mask) and brightness &lt; the white threshold, so the
+     *     white cells are components of a lower level set of brightness, in a min-tree</li>
+     *     <li>red: red &gt; blue and brightness &lt; 0.8 (mask) and red &gt; the red threshold,
+     *     so the red cells are components of an upper level set of red, in a max-tree</li>
+     * </ul>
+     * The trees use the same connectivity as the labeler, so they give exactly the cells the
+     * labelling finds, in the same order.
+     *
+     * @param image The source pixels; they must not change while the trees are built
+     */
+    private void startTreeBuild(RasterBuffer image) {
+        if (treeBuildOf(image) != null) {
+            return;
+        }
+        while (treeBuilds.size() >= TREES_KEPT) {
+            treeBuilds.removeLast().cancel();
+        }
+        Connectivity connectivity = labeler.getConnectivity();
+        Future<ComponentTree> white = treeWorker().submit(() -> buildTree("white", () ->
+                ComponentTree.minTree(image, BrightnessLevels.count(), argb -> {
+                    int r = RasterBuffer.red(argb);
+                    int g = RasterBuffer.green(argb);
+                    int b = RasterBuffer.blue(argb);
+                    return b > r ? BrightnessLevels.level(r, g, b) : -1;
+                }, connectivity)));
+        Future<ComponentTree> red = treeWorker().submit(() -> buildTree("red", () ->
+                ComponentTree.maxTree(image, 256, argb -> {
+                    int r = RasterBuffer.red(argb);
+                    int g = RasterBuffer.green(argb);
+                    int b = RasterBuffer.blue(argb);
+                    return r > b && brightness(r, g, b) < 0.8 ? r : -1;
+                }, connectivity)));
+        treeBuilds.addFirst(new TreeBuild(image, white, red));
+    }
+
+    /**
+     * Runs one tree build, logging its time or its failure. Being cancelled is not a failure.
+     */
+    private static ComponentTree buildTree(String cellType, Supplier<ComponentTree> build) {
+        long start = System.nanoTime();
+        try {
+            ComponentTree tree = build.get();
+            System.out.printf("Built %s cell component tree (%d nodes) in %.1f ms%n",
+                    cellType, tree.getNodeCount(), (System.nanoTime() - start) / 1_000_000.0);
+            return tree;
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            System.err.println("Building the " + cellType + " cell component tree failed: " + e);
+            throw e;
+        }
+    }
+
+    private synchronized ExecutorService treeWorker() {
+        if (treeWorker == null) {
+            // One thread per tree, so the white and red trees of an image build at once
+            treeWorker = Executors.newFixedThreadPool(2, runnable -> {
+                Thread thread = new Thread(runnable, "component-tree-builder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return treeWorker;
+    }
+
+    /**
+     * Waits for component trees being built in the background, if there are any.
+     */
+    void awaitComponentTrees() {
+        for (TreeBuild build : new ArrayList<>(treeBuilds)) {
+            build.await();
+        }
+    }
+
+    /**
+     * Detects both cell types from component trees, at the current thresholds.
+     * Runs in O(number of tree nodes), without reading a pixel.
+     *
+     * @param trees The component trees of the image
+     * @return The bounding boxes of both cell types
+     */
+    private CellDetectionResult detectFromTrees(CellTrees trees) {
+        // White: brightness below the threshold, i.e. the levels of the values below it
+        int whiteLevel = BrightnessLevels.countBelow(whiteCellThreshold) - 1;
+        List<Rectangle> whiteCells = whiteLevel < 0 ? new ArrayList<>()
+                : collectCells(trees.white(), trees.white().componentsAt(whiteLevel));
+
+        // Red: the smallest red value over the threshold, and everything above it
+        int redLevel = 0;
+        while (redLevel < 256 && !(redLevel / 255.0 > redCellThreshold)) {
+            redLevel++;
+        }
+        List<Rectangle> redCells = redLevel > 255 ? new ArrayList<>()
+                : collectCells(trees.red(), trees.red().componentsAt(redLevel));
+
+        return new CellDetectionResult(whiteCells, redCells);
     }
 
-    private void drawCornerHighlights(PixelWriter writer, int x, int y, int width, int height,
-                                      Color color, int maxWidth, int maxHeight) {
-        int cornerSize = 6;
-        for (int i = 0; i < cornerSize; i++) {
-            for (int j = 0; j < cornerSize; j++) {
-                drawCornerPixel(writer, x + i, y + j, color, maxWidth, maxHeight);  // Top-left
-                drawCornerPixel(writer, x + width - i, y + j, color, maxWidth, maxHeight);  // Top-right
-                drawCornerPixel(writer, x + i, y + height - j, color, maxWidth, maxHeight);  // Bottom-left
-                drawCornerPixel(writer, x + width - i, y + height - j, color, maxWidth, maxHeight);  // Bottom-right
+    /**
+     * Builds the bounding box of every component that is within the cell size limits.
+     *
+     * @param tree       The component tree
+     * @param components Nodes of the tree, in raster order
+     * @return The bounding boxes, in the same order
+     */
+    private List<Rectangle> collectCells(ComponentTree tree, int[] components) {
+        List<Rectangle> cells = new ArrayList<>();
+        for (int node : components) {
+            int area = tree.getArea(node);
+            if (area >= minCellSize && area <= maxCellSize) {
+                int minX = tree.getMinX(node);
+                int minY = tree.getMinY(node);
+                cells.add(new Rectangle(minX, minY,
+                        tree.getMaxX(node) - minX,
+                        tree.getMaxY(node) - minY));
             }
         }
+        return cells;
     }
 
-    private void drawCornerPixel(PixelWriter writer, int x, int y, Color color, int maxWidth, int maxHeight) {
-        if (x >= 0 && x < maxWidth && y >= 0 && y < maxHeight) {
-            writer.setColor(x, y, color);
+    /**
+     * Turns answering threshold changes from component trees on or off (on by default).
+     * Off, every change of a colour threshold labels the image again, and no trees are built.
+     *
+     * @param componentTrees true to use component trees
+     */
+    public void setComponentTrees(boolean componentTrees) {
+        this.componentTrees = componentTrees;
+        if (!componentTrees) {
+            releaseTrees();
         }
     }
 
-    private WritableImage copyOriginalImage(Image originalImage) {
-        int width = (int) originalImage.getWidth();
-        int height = (int) originalImage.getHeight();
-        WritableImage processedImage = new WritableImage(width, height);
-        PixelWriter writer = processedImage.getPixelWriter();
-        PixelReader reader = originalImage.getPixelReader();
+    public boolean isComponentTrees() {
+        return componentTrees;
+    }
+
+    private void releaseTrees() {
+        for (TreeBuild build : treeBuilds) {
+            build.cancel();
+        }
+        treeBuilds.clear();
+    }
+
+    /**
+     * @return The number of times an image was actually labelled, i.e. not answered from
+     * the kept statistics
+     */
+    int getLabellingRuns() {
+        return labellingRuns;
+    }
+
+    /**
+     * Drops the kept labellings and component trees, e.g. after changing the pixels of a
+     * raster in place.
+     */
+    public void clearLabellings() {
+        labellings.clear();
+        releaseTrees();
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                writer.setColor(x, y, reader.getColor(x, y));
+    /**
+     * Builds the bounding box of every component of one class whose area is within the
+     * cell size limits. Runs in O(number of components).
+     *
+     * @param stats The statistics of the last labelling
+     * @param cellClass The class to collect, or BACKGROUND to take every component
+     * @return The bounding boxes, in raster order of each cell's first pixel
+     */
+    private List<Rectangle> collectCells(ComponentStats stats, byte cellClass) {
+        List<Rectangle> cells = new ArrayList<>();
+        for (int label = 1; label <= stats.getComponentCount(); label++) {
+            int area = stats.getArea(label);
+            if (area >= minCellSize && area <= maxCellSize &&
+                (cellClass == CellClass.BACKGROUND || stats.getCellClass(label) == cellClass)) {
+                int minX = stats.getMinX(label);
+                int minY = stats.getMinY(label);
+                cells.add(new Rectangle(minX, minY,
+                        stats.getMaxX(label) - minX,
+                        stats.getMaxY(label) - minY));
             }
         }
+        return cells;
+    }
 
-        return processedImage;
+    /**
+     * @return The reusable label buffer, grown to at least n elements
+     */
+    private int[] labelBuffer(int n) {
+        if (labelBuffer.length < n) {
+            labelBuffer = new int[n];
+        }
+        return labelBuffer;
+    }
 
+    /**
+     * Returns the statistics of every component found by the last labelling,
+     * including those filtered out by size. Detections answered from the component
+     * trees don't label, and leave these unchanged.
+     *
+     * @return The component statistics, indexed by label
+     */
+    public ComponentStats getComponentStats() {
+        return stats;
     }
 
+    /**
+     * Outlines and numbers both cell types directly in the raster: white cells in dark red,
+     * red cells in dark blue.
+     *
+     * @param raster The raster to draw on
+     * @param cells The detected cells
+     */
+    void drawCells(RasterBuffer raster, CellDetectionResult cells) {
+        renderer.drawCells(raster, cells);
+    }
 
     /**
      * Returns the name of this image processor.
@@ -0,0 +1,114 @@
+package com.michaelmckibbin.imageanalysis;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PixelKernels} on SIMD lanes with the Vector API.
+ * <p>
+ * Pixels are loaded as ints, and the channels are unpacked into int lanes with shifts and
+ * masks. The arithmetic is then done in doubles, with exactly the operations (and order)
+ * of {@link ScalarPixelKernels}; Java double arithmetic is IEEE 754 on both paths, so the
+ * results are identical. The int species is half the width of the preferred double species
+ * so both have the same number of lanes, and masks can be moved between them. The last
+ * length % lanes pixels of a row go through the scalar kernel.
+ * <p>
+ * Only load this class after checking {@link PixelKernels#isVectorAvailable()}.
+ *
+ * @author Michael McKibbin (20092733)
+ * @version 1.0 (2024-02-20)
+ *
+ */
+final class VectorPixelKernels implements PixelKernels {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(Math.max(64, DOUBLES.vectorBitSize() / 2)));
+
+    static final VectorPixelKernels INSTANCE = new VectorPixelKernels();
+
+    private VectorPixelKernels() {
+    }
+
+    /**
+     * @return true if the preferred vectors are wide enough (at least two doubles)
+     */
+    static boolean isSupported() {
+        return DOUBLES.vectorBitSize() >= 128 && INTS.length() == DOUBLES.length();
+    }
+
+    @Override
+    public void threshold(int[] in, int inPos, int[] out, int outPos, int length,
+                          double rgbAdjustment, double threshold, int above, int below) {
+        int lanes = INTS.length();
+        int upper = length - length % lanes;
+        IntVector belowVector = IntVector.broadcast(INTS, below);
+        int i = 0;
+        for (; i < upper; i += lanes) {
+            IntVector pixels = IntVector.fromArray(INTS, in, inPos + i);
+            DoubleVector red = toDouble(channel(pixels, 16)).div(255.0);
+            DoubleVector green = toDouble(channel(pixels, 8)).div(255.0);
+            DoubleVector blue = toDouble(channel(pixels, 0)).div(255.0);
+
+            DoubleVector luminance = red.mul(0.299)
+                    .add(green.mul(0.587))
+                    .add(blue.mul(0.114))
+                    .mul(rgbAdjustment);
+
+            VectorMask<Integer> bright = luminance.compare(VectorOperators.GT, threshold).cast(INTS);
+            belowVector.blend(above, bright).intoArray(out, outPos + i);
+        }
+        ScalarPixelKernels.INSTANCE.threshold(in, inPos + i, out, outPos + i, length - i,
+                rgbAdjustment, threshold, above, below);
+    }
+
+    @Override
+    public void tricolour(int[] in, int inPos, int[] out, int outPos, int length,
+                          double brightness, int purple, int pink, int background) {
+        int lanes = INTS.length();
+        int upper = length - length % lanes;
+        IntVector backgroundVector = IntVector.broadcast(INTS, background);
+        int i = 0;
+        for (; i < upper; i += lanes) {
+            IntVector pixels = IntVector.fromArray(INTS, in, inPos + i);
+            IntVector r = channel(pixels, 16);
+            IntVector g = channel(pixels, 8);
+            IntVector b = channel(pixels, 0);
+
+            DoubleVector purpleIntensity = toDouble(r).div(255.0)
+                    .add(toDouble(b).div(255.0))
+                    .div(2.0)
+                    .sub(toDouble(g).div(255.0))
+                    .add(brightness);
+            VectorMask<Integer> cell = purpleIntensity.compare(VectorOperators.GT, 0.15).cast(INTS);
+
+            // HSB brightness under 0.6, and blue the strongest channel
+            VectorMask<Integer> dark = toDouble(r.max(g).max(b)).div(255.0)
+                    .compare(VectorOperators.LT, 0.6).cast(INTS);
+            VectorMask<Integer> whiteCell = cell.and(dark)
+                    .and(b.compare(VectorOperators.GT, r))
+                    .and(b.compare(VectorOperators.GT, g));
+
+            backgroundVector.blend(pink, cell).blend(purple, whiteCell).intoArray(out, outPos + i);
+        }
+        ScalarPixelKernels.INSTANCE.tricolour(in, inPos + i, out, outPos + i, length - i,
+                brightness, purple, pink, background);
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+    private static IntVector channel(IntVector pixels, int shift) {
+        return pixels.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+    }
+
+    private static DoubleVector toDouble(IntVector values) {
+        return (DoubleVector) values.convertShape(VectorOperators.I2D, DOUBLES, 0);
+    }
+}
@@ -9,6 +9,9 @@ module com.michaelmckibbin.imageanalysis {
     requires javafx.swing;
     requires opencv;
 
+    // SIMD pixel kernels, optional at runtime (see PixelKernels)
+    requires static jdk.incubator.vector;
+
     // Testing requirements
     //requires org.junit.jupiter.api;
     requires testfx.core;
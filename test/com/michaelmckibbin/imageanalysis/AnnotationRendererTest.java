@@ -0,0 +1,108 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.shape.Rectangle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AnnotationRendererTest {
+
+    private static final int WHITE = RasterBuffer.rgb(255, 255, 255);
+    private static final int INK = RasterBuffer.rgb(0, 0, 139);
+
+    private RasterBuffer raster;
+    private AnnotationRenderer renderer;
+
+    @BeforeEach
+    void setUp() {
+        raster = new RasterBuffer(200, 120);
+        raster.fill(WHITE);
+        renderer = new AnnotationRenderer();
+    }
+
+    @Test
+    void testOutlineMatchesPixelDrawing() {
+        Rectangle cell = new Rectangle(20, 30, 40, 25);
+        renderer.drawOutline(raster, cell, INK);
+
+        // The outline as it was drawn pixel by pixel before
+        RasterBuffer expected = new RasterBuffer(200, 120);
+        expected.fill(WHITE);
+        int x = 20, y = 30, w = 40, h = 25;
+        for (int t = 0; t < 2; t++) {
+            for (int i = x; i < x + w; i++) {
+                expected.set(i, y + t, INK);
+                expected.set(i, y + h - t, INK);
+            }
+            for (int j = y; j < y + h; j++) {
+                expected.set(x + t, j, INK);
+                expected.set(x + w - t, j, INK);
+            }
+        }
+        for (int i = 0; i < 6; i++) {
+            for (int j = 0; j < 6; j++) {
+                expected.set(x + i, y + j, INK);
+                expected.set(x + w - i, y + j, INK);
+                expected.set(x + i, y + h - j, INK);
+                expected.set(x + w - i, y + h - j, INK);
+            }
+        }
+        assertArrayEquals(expected.getPixels(), raster.getPixels());
+    }
+
+    @Test
+    void testOutlineIsClippedToRaster() {
+        renderer.drawOutline(raster, new Rectangle(-10, -10, 30, 30), INK);
+        renderer.drawOutline(raster, new Rectangle(190, 110, 30, 30), INK);
+        assertEquals(INK, raster.get(19, 0));
+        assertEquals(INK, raster.get(0, 19));
+        assertEquals(INK, raster.get(199, 110));
+        assertEquals(INK, raster.get(190, 119));
+        assertEquals(WHITE, raster.get(100, 60));
+    }
+
+    @Test
+    void testNumbersAreDrawnInsideTheirCell() {
+        Rectangle cell = new Rectangle(50, 40, 60, 60);
+        renderer.drawNumbers(raster, List.of(cell), INK);
+
+        int inked = 0;
+        for (int y = 0; y < raster.getHeight(); y++) {
+            for (int x = 0; x < raster.getWidth(); x++) {
+                if (raster.get(x, y) != WHITE) {
+                    inked++;
+                    // The digit "1" sits right of x + 10, above the baseline at y + 25
+                    assertTrue(x >= 55 && x < 75, "x " + x);
+                    assertTrue(y >= 40 && y <= 70, "y " + y);
+                }
+            }
+        }
+        assertTrue(inked > 10, "Too few pixels for a digit: " + inked);
+    }
+
+    @Test
+    void testMoreDigitsTakeMoreRoom() {
+        GlyphAtlas atlas = GlyphAtlas.of("Arial", 18);
+        assertSame(atlas, GlyphAtlas.of("Arial", 18));
+
+        int end1 = atlas.drawNumber(raster, 7, 10, 30, INK);
+        int end3 = atlas.drawNumber(raster, 123, 10, 60, INK);
+        assertEquals(10 + atlas.getAdvance(7), end1);
+        assertEquals(10 + atlas.getAdvance(1) + atlas.getAdvance(2) + atlas.getAdvance(3), end3);
+        assertThrows(IllegalArgumentException.class, () -> atlas.drawNumber(raster, -1, 0, 0, INK));
+
+        // Numbers partly or fully off the raster are clipped
+        atlas.drawNumber(raster, 88, -5, 5, INK);
+        atlas.drawNumber(raster, 88, 500, 500, INK);
+    }
+
+    @Test
+    void testBlend() {
+        assertEquals(INK, GlyphAtlas.blend(WHITE, INK, 255));
+        assertEquals(WHITE, GlyphAtlas.blend(WHITE, INK, 0));
+        assertEquals(RasterBuffer.rgb(127, 127, 197), GlyphAtlas.blend(WHITE, INK, 128));
+    }
+}
@@ -0,0 +1,51 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloodCellProcessorTest {
+
+    private static final int PURPLE = RasterBuffer.rgb(200, 20, 210);
+
+    private BloodCellProcessor processor;
+    private ProcessingParameters params;
+
+    @BeforeEach
+    void setUp() {
+        processor = new BloodCellProcessor();
+        params = new ProcessingParameters(0, 0, 0, 0, 0, 0, 50, 10, 0, 100);
+    }
+
+    @Test
+    void testSmallCellIsMarked() {
+        RasterBuffer image = new RasterBuffer(40, 40);
+        image.fill(0xFFFFFFFF);
+        // A U shape, so the fill has to go back up from the bottom row
+        for (int y = 10; y < 20; y++) {
+            for (int x = 10; x < 20; x++) {
+                if (y == 19 || x < 12 || x > 17) {
+                    image.set(x, y, PURPLE);
+                }
+            }
+        }
+
+        RasterBuffer result = processor.processRaster(image, params);
+        int marker = result.get(10, 10);
+        assertNotEquals(PURPLE, marker);
+        // The box spans the whole U, not just the arm the fill started in
+        assertEquals(marker, result.get(19, 10));
+        assertEquals(marker, result.get(10, 19));
+    }
+
+    @Test
+    void testVeryLargeCell() {
+        // Bigger than the maximum cell size: filled without running out of memory, and not marked
+        RasterBuffer image = new RasterBuffer(2000, 1500);
+        image.fill(PURPLE);
+
+        RasterBuffer result = processor.processRaster(image, params);
+        assertArrayEquals(image.getPixels(), result.getPixels());
+    }
+}
@@ -0,0 +1,68 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColourClassLutTest {
+
+    private static final ColourClassLut.Classifier BLUE_OVER_RED =
+            (r, g, b) -> b > r ? CellClass.WHITE_CELL : r > 200 ? CellClass.RED_CELL : CellClass.BACKGROUND;
+
+    @BeforeEach
+    void setUp() {
+        ColourClassLut.clearCache();
+    }
+
+    @Test
+    void testTableMatchesClassifier() {
+        ColourClassLut lut = ColourClassLut.build(BLUE_OVER_RED);
+        for (int rgb = 0; rgb < 1 << 24; rgb += 997) {
+            int r = rgb >> 16 & 0xFF;
+            int g = rgb >> 8 & 0xFF;
+            int b = rgb & 0xFF;
+            assertEquals(BLUE_OVER_RED.classify(r, g, b), lut.get(0xFF000000 | rgb));
+        }
+        assertEquals(CellClass.RED_CELL, lut.get(RasterBuffer.rgb(255, 255, 255)));
+        assertEquals(CellClass.WHITE_CELL, lut.get(RasterBuffer.rgb(0, 0, 1)));
+    }
+
+    @Test
+    void testClassifyRaster() {
+        RasterBuffer image = new RasterBuffer(3, 2);
+        image.fill(RasterBuffer.rgb(10, 10, 10));
+        image.set(1, 0, RasterBuffer.rgb(0, 0, 200));
+        image.set(2, 1, RasterBuffer.rgb(250, 0, 0));
+
+        byte[] classes = ColourClassLut.build(BLUE_OVER_RED).classify(image);
+        assertArrayEquals(new byte[]{0, 1, 0, 0, 0, 2}, classes);
+    }
+
+    @Test
+    void testTableBuiltOnceItPaysOff() {
+        RasterBuffer image = new RasterBuffer(64, 64);
+        for (int p = 0; p < 64 * 64; p++) {
+            image.set(p % 64, p / 64, 0xFF000000 | p * 4099);
+        }
+        byte[] expected = ColourClassLut.build(BLUE_OVER_RED).classify(image);
+
+        // A small image is classified directly, and gives the same classes
+        ColourClassLut lut = ColourClassLut.of(List.of("test", "lazy"), BLUE_OVER_RED);
+        assertArrayEquals(expected, lut.classify(image));
+        assertFalse(lut.isBuilt());
+
+        lut.prepareFor(1 << 24);
+        assertTrue(lut.isBuilt());
+        assertArrayEquals(expected, lut.classify(image));
+    }
+
+    @Test
+    void testCachedByKey() {
+        ColourClassLut first = ColourClassLut.of(List.of("test", 0.5), BLUE_OVER_RED);
+        assertSame(first, ColourClassLut.of(List.of("test", 0.5), BLUE_OVER_RED));
+        assertNotSame(first, ColourClassLut.of(List.of("test", 0.6), BLUE_OVER_RED));
+    }
+}
@@ -0,0 +1,148 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComponentLabelerTest {
+
+    @Test
+    void testSmallImageFourConnectivity() {
+        // Diagonal pixels are separate components with 4-connectivity
+        byte[] classes = {
+                1, 0, 2,
+                0, 1, 2,
+                1, 1, 0
+        };
+        int[] labels = new int[classes.length];
+        int count = new BlockComponentLabeler(Connectivity.FOUR).label(classes, 3, 3, labels);
+
+        assertEquals(3, count);
+        assertArrayEquals(new int[]{
+                1, 0, 2,
+                0, 3, 2,
+                3, 3, 0
+        }, labels);
+    }
+
+    @Test
+    void testSmallImageEightConnectivity() {
+        byte[] classes = {
+                1, 0, 2,
+                0, 1, 2,
+                1, 1, 0
+        };
+        int[] labels = new int[classes.length];
+        int count = new BlockComponentLabeler(Connectivity.EIGHT).label(classes, 3, 3, labels);
+
+        assertEquals(2, count);
+        assertArrayEquals(new int[]{
+                1, 0, 2,
+                0, 1, 2,
+                1, 1, 0
+        }, labels);
+    }
+
+    @Test
+    void testBlockLabelerMatchesPixelLabeler() {
+        Random random = new Random(42);
+        for (Connectivity connectivity : Connectivity.values()) {
+            ComponentLabeler block = new BlockComponentLabeler(connectivity);
+            ComponentLabeler pixel = new PixelComponentLabeler(connectivity);
+            for (int i = 0; i < 500; i++) {
+                // Odd sizes exercise the partial blocks at the right and bottom edges
+                int width = 1 + random.nextInt(24);
+                int height = 1 + random.nextInt(24);
+                double density = random.nextDouble();
+                byte[] classes = new byte[width * height];
+                for (int p = 0; p < classes.length; p++) {
+                    if (random.nextDouble() < density) {
+                        classes[p] = (byte) (1 + random.nextInt(2));
+                    }
+                }
+
+                int[] expected = new int[classes.length];
+                int[] actual = new int[classes.length];
+                assertEquals(pixel.label(classes, width, height, expected),
+                        block.label(classes, width, height, actual));
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void testParallelLabelerMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Random random = new Random(7);
+        try {
+            for (Connectivity connectivity : Connectivity.values()) {
+                ComponentLabeler parallel = new ParallelComponentLabeler(connectivity, pool);
+                ComponentLabeler pixel = new PixelComponentLabeler(connectivity);
+                for (int i = 0; i < 20; i++) {
+                    // Tall enough to be split into several strips
+                    int width = 1 + random.nextInt(100);
+                    int height = 200 + random.nextInt(400);
+                    double density = random.nextDouble();
+                    byte[] classes = new byte[width * height];
+                    for (int p = 0; p < classes.length; p++) {
+                        if (random.nextDouble() < density) {
+                            classes[p] = (byte) (1 + random.nextInt(2));
+                        }
+                    }
+
+                    int[] expected = new int[classes.length];
+                    int[] actual = new int[classes.length];
+                    assertEquals(pixel.label(classes, width, height, expected),
+                            parallel.label(classes, width, height, actual));
+                    assertArrayEquals(expected, actual);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testRunLengthLabelerMatchesPixelLabeler() {
+        Random random = new Random(3);
+        for (Connectivity connectivity : Connectivity.values()) {
+            RunLengthComponentLabeler runs = new RunLengthComponentLabeler(connectivity);
+            ComponentLabeler pixel = new PixelComponentLabeler(connectivity);
+            for (int i = 0; i < 500; i++) {
+                int width = 1 + random.nextInt(24);
+                int height = 1 + random.nextInt(24);
+                double density = random.nextDouble();
+                byte[] classes = new byte[width * height];
+                for (int p = 0; p < classes.length; p++) {
+                    if (random.nextDouble() < density) {
+                        classes[p] = (byte) (1 + random.nextInt(2));
+                    }
+                }
+
+                int[] expected = new int[classes.length];
+                int[] actual = new int[classes.length];
+                int count = pixel.label(classes, width, height, expected);
+                assertEquals(count, runs.label(classes, width, height, actual));
+                assertArrayEquals(expected, actual);
+
+                // Statistics straight from the runs, without a label image
+                ComponentStats fromPixels = new ComponentStats();
+                fromPixels.accumulate(expected, classes, count, width, height, null);
+                ComponentStats fromRuns = new ComponentStats();
+                runs.labelStats(classes, width, height, null, fromRuns, null);
+                for (int label = 1; label <= count; label++) {
+                    assertEquals(fromPixels.getArea(label), fromRuns.getArea(label));
+                    assertEquals(fromPixels.getMinX(label), fromRuns.getMinX(label));
+                    assertEquals(fromPixels.getMaxX(label), fromRuns.getMaxX(label));
+                    assertEquals(fromPixels.getMinY(label), fromRuns.getMinY(label));
+                    assertEquals(fromPixels.getMaxY(label), fromRuns.getMaxY(label));
+                    assertEquals(fromPixels.getCentroidX(label), fromRuns.getCentroidX(label), 1e-9);
+                    assertEquals(fromPixels.getCellClass(label), fromRuns.getCellClass(label));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComponentStatsTest {
+
+    @Test
+    void testAccumulate() {
+        byte[] classes = {
+                1, 1, 0, 2,
+                0, 1, 0, 2,
+                0, 0, 0, 2
+        };
+        int[] labels = new int[classes.length];
+        int count = new PixelComponentLabeler(Connectivity.FOUR).label(classes, 4, 3, labels);
+        assertEquals(2, count);
+
+        RasterBuffer source = new RasterBuffer(4, 3);
+        source.fill(RasterBuffer.rgb(10, 20, 30));
+        source.set(0, 0, RasterBuffer.rgb(40, 50, 60));
+
+        ComponentStats stats = new ComponentStats();
+        stats.accumulate(labels, classes, count, 4, 3, source);
+
+        assertEquals(2, stats.getComponentCount());
+        assertEquals(3, stats.getArea(1));
+        assertEquals(0, stats.getMinX(1));
+        assertEquals(1, stats.getMaxX(1));
+        assertEquals(0, stats.getMinY(1));
+        assertEquals(1, stats.getMaxY(1));
+        assertEquals(2.0 / 3, stats.getCentroidX(1), 1e-9);
+        assertEquals(20.0, stats.getMeanRed(1), 1e-9);
+        assertEquals(CellClass.WHITE_CELL, stats.getCellClass(1));
+
+        assertEquals(3, stats.getArea(2));
+        assertEquals(3, stats.getMinX(2));
+        assertEquals(2, stats.getMaxY(2));
+        assertEquals(1.0, stats.getCentroidY(2), 1e-9);
+        assertEquals(CellClass.RED_CELL, stats.getCellClass(2));
+    }
+
+    @Test
+    void testResetReusesArrays() {
+        ComponentStats stats = new ComponentStats();
+        int[] labels = {1, 1, 2, 0};
+        stats.accumulate(labels, null, 2, 4, 1, null);
+        assertEquals(2, stats.getArea(1));
+
+        stats.accumulate(new int[]{0, 1, 0, 0}, null, 1, 4, 1, null);
+        assertEquals(1, stats.getComponentCount());
+        assertEquals(1, stats.getArea(1));
+        assertEquals(1, stats.getMinX(1));
+    }
+}
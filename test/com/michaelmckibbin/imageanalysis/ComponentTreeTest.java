@@ -0,0 +1,104 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ComponentTreeTest {
+
+    /** The level of a pixel is its blue channel; red 255 marks pixels left out */
+    private static int level(int argb) {
+        return RasterBuffer.red(argb) == 255 ? -1 : RasterBuffer.blue(argb);
+    }
+
+    @Test
+    void testNestedComponents() {
+        // Two pits at level 1 and 2 inside a plateau at level 5
+        RasterBuffer image = new RasterBuffer(7, 1);
+        int[] levels = {5, 1, 5, 5, 2, 5, 0};
+        for (int x = 0; x < levels.length; x++) {
+            image.set(x, 0, RasterBuffer.rgb(0, 0, levels[x]));
+        }
+        image.set(5, 0, RasterBuffer.rgb(255, 0, 0)); // cuts off the last pixel
+
+        ComponentTree tree = ComponentTree.minTree(image, 8, ComponentTreeTest::level, Connectivity.FOUR);
+        assertEquals(0, tree.componentsAt(-1).length);
+
+        int[] atOne = tree.componentsAt(1);
+        assertEquals(2, atOne.length);
+        assertEquals(1, tree.getMinX(atOne[0]));
+        assertEquals(6, tree.getMinX(atOne[1]));
+
+        int[] atFour = tree.componentsAt(4);
+        assertEquals(3, atFour.length);
+        assertEquals(4, tree.getMinX(atFour[1]));
+
+        int[] atFive = tree.componentsAt(5);
+        assertEquals(2, atFive.length);
+        assertEquals(5, tree.getArea(atFive[0]));
+        assertEquals(0, tree.getMinX(atFive[0]));
+        assertEquals(4, tree.getMaxX(atFive[0]));
+        assertEquals(5, tree.getLevel(atFive[0]));
+    }
+
+    @Test
+    void testMatchesLabellingAtEveryThreshold() {
+        Random random = new Random(42);
+        for (Connectivity connectivity : Connectivity.values()) {
+            ComponentLabeler labeler = new PixelComponentLabeler(connectivity);
+            for (int i = 0; i < 40; i++) {
+                int width = 1 + random.nextInt(30);
+                int height = 1 + random.nextInt(30);
+                RasterBuffer image = new RasterBuffer(width, height);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        image.set(x, y, random.nextInt(8) == 0
+                                ? RasterBuffer.rgb(255, 0, 0)
+                                : RasterBuffer.rgb(0, 0, random.nextInt(10)));
+                    }
+                }
+                ComponentTree min = ComponentTree.minTree(image, 10, ComponentTreeTest::level, connectivity);
+                ComponentTree max = ComponentTree.maxTree(image, 10, ComponentTreeTest::level, connectivity);
+
+                for (int t = 0; t < 10; t++) {
+                    assertSameComponents(image, labeler, min, t, false);
+                    assertSameComponents(image, labeler, max, t, true);
+                }
+            }
+        }
+    }
+
+    /**
+     * Labels the image thresholded at t and checks the tree gives the same components,
+     * in the same (raster) order.
+     */
+    private static void assertSameComponents(RasterBuffer image, ComponentLabeler labeler,
+                                             ComponentTree tree, int t, boolean above) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] classes = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int level = level(image.get(x, y));
+                boolean in = level >= 0 && (above ? level >= t : level <= t);
+                classes[y * width + x] = in ? CellClass.WHITE_CELL : CellClass.BACKGROUND;
+            }
+        }
+        int[] labels = new int[classes.length];
+        ComponentStats stats = new ComponentStats();
+        labeler.labelStats(classes, width, height, labels, stats, null);
+
+        int[] components = tree.componentsAt(t);
+        assertEquals(stats.getComponentCount(), components.length);
+        for (int i = 0; i < components.length; i++) {
+            int label = i + 1;
+            assertEquals(stats.getArea(label), tree.getArea(components[i]));
+            assertEquals(stats.getMinX(label), tree.getMinX(components[i]));
+            assertEquals(stats.getMinY(label), tree.getMinY(components[i]));
+            assertEquals(stats.getMaxX(label), tree.getMaxX(components[i]));
+            assertEquals(stats.getMaxY(label), tree.getMaxY(components[i]));
+        }
+    }
+}
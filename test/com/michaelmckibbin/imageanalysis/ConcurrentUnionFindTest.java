@@ -0,0 +1,108 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentUnionFindTest {
+    private ConcurrentUnionFind uf;
+
+    @BeforeEach
+    void setUp() {
+        uf = new ConcurrentUnionFind(10);
+    }
+
+    @Test
+    void testUnionAndFind() {
+        assertTrue(uf.union(1, 2));
+        assertTrue(uf.union(2, 3));
+        assertFalse(uf.union(1, 3));
+
+        assertTrue(uf.connected(1, 3));
+        assertFalse(uf.connected(1, 4));
+        assertEquals(1, uf.find(3)); // the smallest element is the root
+        assertEquals(8, uf.countSets());
+    }
+
+    @Test
+    void testInvalidIndex() {
+        assertThrows(IllegalArgumentException.class, () -> uf.find(10));
+        assertThrows(IllegalArgumentException.class, () -> uf.find(-1));
+    }
+
+    @Test
+    void testConcurrentUnionsMatchSequential() throws Exception {
+        int n = 200_000;
+        int threads = 8;
+        int unionsPerThread = 50_000;
+
+        // Same random pairs for both structures
+        Random random = new Random(1);
+        int[][] pairs = new int[threads * unionsPerThread][2];
+        for (int[] pair : pairs) {
+            pair[0] = random.nextInt(n);
+            pair[1] = random.nextInt(n);
+        }
+
+        UnionFind sequential = new UnionFind(n);
+        for (int[] pair : pairs) {
+            sequential.union(pair[0], pair[1]);
+        }
+
+        for (int run = 0; run < 5; run++) {
+            uf.reset(n);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> merges = new ArrayList<>();
+            try {
+                for (int t = 0; t < threads; t++) {
+                    int first = t * unionsPerThread;
+                    merges.add(executor.submit(() -> {
+                        start.await();
+                        int merged = 0;
+                        for (int i = first; i < first + unionsPerThread; i++) {
+                            if (uf.union(pairs[i][0], pairs[i][1])) {
+                                merged++;
+                            }
+                        }
+                        return merged;
+                    }));
+                }
+                start.countDown();
+                int merged = 0;
+                for (Future<Integer> future : merges) {
+                    merged += future.get();
+                }
+
+                // Every successful union removed exactly one set
+                assertEquals(n - merged, uf.countSets());
+                assertEquals(sequential.countSets(), uf.countSets());
+            } finally {
+                executor.shutdown();
+            }
+
+            // Same partition: the canonical labels agree element by element
+            sequential.flattenAll();
+            int[] seen = new int[sequential.countSets()];
+            Arrays.fill(seen, -1);
+            for (int i = 0; i < n; i++) {
+                int label = sequential.getLabel(i);
+                int root = uf.find(i);
+                if (seen[label] < 0) {
+                    seen[label] = root;
+                }
+                assertEquals(seen[label], root);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectedComponentsProcessorTest {
+
+    private static final int PURPLE = RasterBuffer.rgb(75, 0, 130);
+
+    private ConnectedComponentsProcessor processor;
+    private RasterBuffer image;
+
+    @BeforeEach
+    void setUp() {
+        processor = new ConnectedComponentsProcessor();
+        image = new RasterBuffer(60, 40);
+        image.fill(0xFFFFFFFF);
+    }
+
+    private void fillRect(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                image.set(x, y, PURPLE);
+            }
+        }
+    }
+
+    @Test
+    void testUShapedCellCountedOnce() {
+        // Two arms that only meet at the bottom: they get different provisional labels
+        fillRect(5, 5, 8, 25);
+        fillRect(20, 5, 23, 25);
+        fillRect(5, 22, 23, 25);
+
+        CellDetectionResult result = processor.detectCells(image, ProcessingParameters.getDefaultTricolourBlood());
+        assertEquals(1, result.getWhiteCellCount());
+        assertEquals(0, result.getRedCellCount());
+        assertEquals(5, result.getWhiteCells().get(0).getX());
+        assertEquals(18, result.getWhiteCells().get(0).getWidth());
+    }
+
+    @Test
+    void testDiagonalNeighboursJoin() {
+        // A staircase is one component with 8-connectivity; the box is 10 x 10
+        for (int i = 0; i < 10; i++) {
+            fillRect(30 + i, 10 + i, 30 + i, 10 + i);
+        }
+        fillRect(5, 5, 12, 12);
+
+        CellDetectionResult result = processor.detectCells(image, ProcessingParameters.getDefaultTricolourBlood());
+        assertEquals(2, result.getWhiteCellCount());
+    }
+}
@@ -0,0 +1,62 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ImagePyramidTest {
+
+    private RasterBuffer source;
+    private ImagePyramid pyramid;
+
+    @BeforeEach
+    void setUp() {
+        source = new RasterBuffer(101, 60);
+        source.fill(RasterBuffer.rgb(255, 255, 255));
+        pyramid = new ImagePyramid(source);
+    }
+
+    @Test
+    void testLevelSizes() {
+        assertSame(source, pyramid.getLevel(0));
+        assertEquals(51, pyramid.getLevel(1).getWidth());
+        assertEquals(30, pyramid.getLevel(1).getHeight());
+        assertEquals(26, pyramid.getLevel(2).getWidth());
+        assertEquals(15, pyramid.getLevel(2).getHeight());
+        assertSame(pyramid.getLevel(2), pyramid.getLevel(2));
+
+        // Levels stop at 1x1
+        assertEquals(1, pyramid.getLevel(20).getWidth());
+        assertEquals(1, pyramid.getLevel(20).getHeight());
+    }
+
+    @Test
+    void testBoxFilterAveragesChannels() {
+        source.set(0, 0, RasterBuffer.rgb(0, 0, 0));
+        source.set(1, 0, RasterBuffer.rgb(0, 0, 0));
+        RasterBuffer half = pyramid.getLevel(1);
+        assertEquals(RasterBuffer.rgb(128, 128, 128), half.get(0, 0));
+        assertEquals(RasterBuffer.rgb(255, 255, 255), half.get(1, 0));
+    }
+
+    @Test
+    void testLevelForBudget() {
+        assertEquals(0, pyramid.levelFor(101 * 60));
+        assertEquals(1, pyramid.levelFor(101 * 60 - 1));
+        assertEquals(2, pyramid.levelFor(26 * 15));
+        assertEquals(0.25, pyramid.getScale(2), 0.01);
+    }
+
+    @Test
+    void testScaledParametersShrinkCellSizes() {
+        ProcessingParameters params = ProcessingParameters.UnionFindBloodCellProcessor();
+        assertEquals(400, params.scaleArea(400));
+
+        ProcessingParameters quarter = params.scaledTo(0.25);
+        assertEquals(params.getMinCellSize(), quarter.getMinCellSize());
+        assertEquals(1.0 / 16, quarter.getAreaScale(), 1e-12);
+        assertEquals(25, quarter.scaleArea(400));
+        assertEquals(1, quarter.scaleArea(3));
+    }
+}
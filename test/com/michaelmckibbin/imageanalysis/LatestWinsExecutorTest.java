@@ -0,0 +1,84 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatestWinsExecutorTest {
+
+    private LatestWinsExecutor executor;
+    private List<Integer> results;
+
+    @BeforeEach
+    void setUp() {
+        executor = new LatestWinsExecutor("test-processing", Runnable::run);
+        results = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void testOnlyNewestResultDelivered() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        CountDownLatch done = new CountDownLatch(1);
+
+        // A long job that only stops when it is cancelled
+        executor.submit(() -> {
+            started.countDown();
+            while (true) {
+                try {
+                    ImageProcessor.checkCancelled();
+                } catch (RuntimeException e) {
+                    interrupted.set(true);
+                    throw e;
+                }
+                Thread.onSpinWait();
+            }
+        }, value -> results.add(-1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Superseded while waiting, so never run
+        for (int i = 1; i < 10; i++) {
+            int value = i;
+            executor.submit(() -> value, results::add);
+        }
+        executor.submit(() -> 10, value -> {
+            results.add(value);
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(interrupted.get());
+        assertEquals(List.of(10), results);
+    }
+
+    @Test
+    void testCancelAllDropsResult() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        executor.submit(() -> {
+            release.await();
+            return 1;
+        }, results::add);
+        executor.cancelAll();
+        release.countDown();
+
+        // Wait for the worker to finish the job
+        for (int i = 0; i < 500 && executor.isBusy(); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(executor.isBusy());
+        assertTrue(results.isEmpty());
+    }
+}
@@ -0,0 +1,59 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class PixelKernelsTest {
+
+    private int[] pixels;
+
+    @BeforeEach
+    void setUp() {
+        // Random colours, plus a grey ramp for values right at the thresholds
+        Random random = new Random(12);
+        pixels = new int[100_003];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = i < 256 ? RasterBuffer.rgb(i, i, i) : random.nextInt();
+        }
+    }
+
+    @Test
+    void testScalarThreshold() {
+        int[] out = new int[2];
+        int[] in = {RasterBuffer.rgb(255, 255, 255), RasterBuffer.rgb(0, 0, 0)};
+        PixelKernels.scalar().threshold(in, 0, out, 0, 2, 1.0, 0.35, 1, 2);
+        assertArrayEquals(new int[]{1, 2}, out);
+    }
+
+    @Test
+    void testVectorThresholdMatchesScalar() {
+        assumeTrue(PixelKernels.isVectorAvailable(), "run with --add-modules jdk.incubator.vector");
+        for (double adjustment : new double[]{0.5, 1.0, 1.7}) {
+            for (double threshold : new double[]{0.0, 0.35, 0.5}) {
+                int[] expected = new int[pixels.length];
+                int[] actual = new int[pixels.length];
+                // Odd offset and length, so the scalar tail is exercised too
+                PixelKernels.scalar().threshold(pixels, 3, expected, 1, pixels.length - 5, adjustment, threshold, -1, 7);
+                PixelKernels.vector().threshold(pixels, 3, actual, 1, pixels.length - 5, adjustment, threshold, -1, 7);
+                assertArrayEquals(expected, actual);
+            }
+        }
+    }
+
+    @Test
+    void testVectorTricolourMatchesScalar() {
+        assumeTrue(PixelKernels.isVectorAvailable(), "run with --add-modules jdk.incubator.vector");
+        for (double brightness : new double[]{-0.2, 0.0, 0.1, 0.35}) {
+            int[] expected = new int[pixels.length];
+            int[] actual = new int[pixels.length];
+            PixelKernels.scalar().tricolour(pixels, 3, expected, 1, pixels.length - 5, brightness, 1, 2, 3);
+            PixelKernels.vector().tricolour(pixels, 3, actual, 1, pixels.length - 5, brightness, 1, 2, 3);
+            assertArrayEquals(expected, actual);
+        }
+    }
+}
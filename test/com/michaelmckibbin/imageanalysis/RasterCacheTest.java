@@ -0,0 +1,105 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RasterCacheTest {
+
+    private Path directory;
+    private Path slide;
+    private RasterBuffer raster;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("raster-cache-test");
+        slide = Files.writeString(directory.resolve("slide.png"), "not really a png");
+        raster = new RasterBuffer(30, 20);
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 30; x++) {
+                raster.set(x, y, RasterBuffer.rgb(x * 8, y * 12, 77));
+            }
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private RasterCache newCache(long maxBytes) {
+        return new RasterCache(directory.resolve("cache"), maxBytes);
+    }
+
+    @Test
+    void testRoundTrip() {
+        RasterCache cache = newCache(1 << 20);
+        assertNull(cache.get(slide));
+
+        cache.put(slide, raster);
+        RasterBuffer read = cache.get(slide);
+        assertNotNull(read);
+        assertEquals(30, read.getWidth());
+        assertEquals(20, read.getHeight());
+        assertArrayEquals(raster.getPixels(), read.getPixels());
+    }
+
+    @Test
+    void testChangedFileIsAMiss() throws IOException {
+        RasterCache cache = newCache(1 << 20);
+        cache.put(slide, raster);
+
+        Files.setLastModifiedTime(slide, FileTime.fromMillis(Files.getLastModifiedTime(slide).toMillis() - 60_000));
+        assertNull(cache.get(slide));
+
+        // Storing again replaces the stale entry
+        cache.put(slide, raster);
+        assertNotNull(cache.get(slide));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        long entryBytes = RasterCache.HEADER_BYTES + 4L * 30 * 20;
+        RasterCache cache = newCache(2 * entryBytes);
+        Path other = Files.writeString(directory.resolve("other.png"), "x");
+        Path third = Files.writeString(directory.resolve("third.png"), "y");
+
+        cache.put(slide, raster);
+        cache.put(other, raster);
+        // Make the slide older than the other entry, then store a third
+        Files.setLastModifiedTime(cache.entryFor(slide), FileTime.fromMillis(1_000));
+        cache.put(third, raster);
+
+        assertNull(cache.get(slide));
+        assertNotNull(cache.get(other));
+        assertNotNull(cache.get(third));
+    }
+
+    @Test
+    void testRasterLargerThanLimitIsNotStored() {
+        RasterCache cache = newCache(100);
+        cache.put(slide, raster);
+        assertNull(cache.get(slide));
+    }
+
+    @Test
+    void testClear() throws IOException {
+        RasterCache cache = newCache(1 << 20);
+        cache.put(slide, raster);
+        cache.clear();
+        assertNull(cache.get(slide));
+    }
+}
@@ -0,0 +1,90 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResultCacheTest {
+
+    private ResultCache<RasterBuffer> cache;
+    private ImageProcessor processor;
+    private ProcessingParameters params;
+
+    @BeforeEach
+    void setUp() {
+        // Room for three 10x10 rasters
+        cache = new ResultCache<>(1200, raster -> 4L * raster.getWidth() * raster.getHeight());
+        processor = new BlackAndWhiteProcessor();
+        params = ProcessingParameters.getDefaultBlackAndWhite();
+    }
+
+    private ResultCache.Key key(long imageHash) {
+        return ResultCache.Key.of(imageHash, processor, params);
+    }
+
+    @Test
+    void testHitsAndMisses() {
+        RasterBuffer result = new RasterBuffer(10, 10);
+        assertNull(cache.get(key(1)));
+        cache.put(key(1), result);
+        assertSame(result, cache.get(key(1)));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(400, cache.getBytes());
+    }
+
+    @Test
+    void testKeyIncludesProcessorAndParameters() {
+        cache.put(key(1), new RasterBuffer(10, 10));
+
+        assertNull(cache.get(ResultCache.Key.of(1, new BlackAndWhiteProcessor(), params)));
+        assertNull(cache.get(ResultCache.Key.of(1, processor, params.scaledTo(0.5))));
+
+        // Equal values are the same key, including -0.0 and 0.0
+        ProcessingParameters same = ProcessingParameters.getDefaultBlackAndWhite();
+        assertNotNull(cache.get(ResultCache.Key.of(1, processor, same)));
+        ProcessingParameters negativeZero = new ProcessingParameters(-0.0, 0, 0, 0, 0, 0, 0, 0, 0, 5000);
+        assertNotNull(cache.get(ResultCache.Key.of(1, processor, negativeZero)));
+    }
+
+    @Test
+    void testLeastRecentlyUsedEvictedBySize() {
+        cache.put(key(1), new RasterBuffer(10, 10));
+        cache.put(key(2), new RasterBuffer(10, 10));
+        cache.put(key(3), new RasterBuffer(10, 10));
+        cache.get(key(1));
+
+        // Needs the room of two results: 2 and 3 are the least recently used
+        cache.put(key(4), new RasterBuffer(20, 10));
+        assertNotNull(cache.get(key(1)));
+        assertNull(cache.get(key(2)));
+        assertNull(cache.get(key(3)));
+        assertNotNull(cache.get(key(4)));
+        assertEquals(1200, cache.getBytes());
+
+        // Too large to keep at all
+        cache.put(key(5), new RasterBuffer(40, 10));
+        assertNull(cache.get(key(5)));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testInvalidate() {
+        cache.put(key(1), new RasterBuffer(10, 10));
+        cache.invalidate();
+        assertNull(cache.get(key(1)));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    void testContentHash() {
+        RasterBuffer image = new RasterBuffer(10, 10);
+        long empty = image.contentHash();
+        image.set(3, 4, RasterBuffer.rgb(1, 2, 3));
+        assertNotEquals(empty, image.contentHash());
+        assertEquals(image.contentHash(), image.copy().contentHash());
+        assertNotEquals(new RasterBuffer(20, 5).contentHash(), new RasterBuffer(10, 10).contentHash());
+    }
+}
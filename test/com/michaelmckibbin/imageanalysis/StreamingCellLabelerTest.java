@@ -0,0 +1,108 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StreamingCellLabelerTest {
+
+    /** The class of a pixel is its blue channel */
+    private ColourClassLut lut;
+
+    @BeforeEach
+    void setUp() {
+        lut = ColourClassLut.of(List.of("streaming-test"), (r, g, b) -> (byte) (b < 3 ? b : 0));
+    }
+
+    private List<StreamingCellLabeler.Component> stream(RasterBuffer image, Connectivity connectivity,
+                                                        int bandHeight) throws IOException {
+        StreamingCellLabeler labeler = new StreamingCellLabeler(lut, connectivity);
+        labeler.setBandHeight(bandHeight);
+        List<StreamingCellLabeler.Component> components = new ArrayList<>();
+        labeler.label(TileSource.of(image), components::add);
+        components.sort(Comparator.comparingLong(StreamingCellLabeler.Component::firstPixel));
+        return components;
+    }
+
+    @Test
+    void testMatchesWholeImageLabelling() throws IOException {
+        Random random = new Random(11);
+        for (Connectivity connectivity : Connectivity.values()) {
+            for (int i = 0; i < 40; i++) {
+                int width = 1 + random.nextInt(60);
+                int height = 1 + random.nextInt(60);
+                RasterBuffer image = new RasterBuffer(width, height);
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        image.set(x, y, RasterBuffer.rgb(0, 0, random.nextInt(3)));
+                    }
+                }
+
+                byte[] classes = lut.classify(image);
+                ComponentStats stats = new ComponentStats();
+                new PixelComponentLabeler(connectivity).labelStats(classes, width, height,
+                        new int[width * height], stats, null);
+
+                for (int bandHeight : new int[] {1, 5, 64}) {
+                    List<StreamingCellLabeler.Component> components = stream(image, connectivity, bandHeight);
+                    String message = connectivity + " " + width + "x" + height + " bands of " + bandHeight;
+                    assertEquals(stats.getComponentCount(), components.size(), message);
+                    for (int label = 1; label <= stats.getComponentCount(); label++) {
+                        StreamingCellLabeler.Component c = components.get(label - 1);
+                        assertEquals(stats.getArea(label), c.area(), message);
+                        assertEquals(stats.getCellClass(label), c.cellClass(), message);
+                        assertEquals(stats.getMinX(label), c.minX(), message);
+                        assertEquals(stats.getMinY(label), c.minY(), message);
+                        assertEquals(stats.getMaxX(label), c.maxX(), message);
+                        assertEquals(stats.getMaxY(label), c.maxY(), message);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testComponentsAreEmittedWhenTheyClose() throws IOException {
+        // A 2 row block at the top, then a long column down the left side
+        RasterBuffer image = new RasterBuffer(10, 50);
+        image.fill(RasterBuffer.rgb(0, 0, 7));
+        for (int x = 4; x < 8; x++) {
+            image.set(x, 0, RasterBuffer.rgb(0, 0, 1));
+            image.set(x, 1, RasterBuffer.rgb(0, 0, 1));
+        }
+        for (int y = 0; y < 50; y++) {
+            image.set(0, y, RasterBuffer.rgb(0, 0, 2));
+        }
+
+        List<StreamingCellLabeler.Component> order = new ArrayList<>();
+        new StreamingCellLabeler(lut, Connectivity.FOUR).label(TileSource.of(image), order::add);
+        assertEquals(2, order.size());
+        assertEquals(CellClass.WHITE_CELL, order.get(0).cellClass());
+        assertEquals(8, order.get(0).area());
+        assertEquals(CellClass.RED_CELL, order.get(1).cellClass());
+        assertEquals(50, order.get(1).area());
+        assertEquals(49, order.get(1).maxY());
+    }
+
+    @Test
+    void testSlotsAreRecycled() throws IOException {
+        // Thousands of single pixel components, but never more than a few open at once
+        RasterBuffer image = new RasterBuffer(8, 4000);
+        image.fill(RasterBuffer.rgb(0, 0, 7));
+        for (int y = 0; y < 4000; y += 2) {
+            image.set(y % 8, y, RasterBuffer.rgb(0, 0, 1));
+        }
+        StreamingCellLabeler labeler = new StreamingCellLabeler(lut, Connectivity.EIGHT);
+        int[] count = new int[1];
+        labeler.label(TileSource.of(image), component -> count[0]++);
+        assertEquals(2000, count[0]);
+        assertTrue(labeler.getSlotsUsed() <= 8, "Slots used: " + labeler.getSlotsUsed());
+    }
+}
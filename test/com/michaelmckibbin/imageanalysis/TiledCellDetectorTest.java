@@ -0,0 +1,122 @@
+package com.michaelmckibbin.imageanalysis;
+
+import javafx.scene.shape.Rectangle;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TiledCellDetectorTest {
+
+    /** The class of a pixel is its blue channel */
+    private ColourClassLut lut;
+
+    @BeforeEach
+    void setUp() {
+        lut = ColourClassLut.of(List.of("tiled-test"), (r, g, b) -> (byte) (b < 3 ? b : 0));
+    }
+
+    private static RasterBuffer randomImage(Random random, int width, int height) {
+        RasterBuffer image = new RasterBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.set(x, y, RasterBuffer.rgb(0, 0, random.nextInt(3)));
+            }
+        }
+        return image;
+    }
+
+    /** The cells from labelling the whole image at once */
+    private CellDetectionResult labelWhole(RasterBuffer image, Connectivity connectivity, int min, int max) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] classes = lut.classify(image);
+        int[] labels = new int[width * height];
+        ComponentStats stats = new ComponentStats();
+        new PixelComponentLabeler(connectivity).labelStats(classes, width, height, labels, stats, null);
+
+        List<Rectangle> white = new ArrayList<>();
+        List<Rectangle> red = new ArrayList<>();
+        for (int label = 1; label <= stats.getComponentCount(); label++) {
+            int area = stats.getArea(label);
+            if (area >= min && area <= max) {
+                Rectangle cell = new Rectangle(stats.getMinX(label), stats.getMinY(label),
+                        stats.getMaxX(label) - stats.getMinX(label),
+                        stats.getMaxY(label) - stats.getMinY(label));
+                (stats.getCellClass(label) == CellClass.WHITE_CELL ? white : red).add(cell);
+            }
+        }
+        return new CellDetectionResult(white, red);
+    }
+
+    private static void assertSameCells(List<Rectangle> expected, List<Rectangle> actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            Rectangle e = expected.get(i);
+            Rectangle a = actual.get(i);
+            assertEquals(e.getX(), a.getX(), message + " cell " + i);
+            assertEquals(e.getY(), a.getY(), message + " cell " + i);
+            assertEquals(e.getWidth(), a.getWidth(), message + " cell " + i);
+            assertEquals(e.getHeight(), a.getHeight(), message + " cell " + i);
+        }
+    }
+
+    @Test
+    void testMatchesWholeImageLabelling() throws IOException {
+        Random random = new Random(7);
+        for (Connectivity connectivity : Connectivity.values()) {
+            for (int i = 0; i < 30; i++) {
+                int width = 1 + random.nextInt(70);
+                int height = 1 + random.nextInt(70);
+                RasterBuffer image = randomImage(random, width, height);
+                int min = 1 + random.nextInt(3);
+                int max = min + random.nextInt(200);
+                CellDetectionResult expected = labelWhole(image, connectivity, min, max);
+
+                for (int tileSize : new int[] {1, 2, 3, 7, 16, 100}) {
+                    TiledCellDetector detector = new TiledCellDetector(lut,
+                            new RunLengthComponentLabeler(connectivity), tileSize);
+                    CellDetectionResult tiled = detector.detect(TileSource.of(image), min, max);
+                    String message = connectivity + " " + width + "x" + height + " tiles of " + tileSize;
+                    assertSameCells(expected.getWhiteCells(), tiled.getWhiteCells(), message);
+                    assertSameCells(expected.getRedCells(), tiled.getRedCells(), message);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testComponentAcrossManyTiles() throws IOException {
+        // A snake: full rows joined alternately at the right and left ends
+        RasterBuffer image = new RasterBuffer(40, 21);
+        image.fill(RasterBuffer.rgb(0, 0, 0));
+        for (int y = 0; y < 21; y += 2) {
+            for (int x = 0; x < 40; x++) {
+                image.set(x, y, RasterBuffer.rgb(0, 0, 2));
+            }
+            if (y + 1 < 21) {
+                image.set(y % 4 == 0 ? 39 : 0, y + 1, RasterBuffer.rgb(0, 0, 2));
+            }
+        }
+        TiledCellDetector detector = new TiledCellDetector(lut,
+                new RunLengthComponentLabeler(Connectivity.FOUR), 4);
+        CellDetectionResult cells = detector.detect(TileSource.of(image), 1, 10_000);
+        assertEquals(0, cells.getWhiteCellCount());
+        assertEquals(1, cells.getRedCellCount());
+        Rectangle snake = cells.getRedCells().get(0);
+        assertEquals(0, snake.getX());
+        assertEquals(39, snake.getWidth());
+        assertEquals(20, snake.getHeight());
+    }
+
+    @Test
+    void testInvalidTileSize() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new TiledCellDetector(lut, new RunLengthComponentLabeler(Connectivity.FOUR), 0));
+    }
+}
@@ -119,6 +119,104 @@ class UnionFindBloodCellProcessorTest {
         assertTrue(assertionsPassed[0], "Assertions failed in JavaFX thread");
     }
 
+    @Test
+    void testSizeOnlyChangeReusesLabelling() {
+        RasterBuffer image = new RasterBuffer(60, 40);
+        image.fill(RasterBuffer.rgb(255, 255, 255));
+        int purple = RasterBuffer.rgb(75, 0, 130);
+        int[][] squares = {{2, 2, 3}, {10, 2, 5}, {20, 2, 10}}; // x, y, side
+        for (int[] square : squares) {
+            for (int y = square[1]; y < square[1] + square[2]; y++) {
+                for (int x = square[0]; x < square[0] + square[2]; x++) {
+                    image.set(x, y, purple);
+                }
+            }
+        }
+
+        params.setMinCellSize(0);   // 1 pixel
+        params.setMaxCellSize(100); // 20000 pixels
+        assertEquals(3, processor.detectCells(image, params).getWhiteCellCount());
+        assertEquals(1, processor.getLabellingRuns());
+
+        // Only the sizes change: filtered again without labelling
+        params.setMinCellSize(2);   // 20 pixels
+        assertEquals(2, processor.detectCells(image, params).getWhiteCellCount());
+        params.setMinCellSize(0);
+        params.setMaxCellSize(0);   // 100 pixels
+        assertEquals(3, processor.detectCells(image, params).getWhiteCellCount());
+        assertEquals(1, processor.getLabellingRuns());
+
+        // A colour threshold or a different raster needs a new labelling
+        params.setWhiteCellThreshold(71);
+        processor.detectCells(image, params);
+        assertEquals(2, processor.getLabellingRuns());
+        assertEquals(3, processor.detectCells(image.copy(), params).getWhiteCellCount());
+        assertEquals(3, processor.getLabellingRuns());
+    }
+
+    @Test
+    void testThresholdChangeAnsweredFromComponentTrees() {
+        // A dark and a lighter purple square
+        RasterBuffer image = new RasterBuffer(40, 20);
+        image.fill(RasterBuffer.rgb(255, 255, 255));
+        for (int y = 2; y < 10; y++) {
+            for (int x = 2; x < 10; x++) {
+                image.set(x, y, RasterBuffer.rgb(60, 0, 120));       // brightness 0.24
+                image.set(x + 20, y, RasterBuffer.rgb(120, 90, 180)); // brightness 0.51
+            }
+        }
+        params.setMinCellSize(0);
+        params.setMaxCellSize(100);
+
+        params.setWhiteCellThreshold(60);
+        assertEquals(2, processor.detectCells(image, params).getWhiteCellCount());
+        params.setWhiteCellThreshold(50);
+        assertEquals(1, processor.detectCells(image, params).getWhiteCellCount());
+        assertEquals(2, processor.getLabellingRuns());
+
+        // The second threshold started the trees; from then on nothing is labelled
+        processor.awaitComponentTrees();
+        params.setWhiteCellThreshold(20);
+        assertEquals(0, processor.detectCells(image, params).getWhiteCellCount());
+        params.setWhiteCellThreshold(60);
+        CellDetectionResult result = processor.detectCells(image, params);
+        assertEquals(2, result.getWhiteCellCount());
+        assertEquals(22, result.getWhiteCells().get(1).getX());
+        assertEquals(2, processor.getLabellingRuns());
+    }
+
+    @Test
+    void testComponentTreesKeptForPreviewAndFullImage() {
+        // Like dragging a slider: the threshold changes on a preview, then on the full image
+        RasterBuffer full = new RasterBuffer(40, 20);
+        full.fill(RasterBuffer.rgb(255, 255, 255));
+        for (int y = 2; y < 10; y++) {
+            for (int x = 2; x < 10; x++) {
+                full.set(x, y, RasterBuffer.rgb(60, 0, 120));
+            }
+        }
+        RasterBuffer preview = full.copy();
+        params.setMinCellSize(0);
+        params.setMaxCellSize(100);
+
+        for (RasterBuffer image : new RasterBuffer[] {preview, full}) {
+            params.setWhiteCellThreshold(60);
+            processor.detectCells(image, params);
+            params.setWhiteCellThreshold(50);
+            processor.detectCells(image, params);
+        }
+        processor.awaitComponentTrees();
+        int runs = processor.getLabellingRuns();
+
+        // Both images keep their trees, so alternating between them labels nothing
+        for (int threshold = 20; threshold <= 40; threshold += 5) {
+            params.setWhiteCellThreshold(threshold);
+            processor.detectCells(preview, params);
+            processor.detectCells(full, params);
+        }
+        assertEquals(runs, processor.getLabellingRuns());
+    }
+
     private WritableImage createTestImage() {
         WritableImage image = new WritableImage(100, 100);
         PixelWriter writer = image.getPixelWriter();
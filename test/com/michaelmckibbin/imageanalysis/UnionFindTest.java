@@ -0,0 +1,72 @@
+package com.michaelmckibbin.imageanalysis;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UnionFindTest {
+    private UnionFind uf;
+
+    @BeforeEach
+    void setUp() {
+        uf = new UnionFind(10);
+    }
+
+    @Test
+    void testUnionAndFind() {
+        assertTrue(uf.union(1, 2));
+        assertTrue(uf.union(2, 3));
+        assertFalse(uf.union(1, 3));
+
+        assertTrue(uf.connected(1, 3));
+        assertFalse(uf.connected(1, 4));
+        assertEquals(3, uf.getSize(2));
+        assertEquals(8, uf.countSets());
+    }
+
+    @Test
+    void testInvalidIndex() {
+        assertThrows(IllegalArgumentException.class, () -> uf.find(10));
+        assertThrows(IllegalArgumentException.class, () -> uf.find(-1));
+    }
+
+    @Test
+    void testLongChainDoesNotOverflowStack() {
+        int n = 5_000_000;
+        uf.reset(n);
+        for (int i = 1; i < n; i++) {
+            uf.union(i - 1, i);
+        }
+        assertEquals(1, uf.countSets());
+        assertEquals(n, uf.getSize(n - 1));
+    }
+
+    @Test
+    void testResetReusesStructure() {
+        uf.union(0, 9);
+        uf.reset(5);
+
+        assertEquals(5, uf.size());
+        assertEquals(5, uf.countSets());
+        assertFalse(uf.connected(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> uf.find(9));
+    }
+
+    @Test
+    void testFlattenAllAssignsDenseLabelsInElementOrder() {
+        uf.union(7, 2);
+        uf.union(9, 5);
+        uf.union(5, 0);
+
+        int labels = uf.flattenAll();
+
+        assertEquals(7, labels);
+        assertEquals(0, uf.getLabel(0));  // {0, 5, 9}
+        assertEquals(1, uf.getLabel(1));
+        assertEquals(2, uf.getLabel(2));  // {2, 7}
+        assertEquals(2, uf.getLabel(7));
+        assertEquals(0, uf.getLabel(9));
+        assertEquals(6, uf.getLabel(8));
+    }
+}